@@ -0,0 +1,105 @@
+package hyflow.caesar;
+
+import hyflow.common.LongHashSet;
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conflict detection on a history of {@code history} requests. A request
+ * accesses one of a few hot objects with probability
+ * {@code conflictPercent}, and otherwise one of as many cold objects as
+ * there are requests. Probes sit in the most recent tenth of the history,
+ * where new proposals land.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConflictDetectorBenchmark {
+
+    private static final int NUM_REPLICAS = 3;
+    private static final int HOT_OBJECTS = 8;
+    private static final int PROBES = 1024;
+    private static final byte[] PAYLOAD = new byte[16];
+
+    @Param({"1000", "10000", "100000"})
+    public int history;
+
+    @Param({"0", "10", "50", "100"})
+    public int conflictPercent;
+
+    private ConflictDetector detector;
+    private Request[] requests;
+    private Request[] probes;
+    private long nextPosition;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        detector = new ConflictDetector(HOT_OBJECTS + history, new SlotTable(2 * history, NUM_REPLICAS));
+
+        requests = new Request[history];
+        for (int i = 0; i < history; i++) {
+            requests[i] = new Request(id(i), new int[]{object(random)}, PAYLOAD,
+                    position(i), null, RequestStatus.FastPending, 0);
+            detector.updateRequest(requests[i]);
+        }
+        nextPosition = position(history);
+
+        probes = new Request[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int at = history - 1 - random.nextInt(Math.max(1, history / 10));
+            probes[i] = new Request(id(history + i), new int[]{object(random)}, PAYLOAD,
+                    position(at) + 1, null, RequestStatus.FastPending, 0);
+        }
+    }
+
+    private static RequestId id(int i) {
+        return new RequestId((short) (i % NUM_REPLICAS), i / NUM_REPLICAS);
+    }
+
+    private static long position(int i) {
+        return (long) i * NUM_REPLICAS;
+    }
+
+    private int object(Random random) {
+        if (random.nextInt(100) < conflictPercent) {
+            return random.nextInt(HOT_OBJECTS);
+        }
+        return HOT_OBJECTS + random.nextInt(history);
+    }
+
+    private Request nextProbe() {
+        cursor = (cursor + 1) % PROBES;
+        return probes[cursor];
+    }
+
+    /** Moves a request of the history to the tail, as a retry or stable does. */
+    @Benchmark
+    public Request updateRequest() {
+        cursor = (cursor + 1) % history;
+        Request request = requests[cursor];
+        nextPosition += NUM_REPLICAS;
+        return detector.updateRequest(new Request(request.getCommand(),
+                nextPosition, null, RequestStatus.Stable, 0));
+    }
+
+    @Benchmark
+    public Request[][] computeWaitSet() {
+        return detector.computeWaitSet(nextProbe());
+    }
+
+    @Benchmark
+    public LongHashSet computeNewPredFor() {
+        Request probe = nextProbe();
+        return detector.computeNewPredFor(probe, probe.getPosition(), null);
+    }
+}
@@ -0,0 +1,72 @@
+package hyflow.caesar;
+
+import hyflow.caesar.messages.FastProposeReply;
+import hyflow.common.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting the fast propose replies of one request, up to the fast
+ * quorum, and merging their preds into the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastProposeReplyInfoBenchmark {
+
+    @Param({"3", "5", "7"})
+    public int numReplicas;
+
+    @Param({"0", "16", "256"})
+    public int predSize;
+
+    private Request request;
+    private FastProposeReply[] replies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<PID> processes = new ArrayList<>();
+        for (int i = 0; i < numReplicas; i++) {
+            processes.add(new PID(i, "localhost", 2000 + i, 1));
+        }
+        ProcessDescriptor.initialize(new Configuration(processes), 0);
+
+        request = new Request(new RequestId((short) 0, 1), new int[]{0}, new byte[16],
+                1000, null, RequestStatus.PreFastPending, 0);
+        replies = new FastProposeReply[numReplicas];
+        for (int sender = 0; sender < numReplicas; sender++) {
+            // replicas see mostly the same pred, with a few ids of their own
+            LongHashSet pred = new LongHashSet();
+            for (int i = 0; i < predSize; i++) {
+                pred.add(new RequestId((short) (i % numReplicas), i / numReplicas).toLong());
+            }
+            pred.add(new RequestId((short) sender, 1_000_000).toLong());
+            replies[sender] = new FastProposeReply(0, request.getId(), FastProposeReply.Status.ACK,
+                    PackedRequestIds.of(pred), 1000 + sender, 0);
+        }
+    }
+
+    @Benchmark
+    public boolean addReplies() {
+        FastProposeReplyInfo info = new FastProposeReplyInfo(request, numReplicas);
+        for (int sender = 0; !info.isFastQuorum(); sender++) {
+            info.addReply(replies[sender], sender);
+        }
+        return info.hasNack();
+    }
+
+    @Benchmark
+    public Request addRepliesAndMerge() {
+        FastProposeReplyInfo info = new FastProposeReplyInfo(request, numReplicas);
+        for (int sender = 0; !info.isFastQuorum(); sender++) {
+            info.addReply(replies[sender], sender);
+        }
+        return info.updateAndGetRequest();
+    }
+}
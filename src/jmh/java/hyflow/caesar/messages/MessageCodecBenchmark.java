@@ -0,0 +1,98 @@
+package hyflow.caesar.messages;
+
+import hyflow.common.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding with {@link Message#toByteArray()} and decoding with
+ * {@link MessageFactory#create(ByteBuffer)}, per message type, with preds
+ * of {@code predSize} ids.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"FastPropose", "FastProposeReply", "SlowPropose", "SlowProposeReply", "Retry", "RetryReply",
+            "Stable", "Recovery", "RecoveryReply", "Watermark"})
+    public String type;
+
+    @Param({"0", "16", "256"})
+    public int predSize;
+
+    private Message message;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LongHashSet ids = new LongHashSet();
+        for (int i = 0; i < predSize; i++) {
+            ids.add(new RequestId((short) (i % 3), i / 3).toLong());
+        }
+        PackedRequestIds pred = PackedRequestIds.of(ids);
+        RequestId rId = new RequestId((short) 1, 1_000_000);
+        Request request = new Request(rId, new int[]{7}, new byte[64], 3_000_000, pred, RequestStatus.Stable, 0);
+
+        switch (type) {
+            case "FastPropose":
+                message = new FastPropose(0, request, null);
+                break;
+            case "FastProposeReply":
+                message = new FastProposeReply(0, rId, FastProposeReply.Status.ACK, pred, 3_000_000, 0);
+                break;
+            case "SlowPropose":
+                message = new SlowPropose(0, request);
+                break;
+            case "SlowProposeReply":
+                message = new SlowProposeReply(0, rId, SlowProposeReply.Status.ACK, pred, 3_000_000);
+                break;
+            case "Retry":
+                message = new Retry(0, request);
+                break;
+            case "RetryReply":
+                message = new RetryReply(0, rId, pred);
+                break;
+            case "Stable":
+                message = new Stable(0, request);
+                break;
+            case "Recovery":
+                message = new Recovery(0, ids.toArray(), new int[ids.size()]);
+                break;
+            case "RecoveryReply":
+                RecoveryReply.Entry[] entries = new RecoveryReply.Entry[Math.max(1, predSize)];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = new RecoveryReply.Entry(request);
+                }
+                message = new RecoveryReply(0, entries);
+                break;
+            case "Watermark":
+                int[] objectIds = new int[Math.max(1, predSize)];
+                long[] positions = new long[objectIds.length];
+                for (int i = 0; i < objectIds.length; i++) {
+                    objectIds[i] = i;
+                    positions[i] = 3_000_000 + i;
+                }
+                message = new Watermark(0, objectIds, positions);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown message type " + type);
+        }
+        bytes = message.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return message.toByteArray();
+    }
+
+    @Benchmark
+    public Message decode() {
+        return MessageFactory.create(ByteBuffer.wrap(bytes));
+    }
+}
@@ -0,0 +1,65 @@
+package hyflow.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing tasks from one thread over to a {@link Dispatcher}: the round
+ * trip of a single task, and a burst of tasks with distinct keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+
+    private static final int BURST = 1024;
+
+    @Param({"Priority", "Affinity"})
+    public String type;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Dispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (type) {
+            case "Priority":
+                dispatcher = new ThreadDispatcher("Bench", threads);
+                break;
+            case "Affinity":
+                dispatcher = new AffinityDispatcher("Bench", threads);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown dispatcher type " + type);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    public void roundTrip() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.execute(done::countDown, 0, 0);
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BURST);
+        for (int i = 0; i < BURST; i++) {
+            dispatcher.execute(done::countDown, 0, i);
+        }
+        done.await();
+    }
+}
@@ -2,9 +2,11 @@ package hyflow.benchmark;
 
 import hyflow.common.Request;
 import hyflow.common.RequestId;
+import hyflow.transaction.SharedObjectRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Paths;
@@ -31,4 +33,35 @@ public abstract class AbstractService {
 
     public abstract int getTotalObjects();
 
+    /**
+     * The registry holding the whole service state, which the replica
+     * snapshots copy-on-write.
+     *
+     * @return the registry, or null if the service does not support snapshots
+     */
+    protected SharedObjectRegistry getRegistry() {
+        return null;
+    }
+
+    public final boolean supportsSnapshots() {
+        return getRegistry() != null;
+    }
+
+    /**
+     * Starts a copy-on-write snapshot of the service state. Called while no
+     * request executes; execution resumes as soon as it returns. Only called
+     * if {@link #supportsSnapshots()}.
+     */
+    public final SharedObjectRegistry.Snapshot beginSnapshot() {
+        return getRegistry().beginSnapshot();
+    }
+
+    /**
+     * Replaces the service state with a snapshot written by {@link #beginSnapshot()}.
+     * Only called if {@link #supportsSnapshots()}.
+     */
+    public final void restoreSnapshot(DataInputStream input) throws IOException {
+        getRegistry().restore(input);
+    }
+
 }
@@ -2,6 +2,10 @@ package hyflow.benchmark.bank;
 
 import hyflow.transaction.AbstractObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Created by balajiarun on 3/7/16.
  */
@@ -36,5 +40,14 @@ public class Account extends AbstractObject {
     public void deposit(int amount) {
         balance += amount;
     }
-}
 
+    @Override
+    public void writeState(DataOutput output) throws IOException {
+        output.writeInt(balance);
+    }
+
+    @Override
+    public void readState(DataInput input) throws IOException {
+        balance = input.readInt();
+    }
+}
@@ -51,8 +51,8 @@ public class Bank extends AbstractService {
 
         Account srcAccount, dstAccount;
 
-        srcAccount = (Account) registry.getObject(src);
-        dstAccount = (Account) registry.getObject(dst);
+        srcAccount = (Account) registry.openForWrite(src);
+        dstAccount = (Account) registry.openForWrite(dst);
         srcAccount.withdraw(DEFAULT_TRANSACTION_AMOUNT);
         dstAccount.deposit(DEFAULT_TRANSACTION_AMOUNT);
         return true;
@@ -147,6 +147,11 @@ public class Bank extends AbstractService {
         return numAccounts;
     }
 
+    @Override
+    protected SharedObjectRegistry getRegistry() {
+        return registry;
+    }
+
     public enum OpType {
         Transfer,
         GetBalance
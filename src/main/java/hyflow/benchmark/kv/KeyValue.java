@@ -45,7 +45,7 @@ public class KeyValue extends AbstractService {
     }
 
     private int putValue(int key, int value) {
-        Value object = (Value) registry.getObject(key);
+        Value object = (Value) registry.openForWrite(key);
         int prevValue = object.getValue();
         object.setValue(value);
         return prevValue;
@@ -224,6 +224,11 @@ public class KeyValue extends AbstractService {
         return size;
     }
 
+    @Override
+    protected SharedObjectRegistry getRegistry() {
+        return registry;
+    }
+
     private enum OpType {
         Get,
         Put
@@ -2,6 +2,10 @@ package hyflow.benchmark.kv;
 
 import hyflow.transaction.AbstractObject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Created by balajiarun on 3/7/16.
  */
@@ -28,5 +32,14 @@ public class Value extends AbstractObject {
     public void setValue(int value) {
         this.value = value;
     }
-}
 
+    @Override
+    public void writeState(DataOutput output) throws IOException {
+        output.writeInt(value);
+    }
+
+    @Override
+    public void readState(DataInput input) throws IOException {
+        value = input.readInt();
+    }
+}
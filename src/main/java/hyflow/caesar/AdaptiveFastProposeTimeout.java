@@ -0,0 +1,72 @@
+package hyflow.caesar;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Waits until the fast quorum is expected to be in. Keeps a moving average
+ * and mean deviation of the reply latency of every replica, the way TCP
+ * estimates its retransmission timeout, and expects the fast quorum by the
+ * time the {@code fastQuorum}-th fastest replica is expected to reply,
+ * allowing {@value #DEVIATIONS} deviations each. The wait is kept between a
+ * floor and a ceiling; without samples the ceiling is used.
+ * <p>
+ * Concurrent updates of the same replica may overwrite each other; losing
+ * a sample only slows the estimate down.
+ */
+final class AdaptiveFastProposeTimeout implements FastProposeTimeout {
+
+    /* weights of a new sample: 1/8 for the average, 1/4 for the deviation */
+    private static final int AVERAGE_SHIFT = 3;
+    private static final int DEVIATION_SHIFT = 2;
+    private static final int DEVIATIONS = 4;
+
+    private final int fastQuorum;
+    private final long minNanos;
+    private final long maxNanos;
+
+    /* per replica, in nanoseconds; 0 until the first sample */
+    private final AtomicLongArray average;
+    private final AtomicLongArray deviation;
+
+    AdaptiveFastProposeTimeout(int numReplicas, int fastQuorum, long minNanos, long maxNanos) {
+        this.fastQuorum = fastQuorum;
+        this.minNanos = minNanos;
+        this.maxNanos = Math.max(minNanos, maxNanos);
+        this.average = new AtomicLongArray(numReplicas);
+        this.deviation = new AtomicLongArray(numReplicas);
+    }
+
+    @Override
+    public void recordReply(int replica, long latencyNanos) {
+        long latency = Math.max(1, latencyNanos);
+        long avg = average.get(replica);
+        if (avg == 0) {
+            average.set(replica, latency);
+            deviation.set(replica, latency / 2);
+            return;
+        }
+        long dev = deviation.get(replica);
+        deviation.set(replica, dev + ((Math.abs(latency - avg) - dev) >> DEVIATION_SHIFT));
+        average.set(replica, avg + ((latency - avg) >> AVERAGE_SHIFT));
+    }
+
+    @Override
+    public long remainingNanos(long elapsedNanos) {
+        return Math.min(maxNanos, Math.max(minNanos, expectedQuorumNanos() - elapsedNanos));
+    }
+
+    /** Expected time from sending a proposal to receiving the fast quorum. */
+    long expectedQuorumNanos() {
+        int n = average.length();
+        long[] expected = new long[n];
+        for (int i = 0; i < n; i++) {
+            long avg = average.get(i);
+            // a replica that never replied is not expected in time
+            expected[i] = avg == 0 ? Long.MAX_VALUE : avg + DEVIATIONS * deviation.get(i);
+        }
+        Arrays.sort(expected);
+        long quorum = expected[Math.min(fastQuorum, n) - 1];
+        return quorum == Long.MAX_VALUE ? maxNanos : quorum;
+    }
+}
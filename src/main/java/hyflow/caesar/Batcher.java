@@ -0,0 +1,153 @@
+package hyflow.caesar;
+
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups client requests into a single consensus instance. A batch is
+ * proposed once its encoded members reach {@code maxBatchSize} bytes or the
+ * oldest member waited {@code maxBatchDelay} ms, whichever comes first.
+ * <p>
+ * The batch takes the id of its first member, accesses the union of the
+ * members' objects and carries the members packed in its payload. Replicas
+ * unpack it at delivery with {@link #unpack(Request)}.
+ */
+public final class Batcher {
+
+    private final int maxBatchSize;
+    private final int maxBatchDelay;
+    private final ScheduledExecutorService dispatcher;
+    private final Consumer<Request> proposer;
+
+    /* batch being filled; guarded by this */
+    private List<Request> pending = new ArrayList<>();
+    private int pendingBytes = 0;
+    private long batchSeq = 0;
+
+    Batcher(int maxBatchSize, int maxBatchDelay, ScheduledExecutorService dispatcher,
+            Consumer<Request> proposer) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelay = maxBatchDelay;
+        this.dispatcher = dispatcher;
+        this.proposer = proposer;
+    }
+
+    void add(Request request) {
+        List<Request> full = null;
+
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                final long seq = batchSeq;
+                dispatcher.schedule(() -> flush(seq), maxBatchDelay, TimeUnit.MILLISECONDS);
+            }
+            pending.add(request);
+            pendingBytes += encodedSize(request);
+
+            if (pendingBytes >= maxBatchSize) {
+                full = takePending();
+            }
+        }
+
+        if (full != null) {
+            propose(full);
+        }
+    }
+
+    /** Timer flush; a no-op if the batch it was armed for already left. */
+    private void flush(long seq) {
+        List<Request> batch;
+        synchronized (this) {
+            if (seq != batchSeq || pending.isEmpty()) {
+                return;
+            }
+            batch = takePending();
+        }
+        propose(batch);
+    }
+
+    private List<Request> takePending() {
+        List<Request> batch = pending;
+        pending = new ArrayList<>(batch.size());
+        pendingBytes = 0;
+        batchSeq++;
+        return batch;
+    }
+
+    private void propose(List<Request> members) {
+        Request batch = pack(members);
+        dispatcher.execute(() -> proposer.accept(batch));
+    }
+
+    private static int encodedSize(Request request) {
+        return request.getId().byteSize() + 4 + request.getObjectIds().length * 4 + 4 + request.getPayload().length;
+    }
+
+    static Request pack(List<Request> members) {
+        int size = 4;
+        int objectCount = 0;
+        for (Request member : members) {
+            size += encodedSize(member);
+            objectCount += member.getObjectIds().length;
+        }
+
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        int[] objectIds = new int[objectCount];
+        int index = 0;
+
+        bb.putInt(members.size());
+        for (Request member : members) {
+            member.getId().writeTo(bb);
+            bb.putInt(member.getObjectIds().length);
+            for (int oId : member.getObjectIds()) {
+                bb.putInt(oId);
+                objectIds[index++] = oId;
+            }
+            bb.putInt(member.getPayload().length);
+            bb.put(member.getPayload());
+        }
+
+        return new Request(members.get(0).getId(), union(objectIds), bb.array());
+    }
+
+    /**
+     * Splits a delivered batch back into the client requests it carries, in
+     * the order they were batched.
+     */
+    public static Request[] unpack(Request batch) {
+        ByteBuffer bb = ByteBuffer.wrap(batch.getPayload());
+        Request[] members = new Request[bb.getInt()];
+
+        for (int i = 0; i < members.length; i++) {
+            RequestId rId = new RequestId(bb.getShort(), bb.getInt());
+            int[] objectIds = new int[bb.getInt()];
+            for (int j = 0; j < objectIds.length; j++) {
+                objectIds[j] = bb.getInt();
+            }
+            byte[] payload = new byte[bb.getInt()];
+            bb.get(payload);
+            members[i] = new Request(rId, objectIds, payload);
+        }
+
+        return members;
+    }
+
+    /** Sorted, duplicate-free copy of {@code ids}. */
+    private static int[] union(int[] ids) {
+        Arrays.sort(ids);
+        int length = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[length++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, length);
+    }
+}
@@ -3,25 +3,30 @@ package hyflow.caesar;
 import hyflow.caesar.messages.*;
 import hyflow.caesar.network.MessageHandler;
 import hyflow.caesar.network.Network;
+import hyflow.caesar.network.NioNetwork;
 import hyflow.caesar.network.TcpNetwork;
 import hyflow.caesar.network.UdpNetwork;
+import hyflow.caesar.statistics.RequestProfile;
+import hyflow.caesar.storage.StableLog;
 import hyflow.common.*;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public final class Caesar implements FailureDetector.FailureDetectorListener {
 
     private final static Logger logger = LogManager.getLogger(Caesar.class);
 
     private final ScheduledThreadDispatcher cReqDispatcher;
-    private final ThreadDispatcher auxDispatcher;
-    private final ThreadDispatcher propDispatcher;
+    private final Dispatcher auxDispatcher;
+    private final Dispatcher propDispatcher;
     private final ScheduledThreadDispatcher intDispatcher;
-    private final ThreadDispatcher stableDispatcher;
+    private final Dispatcher stableDispatcher;
 
     private final TimestampGenerator tsGen;
     private final UdpNetwork udpNetwork;
@@ -37,7 +42,11 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
     private final FailureDetector failureDetector;
     private Proposer proposer;
     private ConflictDetector cDetector;
+    private final Batcher batcher;
+    private final StableLog stableLog;
     private DecideCallback callback;
+    /* set until the state has been fetched from a peer; no proposal is answered meanwhile */
+    private volatile boolean catchingUp;
 
     private Map<String, Pair<Integer, Integer>> barrierMap = new HashMap<String, Pair<Integer, Integer>>();
 
@@ -45,11 +54,11 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
     public Caesar(int totalObjects) throws IOException {
         this.pd = ProcessDescriptor.getInstance();
 
-        this.auxDispatcher = new ThreadDispatcher("AuxDispatcher", pd.auxThreads);
         this.cReqDispatcher = new ScheduledThreadDispatcher("CliReqDispatcher", pd.cReqThreads);
         this.intDispatcher = new ScheduledThreadDispatcher("IntDispatcher", pd.intThreads);
-        this.propDispatcher = new ThreadDispatcher("ProposalDispatcher", pd.proposalThreads);
-        this.stableDispatcher = new ThreadDispatcher("StableDispatcher", pd.stableThreads);
+        this.auxDispatcher = Dispatcher.create("AuxDispatcher", pd.auxThreads);
+        this.propDispatcher = Dispatcher.create("ProposalDispatcher", pd.proposalThreads);
+        this.stableDispatcher = Dispatcher.create("StableDispatcher", pd.stableThreads);
 
         this.udpNetwork = new UdpNetwork();
         if (pd.network.equals("TCP")) {
@@ -57,6 +66,11 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
             repliesChannel = new TcpNetwork(1);
             stableChannel = new TcpNetwork(2);
             otherChannel = new TcpNetwork(3);
+        } else if (pd.network.equals("NIO")) {
+            proposeChannel = new NioNetwork(0);
+            repliesChannel = new NioNetwork(1);
+            stableChannel = new NioNetwork(2);
+            otherChannel = new NioNetwork(3);
         } else {
             throw new IllegalArgumentException("Unknown network type: " + pd.network +
                     ". Check paxos.properties configuration.");
@@ -66,17 +80,42 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
 
         this.totalObjects = totalObjects;
 
-        this.tsGen = new TimestampGenerator(pd.localId, pd.numReplicas);
+        RequestProfile.setEnabled(pd.profileRequests);
+
+        this.tsGen = new TimestampGenerator(pd.localId, pd.numReplicas,
+                pd.hybridTimestamps ? TimestampGenerator::wallClockMicros : null);
         this.cDetector = new ConflictDetector(totalObjects);
 
-        this.proposer = new Proposer(tsGen, cDetector, proposeChannel, repliesChannel, stableChannel, otherChannel, intDispatcher, this);
+        if (pd.walDirectory.isEmpty()) {
+            this.stableLog = null;
+        } else {
+            this.stableLog = new StableLog(new File(pd.walDirectory, "replica-" + pd.localId),
+                    pd.walSegmentSize, StableLog.parsePolicy(pd.walSyncPolicy), pd.walSyncInterval,
+                    stableDispatcher);
+        }
 
+        this.proposer = new Proposer(tsGen, cDetector, proposeChannel, repliesChannel, stableChannel, otherChannel,
+                intDispatcher, stableLog, this);
+
+        if (pd.maxBatchDelay > 0) {
+            this.batcher = new Batcher(pd.batchSize, pd.maxBatchDelay, cReqDispatcher,
+                    request -> proposer.fastPropose(request));
+        } else {
+            this.batcher = null;
+        }
     }
 
-    public void startCaesar(DecideCallback callback) {
+    /**
+     * Starts the protocol. A replica that is {@code catchingUp} receives
+     * decisions but answers no proposal, retry or recovery until
+     * {@link #caughtUp()}: its conflict history misses the requests it
+     * forgot, so its acks could hide conflicts from the quorum.
+     */
+    public void startCaesar(DecideCallback callback, boolean catchingUp) {
 
         logger.warn("startCaesar");
         this.callback = callback;
+        this.catchingUp = catchingUp;
 
         MessageHandler handler = new MessageHandlerImpl();
 
@@ -96,22 +135,88 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
 
         Network.addMessageListener(MessageType.Barrier, handler);
 
+        Network.addMessageListener(MessageType.Watermark, handler);
+
+        if (stableLog != null) {
+            try {
+                stableLog.replay(proposer::onLoggedStable);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot replay the stable log", e);
+            }
+        }
+
         udpNetwork.start();
         proposeChannel.start();
         repliesChannel.start();
         stableChannel.start();
         otherChannel.start();
 
+        if (pd.gcInterval > 0) {
+            intDispatcher.scheduleWithFixedDelay(() -> proposer.broadcastWatermark(),
+                    pd.gcInterval, pd.gcInterval, TimeUnit.MILLISECONDS);
+        }
+
 //        failureDetector.start();
     }
 
-    public void deliver(Request request) {
-        this.callback.deliver(request);
+    public void deliver(List<Request> requests) {
+        this.callback.deliver(requests);
+    }
+
+    /** Called once the state fetched from a peer has been applied. */
+    public void caughtUp() {
+        logger.info("Caught up, answering proposals");
+        catchingUp = false;
+    }
+
+    /**
+     * What a snapshot of the service taken now contains. Must be called
+     * while no delivered request is executing.
+     */
+    public SnapshotMark snapshotMark() {
+        return proposer.snapshotMark();
+    }
+
+    /**
+     * The stable requests still kept in the conflict history. Must be called
+     * together with {@link #snapshotMark()}.
+     */
+    public List<Request> stableRequests() {
+        return proposer.stableRequests();
+    }
+
+    /**
+     * Takes over the requests that a snapshot loaded into the service shows
+     * collected. Call it before {@link #startCaesar} with a snapshot read
+     * back from disk, and before applying the decisions sent along with a
+     * transferred one.
+     */
+    public void installSnapshot(SnapshotMark mark) {
+        proposer.installSnapshot(mark);
+    }
+
+    /** Applies a decision received through state transfer. */
+    public void applyStable(Stable msg) {
+        proposer.onStable(msg, pd.localId);
+    }
+
+    /** Truncates the stable log behind a snapshot that has been persisted. */
+    public void truncateLog(SnapshotMark mark) throws IOException {
+        proposer.truncateLog(mark);
     }
 
     public void propose(final Request request) {
 //        proposer.fastPropose(request);
-        cReqDispatcher.execute(() -> proposer.fastPropose(request));
+        if (batcher != null) {
+            batcher.add(request);
+        } else {
+            cReqDispatcher.execute(() -> proposer.fastPropose(request));
+        }
+    }
+
+    /** True if proposals are batches that must be unpacked with {@link Batcher#unpack}. */
+    public boolean isBatching() {
+        return batcher != null;
     }
 
     public void onDelivery(Request request) {
@@ -121,12 +226,12 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
     public void refresh() {
         cDetector = new ConflictDetector(totalObjects);
         intDispatcher.getQueue().clear();
-        auxDispatcher.getQueue().clear();
         cReqDispatcher.getQueue().clear();
-        propDispatcher.getQueue().clear();
-        stableDispatcher.getQueue().clear();
+        auxDispatcher.clear();
+        propDispatcher.clear();
+        stableDispatcher.clear();
         this.proposer = new Proposer(tsGen, cDetector, proposeChannel, repliesChannel,
-                stableChannel, otherChannel, intDispatcher, this);
+                stableChannel, otherChannel, intDispatcher, stableLog, this);
     }
 
     private void processBarrierPackage(BarrierPackage barrierPackage) {
@@ -184,40 +289,45 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
 
     @Override
     public void suspect(int nodeId) {
-        auxDispatcher.submit(() -> proposer.startRecovery(nodeId));
+        auxDispatcher.execute(() -> proposer.startRecovery(nodeId), 0, nodeId);
     }
 
     private final class MessageHandlerImpl implements MessageHandler {
         public void onMessageReceived(Message msg, int sender) {
 //            logger.trace("Msg rcv: " + msg);
+            if (catchingUp && needsHistory(msg.getType())) {
+                // dropped like a crashed replica would; the quorum is found among the others
+                return;
+            }
             MessageEvent event = new MessageEvent(msg, sender);
 
             PID process = ProcessDescriptor.getInstance().getProcess(sender);
             int priority = process.getPriority();
+            long key = affinityKey(msg, sender);
 
 
             if (msg.getType() == MessageType.FastPropose
                     || msg.getType() == MessageType.SlowPropose
                     || msg.getType() == MessageType.Retry) {
 
-                propDispatcher.execute(event, priority);
+                propDispatcher.execute(event, priority, key);
 
             } else if (msg.getType() == MessageType.Stable) {
 
-                stableDispatcher.execute(event, priority);
+                stableDispatcher.execute(event, priority, key);
 
             } else {
 
                 if (msg.getType() == MessageType.FastProposeReply) {
 
                     if (((FastProposeReply) msg).getStatus() == FastProposeReply.Status.NACK) {
-                        auxDispatcher.execute(event, 10);
+                        auxDispatcher.execute(event, 10, key);
                     } else {
-                        auxDispatcher.execute(event, priority);
+                        auxDispatcher.execute(event, priority, key);
                     }
 
                 } else {
-                    auxDispatcher.execute(event, priority);
+                    auxDispatcher.execute(event, priority, key);
                 }
 
             }
@@ -227,6 +337,34 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
 
         public void onMessageSent(Message message, BitSet destinations) {
         }
+
+        /** True for the messages answered from the conflict history. */
+        private boolean needsHistory(MessageType type) {
+            return type == MessageType.FastPropose || type == MessageType.SlowPropose
+                    || type == MessageType.Retry || type == MessageType.Recovery;
+        }
+
+        /** The packed id of the request the message is about, or the sender. */
+        private long affinityKey(Message msg, int sender) {
+            switch (msg.getType()) {
+                case FastPropose:
+                    return ((FastPropose) msg).getRequest().getId().toLong();
+                case FastProposeReply:
+                    return ((FastProposeReply) msg).getRequestId().toLong();
+                case SlowPropose:
+                    return ((SlowPropose) msg).getRequest().getId().toLong();
+                case SlowProposeReply:
+                    return ((SlowProposeReply) msg).getRequestId().toLong();
+                case Retry:
+                    return ((Retry) msg).getRequest().getId().toLong();
+                case RetryReply:
+                    return ((RetryReply) msg).getRequestId().toLong();
+                case Stable:
+                    return ((Stable) msg).getRequest().getId().toLong();
+                default:
+                    return sender;
+            }
+        }
     }
 
     private final class MessageEvent implements Runnable {
@@ -286,6 +424,10 @@ public final class Caesar implements FailureDetector.FailureDetectorListener {
                         processBarrierPackage((BarrierPackage) msg);
                         break;
 
+                    case Watermark:
+                        proposer.onWatermark((Watermark) msg, sender);
+                        break;
+
                     default:
                         logger.warn("Unknown message type: " + msg);
                 }
@@ -1,14 +1,16 @@
 package hyflow.caesar;
 
+import hyflow.common.LongHashSet;
 import hyflow.common.ProcessDescriptor;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import hyflow.common.RequestStatus;
 
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 /**
  * Created by balajiarun on 3/11/16.
  */
@@ -16,37 +18,56 @@ public class ConflictDetector {
 
 //    private final ConcurrentHashMap<RequestId, Request> requestMap;
 
-    private final Request[] requestMap;
+    private final SlotTable slots;
 
     //    private final ArrayList<Request>[] objReqMap;
-    private final TreeMap<Long, Request>[] objReqMap;
-    private final TreeMap<Long, RequestId>[] objReqIdMap;
+    /**
+     * Per-object history ordered by position. The skip list lets proposal
+     * threads insert and reposition entries while others take tail/head
+     * views without any per-object lock.
+     */
+    private final ConcurrentSkipListMap<Long, Request>[] objReqMap;
+
+    /**
+     * Per-object position up to which the history has been pruned because
+     * every replica delivered it.
+     */
+    private final AtomicLongArray collectedMark;
+
+    /**
+     * Requests delivered here whose slot was given back while the history is
+     * not garbage collected, by packed id. They are still in the history.
+     */
+    private final ConcurrentHashMap<Long, Request> released = new ConcurrentHashMap<>();
 
-    private final ReadWriteLock[] reqMapLock;
     //    private final Logger logger = LogManager.getLogger(ConflictDetector.class);
-    private final int numReplicas;
 
-    @SuppressWarnings("unchecked")
     ConflictDetector(int numObjects) {
-        int mapsize = ProcessDescriptor.getInstance().proposerMapSize;
-        numReplicas = ProcessDescriptor.getInstance().numReplicas;
-        requestMap = new Request[mapsize];
-        for (int i = 0; i < mapsize; i++) {
-            requestMap[i] = new Request(null, null, null);
+        this(numObjects, new SlotTable(ProcessDescriptor.getInstance().proposerMapSize,
+                ProcessDescriptor.getInstance().numReplicas));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ConflictDetector(int numObjects, SlotTable slots) {
+        this.slots = slots;
+
+        objReqMap = new ConcurrentSkipListMap[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            objReqMap[i] = new ConcurrentSkipListMap<>();
         }
 
-        objReqMap = new TreeMap[numObjects];
-        objReqIdMap = new TreeMap[numObjects];
-        reqMapLock = new ReadWriteLock[numObjects];
+        collectedMark = new AtomicLongArray(numObjects);
         for (int i = 0; i < numObjects; i++) {
-            objReqMap[i] = new TreeMap<>();
-            objReqIdMap[i] = new TreeMap<>();
-            reqMapLock[i] = new ReentrantReadWriteLock(true);
+            collectedMark.set(i, -1);
         }
     }
 
-    private int getIntId(RequestId rId) {
-        return rId.getClientId() + (rId.getSeqNumber() * numReplicas);
+    int numObjects() {
+        return objReqMap.length;
+    }
+
+    SlotTable slots() {
+        return slots;
     }
 
     Request updateRequest(Request newReq) {
@@ -55,62 +76,194 @@ public class ConflictDetector {
 //            throw new NotImplementedException();
 //        }
 
-        RequestId rId = newReq.getId();
-        int id = getIntId(rId);
+        SlotTable.Slot slot = slots.acquire(newReq.getId());
+        if (slot == null || slot == SlotTable.FULL) {
+            // already delivered and collected everywhere, a late message; callers
+            // acquire the slot first, so it cannot be held by an older request
+            return null;
+        }
 
-        boolean insert = false, update = false;
-        long oldPos = -1;
-        Request request = requestMap[id];
-        synchronized (requestMap[id]) {
-            if (request.getId() == null) {
-                request.init(newReq);
-                insert = true;
-            } else {
-                if (request.getPosition() != newReq.getPosition()) {
-                    oldPos = request.getPosition();
-                    update = true;
+        Request request;
+        synchronized (slot) {
+            request = slot.request;
+            if (request == null) {
+                request = newReq;
+                slot.request = request;
+                for (int oId : request.getObjectIds()) {
+                    objReqMap[oId].put(request.getPosition(), request);
                 }
+            } else {
+                long oldPos = request.getPosition();
                 request.updateWith(newReq);
+                long newPos = request.getPosition();
+                if (oldPos != newPos) {
+                    // Publish the new position before retracting the old one, so a
+                    // concurrent reader sees the request at least once (possibly
+                    // twice) but never misses it.
+                    for (int oId : request.getObjectIds()) {
+                        objReqMap[oId].put(newPos, request);
+                        objReqMap[oId].remove(oldPos, request);
+                    }
+                }
             }
         }
 
-        if (insert) {
-            for (int oId : request.objectIds) {
-                reqMapLock[oId].writeLock().lock();
-                objReqMap[oId].put(request.getPosition(), request);
-                objReqIdMap[oId].put(request.getPosition(), request.getId());
-                reqMapLock[oId].writeLock().unlock();
+        return request;
+    }
+
+    public Request getRequest(RequestId rId) {
+        SlotTable.Slot slot = slots.get(rId);
+        if (slot == null) {
+            return released.get(rId.toLong());
+        }
+        synchronized (slot) {
+            Request req = slot.request;
+            assert req == null || rId.equals(req.getId()) : "oops! reqId doesnt match";
+            return req;
+        }
+    }
+
+    /**
+     * Returns the highest position on the object such that every request
+     * known locally at or below it has been delivered, starting the scan
+     * after {@code from}. Returns {@code from} if nothing advanced.
+     */
+    long deliveredPrefix(int oId, long from) {
+        long mark = from;
+        for (Map.Entry<Long, Request> entry : objReqMap[oId].tailMap(from, false).entrySet()) {
+            if (entry.getValue().getStatus() != RequestStatus.Delivered) {
+                break;
             }
+            mark = entry.getKey();
         }
-        if (update) {
-            for (int oId : request.objectIds) {
-                reqMapLock[oId].writeLock().lock();
-                
-		objReqMap[oId].remove(oldPos);
-                objReqIdMap[oId].remove(oldPos);
-
-                objReqMap[oId].put(request.getPosition(), request);
-                objReqIdMap[oId].put(request.getPosition(), request.getId());
-                
-		reqMapLock[oId].writeLock().unlock();
+        return mark;
+    }
+
+    /**
+     * Adds the packed ids of the delivered requests above {@code marks[oId]}
+     * on every object to {@code out}.
+     */
+    void deliveredAbove(long[] marks, LongHashSet out) {
+        for (int oId = 0; oId < objReqMap.length; oId++) {
+            for (Request request : objReqMap[oId].tailMap(marks[oId], false).values()) {
+                if (request.getStatus() == RequestStatus.Delivered) {
+                    out.add(request.getId().toLong());
+                }
             }
         }
+    }
 
-        return request;
+    /** The stable or delivered requests still in the history, each once. */
+    List<Request> stableRequests() {
+        LongHashSet seen = new LongHashSet();
+        List<Request> requests = new ArrayList<>();
+        for (ConcurrentSkipListMap<Long, Request> history : objReqMap) {
+            for (Request request : history.values()) {
+                if (request.getStatus().ordinal() >= RequestStatus.Stable.ordinal()
+                        && seen.add(request.getId().toLong())) {
+                    requests.add(request);
+                }
+            }
+        }
+        return requests;
     }
 
-    public Request getRequest(RequestId rId) {
-        int id = getIntId(rId);
-        synchronized (requestMap[id]) {
-            Request req = requestMap[id];
-            if (req.getId() == null) {
-                return null;
+    /**
+     * True if the request was delivered and garbage collected, so its state
+     * is gone. It has to be treated as delivered.
+     */
+    boolean isCollected(RequestId rId) {
+        return slots.isCollected(rId);
+    }
+
+    /**
+     * Frees the slot of a request delivered here, for when the history is
+     * not garbage collected. Nothing tells whether the other replicas
+     * delivered it too, so it stays in the history and
+     * {@link #getRequest} still finds it.
+     */
+    void releaseDelivered(Request request) {
+        released.put(request.getId().toLong(), request);
+        slots.release(request.getId());
+    }
+
+    /**
+     * Drops the request of a slot given back because a snapshot shows it
+     * collected, see {@link SlotTable#markCollected}. Called under the slot
+     * lock.
+     */
+    void forget(SlotTable.Slot slot) {
+        Request request = slot.request;
+        if (request != null) {
+            for (int oId : request.getObjectIds()) {
+                objReqMap[oId].remove(request.getPosition(), request);
+            }
+        }
+    }
+
+    /**
+     * True if a persisted snapshot makes the decision for the request
+     * useless: the snapshot covers it, shows it collected, and every replica
+     * delivered it. A replica restarting from the snapshot then treats it as
+     * delivered wherever it is a pred.
+     */
+    boolean isObsolete(Request request, SnapshotMark mark) {
+        return mark.isBehindMarks(request)
+                && slots.isCollected(request.getId(), mark.collectedGenerations())
+                && isCollectedEverywhere(request);
+    }
+
+    /**
+     * Drops delivered entries at or below {@code mark} from the object's
+     * history. They no longer take part in wait sets or predecessor sets.
+     * A request whose objects are all collected past it gives its slot back.
+     */
+    void prune(int oId, long mark) {
+        long prev;
+        do {
+            prev = collectedMark.get(oId);
+            if (mark <= prev) {
+                return;
+            }
+        } while (!collectedMark.compareAndSet(oId, prev, mark));
+
+        Iterator<Request> it = objReqMap[oId].headMap(mark, true).values().iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (request.getStatus() == RequestStatus.Delivered) {
+                it.remove();
+                if (isCollectedEverywhere(request)) {
+                    slots.release(request.getId());
+                }
             }
-	    assert rId.equals(req.getId()) : "oops! reqId doesnt match";
-            return req;
         }
     }
 
+    /**
+     * True if the request sits at or below the collected watermark of one of
+     * its objects. Such a request could be ordered before history that has
+     * already been pruned, so it has to be moved to a fresh position.
+     */
+    boolean isBehindWatermark(Request request) {
+        long position = request.getPosition();
+        for (int oId : request.getObjectIds()) {
+            if (position <= collectedMark.get(oId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isCollectedEverywhere(Request request) {
+        long position = request.getPosition();
+        for (int oId : request.getObjectIds()) {
+            if (position > collectedMark.get(oId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 //    int computeWaitSetOrReject(final Request request, final SortedSet<Request> waitSet) {
 //
 //        int[] objectIds = request.getObjectIds();
@@ -211,42 +364,23 @@ public class ConflictDetector {
     Request[][] computeWaitSet(final Request request) {
         Request[][] waitSets = new Request[request.getObjectIds().length][];
         int i = 0;
-        for (int oId : request.objectIds) {
-            lock(oId);
-            SortedMap<Long, Request> map = objReqMap[oId].tailMap(request.getPosition(), false);
-            waitSets[i] = new Request[map.size()];
-            int index = 0;
-            for (Request entry : map.values()) {
-                waitSets[i][index++] = entry;
-            }
-            i++;
-            unlock(oId);
+        for (int oId : request.getObjectIds()) {
+            // weakly consistent snapshot of the tail; concurrent inserts may or may not show up
+            ConcurrentNavigableMap<Long, Request> map = objReqMap[oId].tailMap(request.getPosition(), false);
+            waitSets[i++] = map.values().toArray(new Request[0]);
         }
 
         return waitSets;
     }
 
-    private void lock(int oId) {
-	try {
-		while(!reqMapLock[oId].readLock().tryLock(1, TimeUnit.SECONDS)) {
-			System.out.println(oId);
-		}
-	} catch (InterruptedException e) {
-	
-	}
-    }
+    /** Ids of the requests ordered before {@code position} on the request's objects, packed. */
+    LongHashSet computeNewPredFor(Request request, long position, Set<RequestId> whiteList) {
 
-    private void unlock(int oId) {
-        reqMapLock[oId].readLock().unlock();
-    }
-
-    Collection<RequestId> computeNewPredFor(Request request, long position, Set<RequestId> whiteList) {
-
-        Collection<RequestId> pred = new HashSet<>();
-        for (int oId : request.objectIds) {
-            lock(oId);
-            pred.addAll(objReqIdMap[oId].headMap(position).values());
-            unlock(oId);
+        LongHashSet pred = new LongHashSet();
+        for (int oId : request.getObjectIds()) {
+            for (Request req : objReqMap[oId].headMap(position).values()) {
+                pred.add(req.getId().toLong());
+            }
         }
 
 //        for (int oId : objectIds) {
@@ -2,11 +2,18 @@ package hyflow.caesar;
 
 import hyflow.common.Request;
 
+import java.util.List;
+
 /**
  * Created by balajiarun on 3/22/16.
  */
 public interface DecideCallback {
 
-    void deliver(Request requests);
+    /**
+     * Delivers requests that are ready, in delivery order. Requests sharing
+     * an object must be executed in that order, each followed by
+     * {@link Caesar#onDelivery(Request)}; separate calls are independent.
+     */
+    void deliver(List<Request> requests);
 
 }
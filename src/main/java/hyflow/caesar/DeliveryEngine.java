@@ -0,0 +1,321 @@
+package hyflow.caesar;
+
+import hyflow.common.InstanceState;
+import hyflow.common.PackedRequestIds;
+import hyflow.common.Request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Orders stable requests for delivery. A request goes out once every
+ * predecessor with a lower position has been delivered; predecessors with a
+ * higher position wait for it instead, and collected ones count as
+ * delivered. Predecessors that are not stable yet are waited on until their
+ * final position is known.
+ * <p>
+ * The dependency graph is kept incrementally in the {@link SlotTable}: each
+ * request has a node counting its pending predecessors and listing the
+ * requests waiting on it, so a pred list is scanned once, when its request
+ * becomes stable. Positions break every pred cycle, which leaves the graph
+ * acyclic; mutually dependent requests form a chain instead, and a ready
+ * request is handed off in one batch together with the dependents that only
+ * wait on the batch. A batch is in position order, which requests sharing
+ * an object must be executed in; separate batches are independent.
+ */
+final class DeliveryEngine {
+
+    private static final Comparator<Node> BY_POSITION =
+            Comparator.comparingLong(node -> node.request.getPosition());
+
+    private final SlotTable slots;
+    private final Consumer<List<Request>> sink;
+
+    /* nodes that can go out; guarded by this */
+    private final List<Node> ready = new ArrayList<>();
+    /* nodes with preds whose slot was still held by an older request; guarded by this */
+    private final List<Node> deferred = new ArrayList<>();
+
+    DeliveryEngine(SlotTable slots, Consumer<List<Request>> sink) {
+        this.slots = slots;
+        this.sink = sink;
+    }
+
+    /** Adds a request that just became stable to the graph. */
+    void stable(Request request) {
+        SlotTable.Slot slot = slots.get(request.getId());
+        if (slot == null) {
+            return;
+        }
+        long self = request.getId().toLong();
+        InstanceState state = request.getState();
+        long position = state.position;
+        long[] preds = PackedRequestIds.toLongArray(state.pred);
+
+        List<List<Request>> batches;
+        synchronized (this) {
+            Node node = nodeOf(slot);
+            if (node.request != null) {
+                return;
+            }
+            node.request = request;
+            // held until the preds are scanned, so linking cannot make the node ready early
+            node.pending = 1;
+
+            for (long predId : preds) {
+                if (predId == self) {
+                    continue;
+                }
+                node.pending++;
+                if (!link(node, predId)) {
+                    // linked once the older request gives the slot back
+                    node.defer(predId);
+                }
+            }
+            if (node.unlinked != null) {
+                deferred.add(node);
+            }
+
+            // requests that waited to learn our position: those ordered before us stop waiting
+            List<Node> waiters = node.waiters;
+            if (waiters != null) {
+                int kept = 0;
+                for (Node waiter : waiters) {
+                    if (position >= waiter.request.getPosition()) {
+                        release(waiter);
+                    } else {
+                        waiters.set(kept++, waiter);
+                    }
+                }
+                waiters.subList(kept, waiters.size()).clear();
+            }
+
+            // drop the count held by the scan
+            release(node);
+            batches = drainReady();
+        }
+        handOff(batches);
+    }
+
+    /**
+     * Links the preds that could not get a slot when their dependent became
+     * stable. Called after slots were released.
+     */
+    void retryDeferred() {
+        List<List<Request>> batches;
+        synchronized (this) {
+            if (deferred.isEmpty()) {
+                return;
+            }
+            int kept = 0;
+            for (Node node : deferred) {
+                long[] preds = node.unlinked;
+                int count = node.unlinkedCount;
+                node.unlinked = null;
+                node.unlinkedCount = 0;
+                for (int i = 0; i < count; i++) {
+                    if (!link(node, preds[i])) {
+                        node.defer(preds[i]);
+                    }
+                }
+                if (node.unlinked != null) {
+                    deferred.set(kept++, node);
+                }
+            }
+            deferred.subList(kept, deferred.size()).clear();
+            batches = drainReady();
+        }
+        handOff(batches);
+    }
+
+    /**
+     * Makes {@code node}, counted as pending on the pred, wait for it, or
+     * releases it if the pred does not hold it back.
+     *
+     * @return false if the slot of the pred is still held by an older request
+     */
+    private boolean link(Node node, long predId) {
+        SlotTable.Slot predSlot = slots.acquire(predId);
+        if (predSlot == SlotTable.FULL) {
+            return false;
+        }
+        if (predSlot == null) {
+            // collected, hence delivered
+            release(node);
+            return true;
+        }
+        Node pred = nodeOf(predSlot);
+        if (pred.delivered || (pred.request != null
+                && pred.request.getPosition() >= node.request.getPosition())) {
+            release(node);
+            return true;
+        }
+        pred.addWaiter(node);
+        return true;
+    }
+
+    /** Called once a request handed off by this engine has been executed. */
+    void delivered(Request request) {
+        SlotTable.Slot slot = slots.get(request.getId());
+        if (slot == null) {
+            return;
+        }
+
+        List<List<Request>> batches;
+        synchronized (this) {
+            Node node = slot.delivery;
+            if (node == null || node.delivered) {
+                return;
+            }
+            settle(node);
+            batches = drainReady();
+        }
+        handOff(batches);
+    }
+
+    /**
+     * Catches the slots up with an image of the collected requests taken
+     * with a snapshot, see {@link SlotTable#markCollected}. Their nodes count
+     * as delivered: dependents stop waiting for them, and those not handed
+     * off yet never go out, since the snapshot contains them.
+     */
+    void markCollected(long[] generations, Consumer<SlotTable.Slot> released) {
+        List<List<Request>> batches;
+        synchronized (this) {
+            slots.markCollected(generations, slot -> {
+                Node node = slot.delivery;
+                if (node != null && !node.delivered) {
+                    settle(node);
+                }
+                released.accept(slot);
+            });
+            batches = drainReady();
+        }
+        handOff(batches);
+        // preds whose slot was held by one of them can be linked now
+        retryDeferred();
+    }
+
+    private void settle(Node node) {
+        node.delivered = true;
+        node.handedOff = true;
+        if (node.waiters != null) {
+            for (Node waiter : node.waiters) {
+                if (!waiter.handedOff) {
+                    release(waiter);
+                }
+            }
+            node.waiters = null;
+        }
+    }
+
+    private Node nodeOf(SlotTable.Slot slot) {
+        Node node = slot.delivery;
+        if (node == null) {
+            node = new Node();
+            slot.delivery = node;
+        }
+        return node;
+    }
+
+    private void release(Node node) {
+        if (--node.pending == 0) {
+            ready.add(node);
+        }
+    }
+
+    /**
+     * Turns the ready nodes into batches. Each batch starts from the lowest
+     * ready position not taken yet and grows with the dependents whose
+     * pending predecessors are all in it.
+     */
+    private List<List<Request>> drainReady() {
+        if (ready.isEmpty()) {
+            return null;
+        }
+        ready.sort(BY_POSITION);
+
+        List<List<Request>> batches = new ArrayList<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>(BY_POSITION);
+        List<Node> touched = new ArrayList<>();
+        for (Node root : ready) {
+            if (root.handedOff) {
+                continue;
+            }
+            List<Request> batch = new ArrayList<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                node.handedOff = true;
+                batch.add(node.request);
+                if (node.waiters == null) {
+                    continue;
+                }
+                for (Node waiter : node.waiters) {
+                    if (waiter.handedOff) {
+                        continue;
+                    }
+                    if (waiter.inBatch++ == 0) {
+                        touched.add(waiter);
+                    }
+                    if (waiter.inBatch == waiter.pending) {
+                        queue.add(waiter);
+                    }
+                }
+            }
+            for (Node node : touched) {
+                node.inBatch = 0;
+            }
+            touched.clear();
+            batches.add(batch);
+        }
+        ready.clear();
+        return batches;
+    }
+
+    private void handOff(List<List<Request>> batches) {
+        if (batches == null) {
+            return;
+        }
+        for (List<Request> batch : batches) {
+            sink.accept(batch);
+        }
+    }
+
+    /** Delivery state of one request; guarded by the engine. */
+    static final class Node {
+        /* null until stable */
+        private Request request;
+        /* predecessors this request still waits for */
+        private int pending;
+        /* pending predecessors in the batch being built */
+        private int inBatch;
+        private boolean handedOff;
+        private boolean delivered;
+        /* requests waiting for this one to become stable or to be delivered */
+        private List<Node> waiters;
+        /* packed ids of the preds that could not be linked yet, counted in pending */
+        private long[] unlinked;
+        private int unlinkedCount;
+
+        private void defer(long predId) {
+            if (unlinked == null) {
+                unlinked = new long[2];
+            } else if (unlinkedCount == unlinked.length) {
+                unlinked = Arrays.copyOf(unlinked, unlinkedCount * 2);
+            }
+            unlinked[unlinkedCount++] = predId;
+        }
+
+        private void addWaiter(Node node) {
+            if (waiters == null) {
+                waiters = new ArrayList<>(2);
+            }
+            waiters.add(node);
+        }
+    }
+}
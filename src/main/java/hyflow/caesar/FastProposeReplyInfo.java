@@ -1,13 +1,13 @@
 package hyflow.caesar;
 
 import hyflow.caesar.messages.FastProposeReply;
+import hyflow.common.PackedRequestIds;
 import hyflow.common.ProcessDescriptor;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 
 import java.util.Arrays;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledFuture;
 
@@ -22,7 +22,8 @@ public class FastProposeReplyInfo {
     private final int fastQuorum;
     private final int classicQuorum;
 
-    private final TreeSet<RequestId> predSet;
+    /* pred of each reply, merged once the quorum is in */
+    private final PackedRequestIds[] preds;
     private long position;
     private boolean nack;
 
@@ -30,13 +31,15 @@ public class FastProposeReplyInfo {
     private boolean done;
 
     private ScheduledFuture<?> slowProposeTimer;
+    /* System.nanoTime() when the proposal was sent */
+    private final long sentAt = System.nanoTime();
 
     public FastProposeReplyInfo(Request request, int numReplicas) {
         this.request = request;
 
         replies = new FastProposeReply[numReplicas];
 
-        predSet = new TreeSet<>();
+        preds = new PackedRequestIds[numReplicas];
         position = request.getPosition();
         nack = false;
 
@@ -50,11 +53,15 @@ public class FastProposeReplyInfo {
     }
 
     public Request updateAndGetRequest() {
-        request.setPred(predSet);
+        request.setPred(PackedRequestIds.union(preds));
         request.setPosition(position);
         return request;
     }
 
+    public long getSentAt() {
+        return sentAt;
+    }
+
     public boolean isDone() {
         return done;
     }
@@ -66,7 +73,7 @@ public class FastProposeReplyInfo {
     public void addReply(FastProposeReply msg, int sender) {
         replies[sender] = msg;
         count++;
-        predSet.addAll(msg.getPred());
+        preds[sender] = msg.getPred();
         if (!nack)
             nack = (msg.getStatus() == FastProposeReply.Status.NACK);
         position = Math.max(msg.position(), position);
@@ -103,7 +110,7 @@ public class FastProposeReplyInfo {
                 ", replies=" + Arrays.toString(replies) +
                 ", fastQuorum=" + fastQuorum +
                 ", classicQuorum=" + classicQuorum +
-                ", predSet=" + predSet +
+                ", preds=" + Arrays.toString(preds) +
                 ", position=" + position +
                 ", nack=" + nack +
                 ", count=" + count +
@@ -0,0 +1,52 @@
+package hyflow.caesar;
+
+import hyflow.common.ProcessDescriptor;
+
+/**
+ * Decides how long a proposer waits for a fast quorum once a classic quorum
+ * of fast propose replies has arrived, before falling back to a slow
+ * proposal. Implementations are called concurrently from reply handlers.
+ */
+interface FastProposeTimeout {
+
+    /** A fast propose reply from {@code replica} arrived {@code latencyNanos} after the proposal was sent. */
+    void recordReply(int replica, long latencyNanos);
+
+    /**
+     * @param elapsedNanos time since the proposal was sent
+     * @return how much longer to wait for the fast quorum, in nanoseconds
+     */
+    long remainingNanos(long elapsedNanos);
+
+    /** Creates the policy named by {@link ProcessDescriptor#fpTimeoutPolicy}. */
+    static FastProposeTimeout create(ProcessDescriptor pd) {
+        long fixed = pd.fpTimeout * 1_000_000L;
+        switch (pd.fpTimeoutPolicy.toLowerCase()) {
+            case "fixed":
+                return new Fixed(fixed);
+            case "adaptive":
+                return new AdaptiveFastProposeTimeout(pd.numReplicas, pd.fastQuorum,
+                        pd.fpTimeoutMin * 1_000_000L, fixed);
+            default:
+                throw new IllegalArgumentException("Unknown FPTimeoutPolicy " + pd.fpTimeoutPolicy);
+        }
+    }
+
+    /** Always waits the same time, whatever the replies so far. */
+    final class Fixed implements FastProposeTimeout {
+        private final long timeoutNanos;
+
+        Fixed(long timeoutNanos) {
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        public void recordReply(int replica, long latencyNanos) {
+        }
+
+        @Override
+        public long remainingNanos(long elapsedNanos) {
+            return timeoutNanos;
+        }
+    }
+}
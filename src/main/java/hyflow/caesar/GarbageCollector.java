@@ -0,0 +1,116 @@
+package hyflow.caesar;
+
+import hyflow.caesar.messages.Watermark;
+import hyflow.common.Request;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Prunes the {@link ConflictDetector} history behind per-object watermarks.
+ * <p>
+ * Every replica keeps, for each object, the position up to which it delivered
+ * all the requests it knows about (its local watermark) and periodically
+ * broadcasts the ones that moved. Once all replicas reported a watermark for
+ * an object, history at or below the smallest one is delivered everywhere and
+ * can be dropped, so predecessor sets stop growing with uptime.
+ */
+class GarbageCollector {
+
+    private final ConflictDetector conflictDetector;
+    private final int numReplicas;
+
+    /* local delivered watermark per object; guarded by this */
+    private final long[] localMarks;
+    /* objects whose local watermark moved since the last broadcast; guarded by this */
+    private final BitSet dirty;
+
+    /* last watermark reported by each replica, per object; guarded by reported */
+    private final long[][] reported;
+
+    GarbageCollector(ConflictDetector conflictDetector, int numObjects, int numReplicas) {
+        this.conflictDetector = conflictDetector;
+        this.numReplicas = numReplicas;
+
+        localMarks = new long[numObjects];
+        Arrays.fill(localMarks, -1);
+        dirty = new BitSet(numObjects);
+
+        reported = new long[numReplicas][numObjects];
+        for (long[] marks : reported) {
+            Arrays.fill(marks, -1);
+        }
+    }
+
+    /**
+     * Advances the local watermarks of the objects touched by a request that
+     * has just been delivered.
+     */
+    synchronized void onDelivery(Request request) {
+        for (int oId : request.getObjectIds()) {
+            long mark = conflictDetector.deliveredPrefix(oId, localMarks[oId]);
+            if (mark > localMarks[oId]) {
+                localMarks[oId] = mark;
+                dirty.set(oId);
+            }
+        }
+    }
+
+    /** A copy of the local delivered watermark of every object. */
+    synchronized long[] localMarks() {
+        return localMarks.clone();
+    }
+
+    /**
+     * Returns the watermarks that moved since the previous call, or null if
+     * nothing changed.
+     */
+    synchronized Watermark drainLocalMarks() {
+        int count = dirty.cardinality();
+        if (count == 0) {
+            return null;
+        }
+
+        int[] objectIds = new int[count];
+        long[] positions = new long[count];
+        int index = 0;
+        for (int oId = dirty.nextSetBit(0); oId >= 0; oId = dirty.nextSetBit(oId + 1)) {
+            objectIds[index] = oId;
+            positions[index] = localMarks[oId];
+            index++;
+        }
+        dirty.clear();
+
+        return new Watermark(0, objectIds, positions);
+    }
+
+    /**
+     * Records the watermarks reported by a replica (possibly this one) and
+     * prunes every object whose minimum across all replicas moved forward.
+     */
+    void onWatermark(Watermark msg, int sender) {
+        int[] objectIds = msg.getObjectIds();
+        long[] positions = msg.getPositions();
+
+        for (int i = 0; i < objectIds.length; i++) {
+            int oId = objectIds[i];
+            long min;
+
+            synchronized (reported) {
+                if (positions[i] <= reported[sender][oId]) {
+                    continue;
+                }
+                reported[sender][oId] = positions[i];
+
+                min = Long.MAX_VALUE;
+                for (int r = 0; r < numReplicas; r++) {
+                    min = Math.min(min, reported[r][oId]);
+                }
+            }
+
+            if (min >= 0) {
+                conflictDetector.prune(oId, min);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package hyflow.caesar;
+
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestInfo;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fast or slow proposal waiting for conflicting pending requests. It is registered
+ * with every request that blocks it and counts them down as they clear; it
+ * runs (once) when the last one clears, or as soon as one of them is accepted
+ * without ordering this request before itself, which means a reject.
+ * <p>
+ * The count starts at one for the scan that registers the blockers, so the
+ * wait cannot fire before {@link #arm()} is called.
+ */
+final class ProposeWait implements Runnable {
+
+    private final Proposer proposer;
+
+    final RequestInfo info;
+    final Request request;
+    final int view;
+    final int sender;
+    final Set<RequestId> whiteList;
+    final boolean slow;
+
+    private final AtomicInteger blockers = new AtomicInteger(1);
+    private final AtomicBoolean fired = new AtomicBoolean();
+    private volatile boolean rejected;
+
+    ProposeWait(Proposer proposer, RequestInfo info, Request request, int view, int sender,
+                    Set<RequestId> whiteList, boolean slow) {
+        this.proposer = proposer;
+        this.info = info;
+        this.request = request;
+        this.view = view;
+        this.sender = sender;
+        this.whiteList = whiteList;
+        this.slow = slow;
+    }
+
+    /** Counts one more blocker; called while registering with it. */
+    void block() {
+        blockers.incrementAndGet();
+    }
+
+    /**
+     * Ends the registration scan.
+     *
+     * @return true if the wait is pending or was already fired; false if every
+     *         blocker cleared during the scan, in which case the caller goes on
+     */
+    boolean arm() {
+        return blockers.decrementAndGet() != 0 || !fired.compareAndSet(false, true);
+    }
+
+    /** One blocker cleared. @return true if the wait has to run now */
+    boolean unblock() {
+        return blockers.decrementAndGet() == 0 && fired.compareAndSet(false, true);
+    }
+
+    /** A blocker was accepted without this request. @return true if the wait has to run now */
+    boolean reject() {
+        rejected = true;
+        return fired.compareAndSet(false, true);
+    }
+
+    /** Drops the wait; later notifications for it are ignored. */
+    void cancel() {
+        fired.set(true);
+    }
+
+    boolean isFired() {
+        return fired.get();
+    }
+
+    boolean isRejected() {
+        return rejected;
+    }
+
+    @Override
+    public void run() {
+        if (slow) {
+            proposer.slowProposeWakeup(this);
+        } else {
+            proposer.fastProposeWakeup(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProposeWait{" +
+                "request=" + request +
+                ", slow=" + slow +
+                ", blockers=" + blockers +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
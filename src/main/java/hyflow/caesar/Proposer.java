@@ -2,15 +2,17 @@ package hyflow.caesar;
 
 import hyflow.caesar.messages.*;
 import hyflow.caesar.network.Network;
+import hyflow.caesar.statistics.RequestProfile;
 import hyflow.caesar.statistics.RequestStats;
+import hyflow.caesar.storage.StableLog;
 import hyflow.common.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
-import java.nio.ByteBuffer;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -22,6 +24,10 @@ public class Proposer {
 
     private final TimestampGenerator tsGenerator;
     private final ConflictDetector conflictDetector;
+    private final GarbageCollector garbageCollector;
+    private final DeliveryEngine deliveryEngine;
+    /* null if stable decisions are not logged */
+    private final StableLog stableLog;
     private final ScheduledThreadDispatcher intDispatcher;
     private final Caesar caesar;
 
@@ -30,32 +36,32 @@ public class Proposer {
     private final Network stableChannel;
     private final Network otherChannel;
 
-    private final FastProposeReplyInfo[] fpReplies;
-    private final SlowProposeReplyInfo[] spReplies;
-
-    private final RetryReplyInfo[] retryReplies;
-
-    private final RecoveryInfo[] recoveryReplies;
-
-    private final Queue<Runnable>[] proposeRunnables;
-    private final ConcurrentMap<RequestId, Runnable>[] deliverRunnables;
-
-    private final RequestInfo[] reqInfos;
-
-    private final Request[] proposedReqs;
+    /* per-request proposer state, shared with the conflict detector */
+    private final SlotTable slots;
 
     private final int localId;
-    private final int fpTimeout;
+    private final FastProposeTimeout fpTimeout;
     private final int threadSleep;
     private final int numReplicas;
+    private final int recoveryBatchSize;
+    /* slots are released by watermark GC; without it, on local delivery */
+    private final boolean watermarkGc;
+
+    /* messages stalled on a full slot table, run again once slots are released */
+    private final Queue<Runnable> stalled = new ConcurrentLinkedQueue<>();
+
+    /* recoveries started by this replica, by batch id */
+    private final ConcurrentHashMap<Integer, RecoveryInfo> recoveries = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRecoveryBatch = new AtomicInteger();
 
     Proposer(TimestampGenerator tsGenerator, ConflictDetector conflictDetector,
              Network proposeChannel, Network repliesChannel, Network stableChannel, Network otherChannel,
-             ScheduledThreadDispatcher dispatcher, Caesar caesar) {
+             ScheduledThreadDispatcher dispatcher, StableLog stableLog, Caesar caesar) {
 
         this.tsGenerator = tsGenerator;
         this.conflictDetector = conflictDetector;
         this.intDispatcher = dispatcher;
+        this.stableLog = stableLog;
         this.caesar = caesar;
 
         this.proposeChannel = proposeChannel;
@@ -64,40 +70,17 @@ public class Proposer {
         this.otherChannel = otherChannel;
 
         ProcessDescriptor pd = ProcessDescriptor.getInstance();
-        int mapSize = pd.proposerMapSize;
         localId = pd.localId;
-        fpTimeout = pd.fpTimeout;
+        fpTimeout = FastProposeTimeout.create(pd);
         threadSleep = pd.proposerSleep;
         this.numReplicas = pd.numReplicas;
+        this.recoveryBatchSize = Math.max(1, pd.recoveryBatchSize);
+        this.watermarkGc = pd.gcInterval > 0;
 
-        this.fpReplies = new FastProposeReplyInfo[mapSize];
-
-        this.spReplies = new SlowProposeReplyInfo[mapSize];
-
-        this.retryReplies = new RetryReplyInfo[mapSize];
-
-        this.recoveryReplies = new RecoveryInfo[mapSize];
-
-        this.proposeRunnables = new BlockingQueue[mapSize];
-        for (int i = 0; i < mapSize; i++) {
-            proposeRunnables[i] = new LinkedBlockingQueue<>();
-        }
-
-        this.deliverRunnables = new ConcurrentMap[mapSize];
-        for (int i = 0; i < mapSize; i++) {
-            deliverRunnables[i] = new ConcurrentHashMap<>(mapSize / 4);
-        }
+        this.garbageCollector = new GarbageCollector(conflictDetector, conflictDetector.numObjects(), numReplicas);
 
-        this.reqInfos = new RequestInfo[mapSize];
-        for (int i = 0; i < mapSize; i++) {
-            reqInfos[i] = new RequestInfo();
-        }
-
-        this.proposedReqs = new Request[mapSize];
-    }
-
-    private int getIntId(RequestId rId) {
-        return rId.getClientId() + (rId.getSeqNumber() * numReplicas);
+        this.slots = conflictDetector.slots();
+        this.deliveryEngine = new DeliveryEngine(slots, caesar::deliver);
     }
 
     void fastPropose(Request request) {
@@ -109,10 +92,16 @@ public class Proposer {
     private void sendFastPropose(int view, Request request, Set<RequestId> whiteList) {
         FastPropose proposeMsg = new FastPropose(view, request, whiteList);
 
-        int id = getIntId(request.getId());
-        fpReplies[id] = new FastProposeReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
-        this.proposedReqs[id] = request;
-        request.startPropose = System.currentTimeMillis();
+        SlotTable.Slot slot = acquireOrDefer(request.getId(), () -> sendFastPropose(view, request, whiteList));
+        if (slot == null) {
+            return;
+        }
+        slot.fpReply = new FastProposeReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
+        slot.proposed = request;
+        RequestProfile profile = RequestProfile.of(request.getId());
+        if (profile != null) {
+            profile.startPropose = System.currentTimeMillis();
+        }
 
         proposeChannel.sendToAll(proposeMsg);
     }
@@ -122,12 +111,16 @@ public class Proposer {
 
         Request msgRequest = msg.getRequest();
         RequestId rId = msgRequest.getId();
-        int id = getIntId(rId);
 
         tsGenerator.setTimestamp(msgRequest.getPosition());
 
-        synchronized (reqInfos[id]) {
-            RequestInfo rInfo = reqInfos[id];
+        SlotTable.Slot slot = acquireOrDefer(rId, () -> onFastPropose(msg, sender));
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (slot.info) {
+            RequestInfo rInfo = slot.info;
 
             if (rInfo.getId() == null) {
                 rInfo.init(rId, view, RequestStatus.PreFastPending);
@@ -141,6 +134,9 @@ public class Proposer {
 //            Collection<RequestId> predSet = conflictDetector.computeNewPredFor(msgRequest, msgRequest.getPosition(), msg.getWhiteList());
 //            msgRequest.setPred(predSet);
             Request request = conflictDetector.updateRequest(msgRequest);
+            if (request == null) {
+                return;
+            }
 
             rInfo.setStatus(RequestStatus.FastPending);
             request.setStatus(RequestStatus.FastPending);
@@ -161,20 +157,20 @@ public class Proposer {
 //                return;
 //            }
 
-            fastProposeResume(rInfo, request, view, sender, msg.getWhiteList(), waitSet, 0, 0);
+            fastProposeResume(rInfo, request, view, sender, msg.getWhiteList(), waitSet);
 
         }
 
     }
 
+    /**
+     * Checks the fast proposal against the pending requests after it. If some
+     * of them do not order it before themselves yet, registers one
+     * {@link ProposeWait} with each of them and returns; the wait runs
+     * {@link #fastProposeWakeup} once they all cleared.
+     */
     private void fastProposeResume(RequestInfo reqInfo, Request request, int view, int sender,
-                                   Set<RequestId> whiteList, Request[][] waitReqs, int startIdx1, int startIdx2) {
-        RequestId rId = request.getId();
-//        int id = getIntId(rId);
-
-        if (request.startWait > 0) {
-            request.waitDuration += (int) (System.currentTimeMillis() - request.startWait);
-        }
+                                   Set<RequestId> whiteList, Request[][] waitReqs) {
 
         synchronized (reqInfo) {
 
@@ -183,70 +179,220 @@ public class Proposer {
                 return;
             }
 
-            for (int index1 = startIdx1; index1 < waitReqs.length; index1++) {
-                //conflictDetector.lock(request.objectIds[index1]);
-                for (int index2 = startIdx2; index2 < waitReqs[index1].length; index2++) {
-                    Request req = waitReqs[index1][index2];
-
-                    Queue<Runnable> prQ = proposeRunnables[getIntId(req.getId())];
-
-                    assert prQ != null : "prQ is null for " + request;
-
-                    synchronized (prQ) {
+            if (conflictDetector.isBehindWatermark(request)) {
+                sendFastProposeReject(reqInfo, view, sender, request);
+                return;
+            }
 
-                        if (request.getPosition() < req.getPosition() && !req.getPred().contains(rId)) {
+            ProposeWait wait = null;
+            for (Request[] objWaitReqs : waitReqs) {
+                for (Request req : objWaitReqs) {
 
-                            if (req.getStatus().ordinal() < RequestStatus.Accepted.ordinal()) {
+                    InstanceState reqState = req.getState();
+                    if (isBlockedBy(request, reqState)) {
 
-                                //conflictDetector.unlock(request.objectIds[index1]);
-                                prQ.add(new OnFastProposeRunner(reqInfo, request, view, sender, whiteList,
-                                        waitReqs, index1, index2));
-				if(logger.isDebugEnabled()) {
-					logger.debug("{} is waiting for {}", request, req);
-				}
-                                request.startWait = System.currentTimeMillis();
-                                return;
+                        if (reqState.status.ordinal() < RequestStatus.Accepted.ordinal()) {
 
-                            } else {
+                            if (wait == null) {
+                                wait = new ProposeWait(this, reqInfo, request, view, sender, whiteList, false);
+                            }
+                            registerWait(req, wait);
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("{} is waiting for {}", request, req);
+                            }
 
-                                //conflictDetector.unlock(request.objectIds[index1]);
-                                sendFastProposeReject(reqInfo, view, sender, request);
-                                return;
+                        } else {
 
+                            if (wait != null) {
+                                wait.cancel();
                             }
+                            sendFastProposeReject(reqInfo, view, sender, request);
+                            return;
+
                         }
                     }
                 }
-                //conflictDetector.unlock(request.objectIds[index1]);
             }
 
-            Collection<RequestId> predSet = conflictDetector.computeNewPredFor(request, request.getPosition(), whiteList);
-            request.setPred(predSet);
-            request.setHasWhitelist(whiteList != null);
+            if (wait != null) {
+                RequestProfile profile = RequestProfile.of(request.getId());
+                if (profile != null) {
+                    profile.startWait = System.currentTimeMillis();
+                }
+                if (wait.arm()) {
+                    return;
+                }
+            }
 
-            Queue<Runnable> prQ = proposeRunnables[getIntId(rId)];
-            synchronized (prQ) {
-                prQ.forEach(intDispatcher::submit);
-                prQ.clear();
+            sendFastProposeAck(reqInfo, request, view, sender, whiteList);
+        }
+
+    }
+
+    /** Runs a fast {@link ProposeWait} whose blockers all cleared, or one of which forces a reject. */
+    void fastProposeWakeup(ProposeWait wait) {
+        RequestInfo reqInfo = wait.info;
+        Request request = wait.request;
+
+        RequestProfile profile = RequestProfile.of(request.getId());
+        if (profile != null) {
+            profile.waitDuration += (int) (System.currentTimeMillis() - profile.startWait);
+        }
+
+        synchronized (reqInfo) {
+
+            if ((reqInfo.getView() > wait.view) || (reqInfo.getView() == wait.view
+                    && reqInfo.getStatusOrdinal() > RequestStatus.FastPending.ordinal())) {
+                return;
             }
 
-            //for(int oId : request.objectIds) {
-            //    conflictDetector.lock(oId);
-            //}
-            int predSize = predSet.size();
-            ByteBuffer bb = ByteBuffer.allocate(predSize * rId.byteSize());
-            for (RequestId r : predSet) {
-                r.writeTo(bb);
+            if (wait.isRejected() || conflictDetector.isBehindWatermark(request)) {
+                sendFastProposeReject(reqInfo, wait.view, wait.sender, request);
+                return;
             }
-            //for(int oId : request.objectIds) {
-            //    conflictDetector.unlock(oId);
-            //}
 
-            FastProposeReply replyMsg = new FastProposeReply(view, request.getId(),
-                    FastProposeReply.Status.ACK, bb.array(), predSize, request.getPosition(), request.waitDuration);
-            repliesChannel.sendMessage(replyMsg, sender);
+            sendFastProposeAck(reqInfo, request, wait.view, wait.sender, wait.whiteList);
+        }
+    }
+
+    /**
+     * Acquires the slot of {@code rId}. If the slot table is full, that is the
+     * slot is still held by an older request, {@code retry} is queued until
+     * slots are released and null is returned: the message stalls instead
+     * of failing.
+     */
+    private SlotTable.Slot acquireOrDefer(RequestId rId, Runnable retry) {
+        SlotTable.Slot slot = slots.acquire(rId);
+        if (slot == SlotTable.FULL) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Slot table full, deferring {}", rId);
+            }
+            stalled.add(retry);
+            if (slots.acquire(rId) != SlotTable.FULL) {
+                // released meanwhile, possibly before the queue was drained
+                retryStalled();
+            }
+            return null;
+        }
+        return slot;
+    }
+
+    /** Runs the messages stalled on a full slot table again. Called after slots were released. */
+    private void retryStalled() {
+        int count = stalled.size();
+        if (count == 0) {
+            return;
+        }
+        intDispatcher.submit(() -> {
+            // those still stalled queue themselves again
+            for (int i = 0; i < count; i++) {
+                Runnable retry = stalled.poll();
+                if (retry == null) {
+                    return;
+                }
+                retry.run();
+            }
+        });
+    }
+
+    /**
+     * Registers {@code wait} with {@code blocker}, or settles it at once if
+     * the blocker changed since the scan.
+     */
+    private void registerWait(Request blocker, ProposeWait wait) {
+        wait.block();
+        SlotTable.Slot slot = slots.get(blocker.getId());
+        if (slot == null) {
+            // released, hence delivered; it will not change anymore
+            boolean fire = isBlockedBy(wait.request, blocker.getState()) ? wait.reject() : wait.unblock();
+            if (fire) {
+                intDispatcher.submit(wait);
+            }
+            return;
+        }
+        synchronized (slot.waitersLock) {
+            InstanceState blockerState = blocker.getState();
+            if (!isBlockedBy(wait.request, blockerState)) {
+                if (wait.unblock()) {
+                    intDispatcher.submit(wait);
+                }
+            } else if (blockerState.status.ordinal() >= RequestStatus.Accepted.ordinal()) {
+                if (wait.reject()) {
+                    intDispatcher.submit(wait);
+                }
+            } else {
+                if (slot.waiters == null) {
+                    slot.waiters = new ArrayList<>(2);
+                }
+                slot.waiters.add(wait);
+            }
+        }
+    }
+
+    /** True if {@code req} comes after {@code request} but does not have it among its preds yet. */
+    private static boolean isBlockedBy(Request request, InstanceState req) {
+        return request.getPosition() < req.position && !req.pred.contains(request.getId());
+    }
+
+    /**
+     * Re-evaluates the proposals waiting for {@code blocker} after it
+     * changed, and wakes those it no longer blocks or has to reject. Called
+     * with the blocker's waitersLock held.
+     */
+    private void wakeWaiters(SlotTable.Slot slot, Request blocker) {
+        List<ProposeWait> waiters = slot.waiters;
+        if (waiters == null || waiters.isEmpty()) {
+            return;
+        }
+
+        InstanceState blockerState = blocker.getState();
+        boolean accepted = blockerState.status.ordinal() >= RequestStatus.Accepted.ordinal();
+        int kept = 0;
+        for (int i = 0; i < waiters.size(); i++) {
+            ProposeWait wait = waiters.get(i);
+            if (wait.isFired()) {
+                continue;
+            }
+            if (!isBlockedBy(wait.request, blockerState)) {
+                if (wait.unblock()) {
+                    intDispatcher.submit(wait);
+                }
+            } else if (accepted) {
+                if (wait.reject()) {
+                    intDispatcher.submit(wait);
+                }
+            } else {
+                waiters.set(kept++, wait);
+            }
+        }
+        waiters.subList(kept, waiters.size()).clear();
+    }
+
+    private void sendFastProposeAck(RequestInfo reqInfo, Request request, int view, int sender,
+                                    Set<RequestId> whiteList) {
+        RequestId rId = request.getId();
+
+        PackedRequestIds predSet = PackedRequestIds.of(
+                conflictDetector.computeNewPredFor(request, request.getPosition(), whiteList));
+        request.setPred(predSet);
+        request.setHasWhitelist(whiteList != null);
+
+        SlotTable.Slot slot = slots.get(rId);
+        if (slot != null) {
+            synchronized (slot.waitersLock) {
+                wakeWaiters(slot, request);
+            }
         }
 
+        FastProposeReply replyMsg = new FastProposeReply(view, request.getId(),
+                FastProposeReply.Status.ACK, predSet, request.getPosition(),
+                waitDuration(request));
+        repliesChannel.sendMessage(replyMsg, sender);
+    }
+
+    private static int waitDuration(Request request) {
+        RequestProfile profile = RequestProfile.of(request.getId());
+        return profile != null ? profile.waitDuration : 0;
     }
 
     private void sendFastProposeReject(RequestInfo reqInfo, int view, int sender, Request request) {
@@ -256,23 +402,11 @@ public class Proposer {
 
         long position = tsGenerator.newTimestamp();
 
-        Collection<RequestId> predSet = conflictDetector.computeNewPredFor(request, position, null);
+        LongHashSet predSet = conflictDetector.computeNewPredFor(request, position, null);
         request.setHasWhitelist(false);
 
-        //for(int oId : request.objectIds) {
-        //    conflictDetector.lock(oId);
-        //}
-        int predSize = predSet.size();
-        ByteBuffer bb = ByteBuffer.allocate(predSize * request.getId().byteSize());
-        for (RequestId r : predSet) {
-            r.writeTo(bb);
-        }
-        //for(int oId : request.objectIds) {
-        //    conflictDetector.unlock(oId);
-        //}
-
         FastProposeReply replyMsg = new FastProposeReply(view, request.getId(),
-                FastProposeReply.Status.NACK, bb.array(), predSize, position, request.waitDuration);
+                FastProposeReply.Status.NACK, PackedRequestIds.of(predSet), position, waitDuration(request));
         repliesChannel.sendMessage(replyMsg, sender);
 
     }
@@ -280,14 +414,17 @@ public class Proposer {
     void onFastProposeReply(FastProposeReply msg, int sender) {
 
         RequestId rId = msg.getRequestId();
-        int id = getIntId(rId);
+        SlotTable.Slot slot = slots.get(rId);
+        if (slot == null) {
+            return;
+        }
 
         if (msg.getStatus() == FastProposeReply.Status.REPROPOSE) {
-            fastPropose(proposedReqs[id]);
+            fastPropose(slot.proposed);
             return;
         }
 
-        FastProposeReplyInfo info = fpReplies[id];
+        FastProposeReplyInfo info = slot.fpReply;
 
         // TODO: CHECK IF THIS AFFECTS CORRECTNESS
         if (info == null) {
@@ -300,6 +437,8 @@ public class Proposer {
             }
 
             info.addReply(msg, sender);
+            long elapsed = System.nanoTime() - info.getSentAt();
+            fpTimeout.recordReply(sender, elapsed);
 
             if (!info.hasNack() && info.isFastQuorum()) {
 
@@ -319,20 +458,24 @@ public class Proposer {
 
                 request.setPosition(tsGenerator.newTimestamp());
 
-                retryReplies[id] = new RetryReplyInfo(request, numReplicas);
+                slot.retryReply = new RetryReplyInfo(request, numReplicas);
 
                 Retry retryMsg = new Retry(msg.getView(), request);
                 proposeChannel.sendToAll(retryMsg);
 
-                proposedReqs[id].startRetry = System.currentTimeMillis();
+                RequestProfile profile = RequestProfile.of(request.getId());
+                if (profile != null) {
+                    profile.startRetry = System.currentTimeMillis();
+                }
 
             } else if (info.isClassicQuorum()) {
 
                 Request request = info.updateAndGetRequest();
 
+                Runnable slowPropose = () -> sendSlowPropose(msg.getView(), request, info);
                 info.setSlowProposeFuture(
-                        intDispatcher.schedule(() -> sendSlowPropose(msg.getView(), request, info),
-                                fpTimeout, TimeUnit.MILLISECONDS)
+                        intDispatcher.schedule(slowPropose,
+                                fpTimeout.remainingNanos(elapsed), TimeUnit.NANOSECONDS)
                 );
 
                 return;
@@ -343,7 +486,10 @@ public class Proposer {
 
             }
 
-            proposedReqs[id].proposeDuration = (int) (System.currentTimeMillis() - proposedReqs[id].startPropose);
+            RequestProfile profile = RequestProfile.of(msg.getRequestId());
+            if (profile != null) {
+                profile.proposed(info.getReplies());
+            }
             ScheduledFuture<?> future = info.getSlowProposeFuture();
             if (future != null) {
                 future.cancel(false);
@@ -367,57 +513,61 @@ public class Proposer {
 
         SlowPropose proposeMsg = new SlowPropose(view, request);
 
-        spReplies[getIntId(request.getId())] =
-                new SlowProposeReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
+        SlotTable.Slot slot = acquireOrDefer(request.getId(), () -> sendSlowPropose(view, request, null));
+        if (slot == null) {
+            return;
+        }
+        slot.spReply = new SlowProposeReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
 
         proposeChannel.sendToAll(proposeMsg);
 
     }
 
     void onSlowPropose(SlowPropose msg, int sender) {
+        int view = msg.getView();
 
-        throw new NotImplementedException();
-//        int view = msg.getView();
-//
-//        Request msgRequest = msg.getRequest();
-//        RequestId rId = msgRequest.getId();
-//        int id = getIntId(rId);
-//
-//        synchronized (reqInfos[id]) {
-//            RequestInfo reqInfo = reqInfos[id];
-//
-//            if (reqInfo.getId() == null) {
-//                reqInfo.init(rId, view, RequestStatus.PreSlowPending);
-//            }
-//
-//            if ((reqInfo.getView() > view) || (reqInfo.getView() == view
-//                    && reqInfo.getStatusOrdinal() > RequestStatus.PreSlowPending.ordinal())) {
-//                return;
-//            }
-//
-////            proposeRunnables.computeIfAbsent(rId, k -> new ConcurrentLinkedQueue<>());
-//
-//            Request request = conflictDetector.updateRequest(msgRequest);
-//
-//            reqInfo.setStatus(RequestStatus.SlowPending);
-//            request.setStatus(RequestStatus.SlowPending);
-//
-//            assert request.getStatus() == RequestStatus.SlowPending : "Request not pending " + request + ";" + reqInfo;
-//
-//            SortedSet<Request> waitReqs = new TreeSet<>();
-//            int rejected = conflictDetector.computeWaitSetOrReject(request, waitReqs);
-//
-//            if (rejected == -1) {
-//                sendSlowProposeReject(reqInfo, request, view, sender);
-//            } else {
-//                slowProposeResume(reqInfo, request, view, sender, waitReqs, 0);
-//            }
-//        }
+        Request msgRequest = msg.getRequest();
+        RequestId rId = msgRequest.getId();
 
+        tsGenerator.setTimestamp(msgRequest.getPosition());
+
+        SlotTable.Slot slot = acquireOrDefer(rId, () -> onSlowPropose(msg, sender));
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (slot.info) {
+            RequestInfo reqInfo = slot.info;
+
+            if (reqInfo.getId() == null) {
+                reqInfo.init(rId, view, RequestStatus.PreSlowPending);
+            }
+
+            if ((reqInfo.getView() > view) || (reqInfo.getView() == view
+                    && reqInfo.getStatusOrdinal() > RequestStatus.SlowPending.ordinal())) {
+                return;
+            }
+
+            Request request = conflictDetector.updateRequest(msgRequest);
+            if (request == null) {
+                return;
+            }
+
+            reqInfo.setStatus(RequestStatus.SlowPending);
+            request.setStatus(RequestStatus.SlowPending);
+
+            slowProposeResume(reqInfo, request, view, sender, conflictDetector.computeWaitSet(request));
+        }
     }
 
+    /**
+     * Same check as {@link #fastProposeResume} for a slow proposal: the
+     * proposal waits for the pending requests after it that do not have it
+     * among their preds, and is rejected if one of them is already accepted
+     * without it.
+     */
     private void slowProposeResume(RequestInfo reqInfo, Request request, int view, int sender,
-                                   SortedSet<Request> waitReqs, int startIdx) {
+                                   Request[][] waitReqs) {
 
         synchronized (reqInfo) {
 
@@ -426,64 +576,110 @@ public class Proposer {
                 return;
             }
 
-            int index = 0;
-            for (Request req : waitReqs) {
-                if (index >= startIdx) {
+            if (conflictDetector.isBehindWatermark(request)) {
+                sendSlowProposeReject(reqInfo, request, view, sender);
+                return;
+            }
 
-                    Queue<Runnable> prQ = proposeRunnables[getIntId(req.getId())];
-                    assert prQ != null : "prQ is null for " + request;
+            ProposeWait wait = null;
+            for (Request[] objWaitReqs : waitReqs) {
+                for (Request req : objWaitReqs) {
 
-                    synchronized (prQ) {
+                    InstanceState reqState = req.getState();
+                    if (isBlockedBy(request, reqState)) {
 
-                        if (req.getStatus() != RequestStatus.Stable &&
-                                req.getStatus() != RequestStatus.Accepted) {
+                        if (reqState.status.ordinal() < RequestStatus.Accepted.ordinal()) {
 
-                            prQ.add(new OnSlowProposeRunner(reqInfo, request, view, sender, waitReqs, index));
-                            return;
+                            if (wait == null) {
+                                wait = new ProposeWait(this, reqInfo, request, view, sender, null, true);
+                            }
+                            registerWait(req, wait);
 
-                        } else if (!req.getPred().contains(request)) {
+                        } else {
 
+                            if (wait != null) {
+                                wait.cancel();
+                            }
                             sendSlowProposeReject(reqInfo, request, view, sender);
                             return;
 
                         }
                     }
-
                 }
-                index++;
             }
 
-//            Set<RequestId> predSet = conflictDetector.computeNewPredFor(request, request.getPosition(), null);
-//            request.setPred(predSet);
-            request.setHasWhitelist(false);
+            if (wait != null && wait.arm()) {
+                return;
+            }
 
-//            SlowProposeReply replyMsg = new SlowProposeReply(0, request.getId(), SlowProposeReply.Status.ACK, predSet, request.getPosition());
-//            repliesChannel.sendMessage(replyMsg, sender);
+            sendSlowProposeAck(reqInfo, request, view, sender);
         }
 
     }
 
+    /** Runs a slow {@link ProposeWait} whose blockers all cleared, or one of which forces a reject. */
+    void slowProposeWakeup(ProposeWait wait) {
+        RequestInfo reqInfo = wait.info;
+        Request request = wait.request;
+
+        synchronized (reqInfo) {
+
+            if ((reqInfo.getView() > wait.view) || (reqInfo.getView() == wait.view
+                    && reqInfo.getStatusOrdinal() > RequestStatus.SlowPending.ordinal())) {
+                return;
+            }
+
+            if (wait.isRejected() || conflictDetector.isBehindWatermark(request)) {
+                sendSlowProposeReject(reqInfo, request, wait.view, wait.sender);
+                return;
+            }
+
+            sendSlowProposeAck(reqInfo, request, wait.view, wait.sender);
+        }
+    }
+
+    /** Acknowledges the proposed position, with the proposed preds plus the ones known here. */
+    private void sendSlowProposeAck(RequestInfo reqInfo, Request request, int view, int sender) {
+        LongHashSet pred = conflictDetector.computeNewPredFor(request, request.getPosition(), null);
+        PackedRequestIds.addAll(request.getPred(), pred);
+        PackedRequestIds predSet = PackedRequestIds.of(pred);
+        request.setPred(predSet);
+        request.setHasWhitelist(false);
+
+        SlotTable.Slot slot = slots.get(request.getId());
+        if (slot != null) {
+            synchronized (slot.waitersLock) {
+                wakeWaiters(slot, request);
+            }
+        }
+
+        SlowProposeReply replyMsg = new SlowProposeReply(view, request.getId(), SlowProposeReply.Status.ACK,
+                predSet, request.getPosition());
+        repliesChannel.sendMessage(replyMsg, sender);
+    }
+
     private void sendSlowProposeReject(RequestInfo reqInfo, Request request, int view, int sender) {
         reqInfo.setStatus(RequestStatus.Rejected);
         request.setStatus(RequestStatus.Rejected);
 
         long position = tsGenerator.newTimestamp();
 
-//        Set<RequestId> predSet = conflictDetector.computeNewPredFor(request, position, null);
-//        request.setHasWhitelist(false);
-//
-//        SlowProposeReply replyMsg = new SlowProposeReply(view, request.getId(), SlowProposeReply.Status.NACK, predSet, position);
-//        repliesChannel.sendMessage(replyMsg, sender);
+        LongHashSet predSet = conflictDetector.computeNewPredFor(request, position, null);
+        request.setHasWhitelist(false);
+
+        SlowProposeReply replyMsg = new SlowProposeReply(view, request.getId(), SlowProposeReply.Status.NACK,
+                PackedRequestIds.of(predSet), position);
+        repliesChannel.sendMessage(replyMsg, sender);
     }
 
     void onSlowProposeReply(SlowProposeReply msg, int sender) {
         RequestId rId = msg.getRequestId();
-        int id = getIntId(rId);
-        SlowProposeReplyInfo info = spReplies[id];
+        SlotTable.Slot slot = slots.get(rId);
 
         // TODO: CHECK IF THIS AFFECTS CORRECTNESS
-        if (info == null)
+        if (slot == null || slot.spReply == null)
             return;
+        SlowProposeReplyInfo info = slot.spReply;
 
         synchronized (info) {
             if (info.isDone())
@@ -506,17 +702,26 @@ public class Proposer {
 
                 request.setPosition(tsGenerator.newTimestamp());
 
-                retryReplies[id] = new RetryReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
+                slot.retryReply = new RetryReplyInfo(request, ProcessDescriptor.getInstance().numReplicas);
 
                 Retry retryMsg = new Retry(msg.getView(), request);
                 proposeChannel.sendToAll(retryMsg);
 
+                RequestProfile profile = RequestProfile.of(request.getId());
+                if (profile != null) {
+                    profile.startRetry = System.currentTimeMillis();
+                }
+
             } else {
 
                 return;
 
             }
 
+            RequestProfile profile = RequestProfile.of(msg.getRequestId());
+            if (profile != null) {
+                profile.proposeDuration = (int) (System.currentTimeMillis() - profile.startPropose);
+            }
             info.setDone();
         }
 
@@ -526,13 +731,16 @@ public class Proposer {
 
         Request msgRequest = msg.getRequest();
         RequestId rId = msgRequest.getId();
-        int id = getIntId(rId);
 
         tsGenerator.setTimestamp(msgRequest.getPosition());
 
         int view = msg.getView();
 
-        RequestInfo reqInfo = reqInfos[id];
+        SlotTable.Slot slot = acquireOrDefer(rId, () -> onRetry(msg, sender));
+        if (slot == null) {
+            return;
+        }
+        RequestInfo reqInfo = slot.info;
 
         synchronized (reqInfo) {
 
@@ -546,37 +754,22 @@ public class Proposer {
             }
 
             Request request = conflictDetector.updateRequest(msgRequest);
-
-            Collection<RequestId> newPredSet = conflictDetector.computeNewPredFor(request, request.getPosition(), null);
-
-            //for(int oId : request.objectIds) {
-            //    conflictDetector.lock(oId);
-            //}
-            int predSize = newPredSet.size() + request.getPred().size();
-            ByteBuffer bb = ByteBuffer.allocate(predSize * rId.byteSize());
-            for (RequestId r : newPredSet) {
-                r.writeTo(bb);
+            if (request == null) {
+                return;
             }
-            //for (RequestId r : request.getPred()) {
-            //    r.writeTo(bb);
-            //}
-            //for(int oId : request.objectIds) {
-            //    conflictDetector.unlock(oId);
-            //}
+
+            LongHashSet newPredSet = conflictDetector.computeNewPredFor(request, request.getPosition(), null);
 
             request.setStatus(RequestStatus.Accepted);
             reqInfo.setStatus(RequestStatus.Accepted);
 
             request.setHasWhitelist(false);
 
-            Queue<Runnable> prQ = proposeRunnables[id];
-
-            synchronized (prQ) {
-                prQ.forEach(intDispatcher::submit);
-                prQ.clear();
+            synchronized (slot.waitersLock) {
+                wakeWaiters(slot, request);
             }
 
-            RetryReply replyMsg = new RetryReply(view, rId, bb.array(), predSize);
+            RetryReply replyMsg = new RetryReply(view, rId, PackedRequestIds.of(newPredSet));
             repliesChannel.sendMessage(replyMsg, sender);
 
         }
@@ -584,12 +777,11 @@ public class Proposer {
 
     void onRetryReply(RetryReply msg, int sender) {
 
-        int id = getIntId(msg.getRequestId());
-        RetryReplyInfo info = retryReplies[id];
-
-        if (info == null) {
+        SlotTable.Slot slot = slots.get(msg.getRequestId());
+        if (slot == null || slot.retryReply == null) {
             return;
         }
+        RetryReplyInfo info = slot.retryReply;
 
         synchronized (info) {
             info.addReply(msg, sender);
@@ -602,7 +794,10 @@ public class Proposer {
             info.setDone();
 
             Request request = info.updateAndGetRequest();
-            proposedReqs[id].retryDuration = (int) (System.currentTimeMillis() - request.startRetry);
+            RequestProfile profile = RequestProfile.of(request.getId());
+            if (profile != null) {
+                profile.retryDuration = (int) (System.currentTimeMillis() - profile.startRetry);
+            }
 
             Stable stableMsg = new Stable(msg.getView(), request);
             stableChannel.sendToAll(stableMsg);
@@ -611,16 +806,29 @@ public class Proposer {
     }
 
     void onStable(Stable msg, int sender) {
+        onStable(msg, stableLog != null);
+    }
+
+    /** Restores a decision read back from the stable log. */
+    void onLoggedStable(Stable msg) {
+        onStable(msg, false);
+    }
+
+    private void onStable(Stable msg, boolean log) {
 
         Request msgRequest = msg.getRequest();
         RequestId rId = msgRequest.getId();
-        int id = getIntId(rId);
 
         int view = msg.getView();
 
         tsGenerator.setTimestamp(msgRequest.getPosition());
 
-        RequestInfo reqInfo = reqInfos[id];
+        SlotTable.Slot slot = acquireOrDefer(rId, () -> onStable(msg, log));
+        if (slot == null) {
+            return;
+        }
+        RequestInfo reqInfo = slot.info;
+        Request request;
 
         synchronized (reqInfo) {
 
@@ -633,198 +841,170 @@ public class Proposer {
                 return;
             }
 
-            Request request = conflictDetector.updateRequest(msgRequest);
-
-            Queue<Runnable> prQ = proposeRunnables[id];
+            request = conflictDetector.updateRequest(msgRequest);
+            if (request == null) {
+                return;
+            }
 
-            synchronized (prQ) {
+            synchronized (slot.waitersLock) {
                 reqInfo.setStatus(RequestStatus.Stable);
                 request.setStatus(RequestStatus.Stable);
                 request.setHasWhitelist(false);
 
-                prQ.forEach(intDispatcher::submit);
-                prQ.clear();
+                wakeWaiters(slot, request);
             }
+        }
 
-//            caesar.deliver(request);
+        // only the thread that made it stable gets here, and the log may block on a file
+        if (log) {
+            // delivered once persisted
+            stableLog.append(msg, () -> deliver(request));
+        } else {
             deliver(request);
         }
 
     }
 
     private void deliver(Request request) {
-
-        request.startDeliver = System.currentTimeMillis();
-
-        ConcurrentMap<RequestId, Runnable> postDelQ = deliverRunnables[getIntId(request.getId())];
-        synchronized (postDelQ) {
-            postDelQ.forEach((predReq, predRunnable) -> intDispatcher.submit(predRunnable));
-            postDelQ.clear();
-        }
-
-        Collection<RequestId> pred = request.getPred();
-        RequestId[] predArray = new RequestId[pred.size()];
-        int index = 0;
-        for (RequestId entry : pred) {
-            predArray[index++] = entry;
+        RequestProfile profile = RequestProfile.of(request.getId());
+        if (profile != null) {
+            profile.startDeliver = System.currentTimeMillis();
         }
-
-        deliverResume(request, predArray, 0);
-
-//        // TODO: There is a problem here if "id" is not present in conflictDetector.
-//        // Next step fixes this...
-
-//        ConcurrentMap<RequestId, Runnable> postDelQ = deliverRunnables[getIntId(request.getId())];
-
-//        request.getPred().removeIf(id -> {
-//            Request predReq = conflictDetector.getRequest(id);
-//            boolean remove = predReq != null
-//                    && predReq.getStatus().ordinal() >= RequestStatus.Stable.ordinal()
-//                    && predReq.getPosition() > request.getPosition();
-//            if(remove) {
-//                Runnable predRunnable = postDelQ.remove(id);
-//                if (predRunnable != null) {
-//                    intDispatcher.submit(predRunnable);
-//                }
-//            }
-//            return remove;
-//        });
-
-//        logger.exit();
-    }
-
-    //TODO: CHECK THE CORRECTNESS HERE. BreakLoop P1 is not here. FIXED I THINK NOW
-    private void deliverResume(Request request, RequestId[] predArray, int startIdx) {
-
-        ConcurrentMap<RequestId, Runnable> postDelQ = deliverRunnables[getIntId(request.getId())];
-
-        for (int index = startIdx; index < predArray.length; index++) {
-            if (index >= startIdx) {
-                RequestId predId = predArray[index];
-                Request predReq = conflictDetector.getRequest(predId);
-
-                ConcurrentMap<RequestId, Runnable> queue = deliverRunnables[getIntId(predId)];
-
-                synchronized (queue) {
-                    if (predReq == null || predReq.getStatus().ordinal() < RequestStatus.Stable.ordinal()) {
-
-                        queue.put(request.getId(), new OnDeliverRunner(request, predArray, index));
-                        return;
-
-                    } else if (predReq.getPosition() < request.getPosition()) {
-
-                        if (predReq.getPred().contains(request.getId())) {
-                            Runnable predRunnable = postDelQ.remove(predId);
-                            if (predRunnable != null) {
-                                intDispatcher.submit(predRunnable);
-                            }
-                        }
-
-                        if (predReq.getStatus().ordinal() != RequestStatus.Delivered.ordinal()) {
-
-                            queue.put(request.getId(), new OnDeliverRunner(request, predArray, index));
-                            return;
-
-                        }
-
-                    } else if (predReq.getPosition() >= request.getPosition()) {
-
-                        index++;
-                        continue;
-
-                    } else {
-                        logger.fatal("SHOULD NOT BE HERE {} {}", request, predReq);
-                    }
-
-                }
-            }
-            index++;
-        }
-
-        int id = getIntId(request.getId());
-        if (proposedReqs[id] != null) {
-            request.proposeDuration = proposedReqs[id].proposeDuration;
-            request.retryDuration = proposedReqs[id].retryDuration;
-            request.info = fpReplies[id];
-        }
-        caesar.deliver(request);
-
+        deliveryEngine.stable(request);
     }
 
     void onDelivery(Request request) {
         request.setStatus(RequestStatus.Delivered);
-
-        ConcurrentMap<RequestId, Runnable> postDelQ = deliverRunnables[getIntId(request.getId())];
-
-        synchronized (postDelQ) {
-            postDelQ.forEach((predReq, predRunnable) -> intDispatcher.submit(predRunnable));
-            postDelQ.clear();
+        garbageCollector.onDelivery(request);
+        deliveryEngine.delivered(request);
+        if (!watermarkGc) {
+            // nothing else would free the slot
+            conflictDetector.releaseDelivered(request);
+            deliveryEngine.retryDeferred();
+            retryStalled();
         }
 
-        request.deliverDuration = (int) (System.currentTimeMillis() - request.startDeliver);
+        RequestProfile profile = RequestProfile.of(request.getId());
+        if (profile != null) {
+            profile.deliverDuration = (int) (System.currentTimeMillis() - profile.startDeliver);
+        }
 
         if (logger.isDebugEnabled()) {
             logger.debug("Delivered {}", request);
         }
     }
 
-    void startRecovery(int nodeId) {
-//        logger.entry(nodeId);
-//        if (logger.isFatalEnabled())
-//            logger.fatal(RECOVERY, "Trying to recovery {}", nodeId);
-
-        int numReplicas = ProcessDescriptor.getInstance().numReplicas;
+    /** Must be called while no delivered request is executing. */
+    SnapshotMark snapshotMark() {
+        long[] marks = garbageCollector.localMarks();
+        LongHashSet above = new LongHashSet();
+        conflictDetector.deliveredAbove(marks, above);
+        return new SnapshotMark(marks, above, slots.collectedGenerations());
+    }
 
-        Arrays.stream(reqInfos)
-                .filter(rInfo -> rInfo.getId().getClientId() % numReplicas == nodeId
-                        && rInfo.getStatusOrdinal() < RequestStatus.Stable.ordinal())
-                .forEach(this::recover);
+    /**
+     * Takes over what a snapshot loaded into the service shows collected, so
+     * requests naming those as preds do not wait for decisions that are no
+     * longer logged or kept anywhere.
+     */
+    void installSnapshot(SnapshotMark mark) {
+        deliveryEngine.markCollected(mark.collectedGenerations(), conflictDetector::forget);
+        retryStalled();
+    }
 
-//        reqInfos.forEach((requestId, requestInfo) -> {
-//            if (requestInfo.getId().getClientId() % numReplicas == nodeId
-//                    && requestInfo.getStatusOrdinal() < RequestStatus.Stable.ordinal()) {
-//
-//                if (logger.isTraceEnabled())
-//                    logger.trace(RECOVERY, "Recovering {}; ReqInfo", requestId, requestInfo);
-//
-//                recover(requestId, requestInfo);
-//
-//            }
-//        });
+    /** Decisions a lagging replica needs besides a snapshot taken at the same time. */
+    List<Request> stableRequests() {
+        return conflictDetector.stableRequests();
+    }
 
-//        logger.exit();
+    /**
+     * Drops the log segments holding only decisions that the snapshot makes
+     * useless, see {@link ConflictDetector#isObsolete}.
+     */
+    void truncateLog(SnapshotMark mark) throws IOException {
+        if (stableLog == null) {
+            return;
+        }
+        stableLog.truncate(stable -> conflictDetector.isObsolete(stable.getRequest(), mark));
     }
 
-    private void recover(RequestInfo rInfo) {
-//        logger.entry(rInfo);
-        RequestId rId = rInfo.getId();
+    void broadcastWatermark() {
+        Watermark msg = garbageCollector.drainLocalMarks();
+        if (msg != null) {
+            otherChannel.sendToAll(msg);
+        }
+    }
 
+    void onWatermark(Watermark msg, int sender) {
+        garbageCollector.onWatermark(msg, sender);
+        // collected slots may let deferred delivery nodes link their preds
+        deliveryEngine.retryDeferred();
+        retryStalled();
+    }
 
-        synchronized (rInfo) {
-            int newView = rInfo.getView() + 1;
+    void startRecovery(int nodeId) {
+        int numReplicas = ProcessDescriptor.getInstance().numReplicas;
 
-            recoveryReplies[getIntId(rId)] = new RecoveryInfo(conflictDetector.getRequest(rId),
-                    ProcessDescriptor.getInstance().numReplicas);
+        List<SlotTable.Slot> batch = new ArrayList<>(recoveryBatchSize);
+        slots.forEach(slot -> {
+            RequestInfo rInfo = slot.info;
+            if (rInfo.getId() != null && rInfo.getId().getClientId() % numReplicas == nodeId
+                    && rInfo.getStatusOrdinal() < RequestStatus.Stable.ordinal()) {
+                batch.add(slot);
+                if (batch.size() == recoveryBatchSize) {
+                    recover(batch);
+                    batch.clear();
+                }
+            }
+        });
+        if (!batch.isEmpty()) {
+            recover(batch);
+        }
+    }
 
-            Recovery recoverMsg = new Recovery(newView, rId);
-            otherChannel.sendToAll(recoverMsg);
+    /** Sends one Recovery for all the slots, each in the view after its current one. */
+    private void recover(List<SlotTable.Slot> batch) {
+        int size = batch.size();
+        long[] requestIds = new long[size];
+        int[] views = new int[size];
+        int[] requestViews = new int[size];
+        for (int i = 0; i < size; i++) {
+            RequestInfo rInfo = batch.get(i).info;
+            synchronized (rInfo) {
+                requestIds[i] = rInfo.getId().toLong();
+                requestViews[i] = rInfo.getView();
+                views[i] = rInfo.getView() + 1;
+            }
         }
 
-//        logger.exit();
+        int batchId = nextRecoveryBatch.incrementAndGet();
+        ProcessDescriptor pd = ProcessDescriptor.getInstance();
+        recoveries.put(batchId, new RecoveryInfo(requestIds, views, requestViews, pd.numReplicas, pd.classicQuorum));
+        otherChannel.sendToAll(new Recovery(batchId, requestIds, views));
     }
 
     void onRecovery(Recovery msg, int sender) {
-//        logger.entry(msg, sender);
-//        if (logger.isFatalEnabled())
-//            logger.fatal(RECOVERY, "Received onRecovery {} from {}", msg, sender);
-
-        RequestStats.getInstance().recoverCount.getAndIncrement();
+        RequestStats.getInstance().recoverCount.getAndAdd(msg.size());
 
-        RequestId rId = msg.getRequestId();
-        int view = msg.getView();
+        RecoveryReply.Entry[] entries = new RecoveryReply.Entry[msg.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = recoveryEntry(RequestId.fromLong(msg.getRequestId(i)), msg.getView(i));
+        }
+        otherChannel.sendMessage(new RecoveryReply(msg.getBatchId(), entries), sender);
+    }
 
-        RequestInfo reqInfo = reqInfos[getIntId(rId)];
-//                k -> new RequestInfo(rId, view, RequestStatus.Waiting));
+    private RecoveryReply.Entry recoveryEntry(RequestId rId, int view) {
+        SlotTable.Slot slot = slots.acquire(rId);
+        if (slot == null) {
+            // delivered here; without watermark GC it may not be delivered everywhere
+            Request delivered = conflictDetector.getRequest(rId);
+            return delivered != null ? new RecoveryReply.Entry(delivered) : RecoveryReply.Entry.SKIPPED;
+        }
+        if (slot == SlotTable.FULL) {
+            // never seen here: its slot is still held by an older request
+            return new RecoveryReply.Entry((Request) null);
+        }
+        RequestInfo reqInfo = slot.info;
 
         synchronized (reqInfo) {
 
@@ -833,238 +1013,140 @@ public class Proposer {
             }
 
             if (reqInfo.getView() > view) {
-//                if (logger.isFatalEnabled())
-//                    logger.fatal(RECOVERY, "Returning {}; {}", view, reqInfo);
-//                logger.exit();
-                return;
+                return RecoveryReply.Entry.SKIPPED;
             }
 
-            Request request = conflictDetector.getRequest(rId);
-
-//            if (logger.isFatalEnabled())
-//                logger.fatal(RECOVERY, "OnRecovery for {}", request);
-
-            RecoveryReply replyMsg = new RecoveryReply(view, rId, request);
-            otherChannel.sendMessage(replyMsg, sender);
+            return new RecoveryReply.Entry(conflictDetector.getRequest(rId));
         }
-
-//        logger.exit();
     }
 
     void onRecoveryReply(RecoveryReply msg, int sender) {
-//        logger.entry(msg, sender);
-//        if (logger.isFatalEnabled())
-//            logger.fatal(RECOVERY, "Recovering {} from {}", msg, sender);
-
-        RecoveryReply reply;
-
-        int view = msg.getView();
-
-        RequestId rId = msg.getRequestId();
-        int id = getIntId(rId);
-
-        RecoveryInfo info = recoveryReplies[id];
-        Request request = conflictDetector.getRequest(rId);
+        RecoveryInfo info = recoveries.get(msg.getBatchId());
+        if (info == null) {
+            return;
+        }
 
+        RecoveryInfo.Quorum[] ready;
         synchronized (info) {
-            info.addReply(msg, sender);
-
-            if (info.isClassicQuorum() && !info.isDone()) {
-                info.setDone();
-
-//                if (logger.isFatalEnabled()) {
-//                    logger.fatal(RECOVERY, "Info for {}: {}", rId, info);
-//                }
-
-                reply = info.getReplyWithStatus(RequestStatus.Stable, false);
-                if (reply == null)
-                    reply = info.getReplyWithStatus(RequestStatus.Delivered, false);
-
-                if (reply != null) {
-                    Request newReq = new Request(rId, request.getObjectIds(), request.getPayload(),
-                            reply.getPosition(), reply.getPred(), RequestStatus.Stable, view);
-
-                    Stable stableMsg = new Stable(view, newReq);
-//                    logger.fatal(RECOVERY, "Sending {}", stableMsg);
-                    stableChannel.sendToAll(stableMsg);
-
-//                    logger.exit();
-                    return;
-                }
-
-                reply = info.getReplyWithStatus(RequestStatus.Accepted, false);
-
-                if (reply != null) {
-                    Request newReq = new Request(rId, request.getObjectIds(), request.getPayload(),
-                            reply.getPosition(), reply.getPred(), RequestStatus.Accepted, view);
-
-                    retryReplies[id] = new RetryReplyInfo(newReq, ProcessDescriptor.getInstance().numReplicas);
+            ready = info.addReply(msg, sender);
+            if (info.isDone()) {
+                recoveries.remove(msg.getBatchId());
+            }
+        }
+        // copies, not changed by the replies still coming for the batch
+        for (RecoveryInfo.Quorum quorum : ready) {
+            resumeRecovered(quorum);
+        }
+    }
 
-                    Retry retryMsg = new Retry(view, newReq);
-//                    logger.fatal(RECOVERY, "Sending {}", retryMsg);
-                    proposeChannel.sendToAll(retryMsg);
+    private void resumeRecovered(RecoveryInfo.Quorum info) {
+        RecoveryReply.Entry reply;
 
-//                    logger.exit();
-                    return;
-                }
+        RequestId rId = info.getRequestId();
+        int view = info.getView();
 
-                reply = info.getReplyWithStatus(RequestStatus.Rejected, false);
-
-                if (reply != null) {
-                    Request newReq = new Request(rId, request.getObjectIds(), request.getPayload(),
-                            tsGenerator.newTimestamp(), null, RequestStatus.PreFastPending, view);
+        Request request = conflictDetector.getRequest(rId);
+        if (request == null) {
+            return;
+        }
 
-                    Set<RequestId> whiteList = null;
+        reply = info.getReplyWithStatus(RequestStatus.Stable, false);
+        if (reply == null)
+            reply = info.getReplyWithStatus(RequestStatus.Delivered, false);
 
-//                    logger.fatal(RECOVERY, "Sending fast propose {} {} {}", view, newReq, whiteList);
-                    sendFastPropose(view, newReq, whiteList);
+        if (reply != null) {
+            Request newReq = new Request(request.getCommand(),
+                    reply.getPosition(), reply.getPred(), RequestStatus.Stable, view);
 
-//                    logger.exit();
-                    return;
-                }
+            Stable stableMsg = new Stable(view, newReq);
+            stableChannel.sendToAll(stableMsg);
+            return;
+        }
 
-                reply = info.getReplyWithStatus(RequestStatus.SlowPending, false);
+        reply = info.getReplyWithStatus(RequestStatus.Accepted, false);
 
-                if (reply != null) {
-                    Request newReq = new Request(rId, request.getObjectIds(), request.getPayload(),
-                            reply.getPosition(), reply.getPred(), RequestStatus.PreSlowPending, view);
+        if (reply != null) {
+            Request newReq = new Request(request.getCommand(),
+                    reply.getPosition(), reply.getPred(), RequestStatus.Accepted, view);
 
-//                    logger.fatal(RECOVERY, "Sending slow propose {} {}", view, newReq);
-                    sendSlowPropose(view, newReq, null);
+            SlotTable.Slot slot = slots.get(rId);
+            if (slot == null) {
+                return;
+            }
+            slot.retryReply = new RetryReplyInfo(newReq, ProcessDescriptor.getInstance().numReplicas);
 
-//                    logger.exit();
-                    return;
-                }
+            Retry retryMsg = new Retry(view, newReq);
+            proposeChannel.sendToAll(retryMsg);
+            return;
+        }
 
-                Set<RecoveryReply> recoverySet = info.getRecoverySet();
-
-                Set<RequestId> predSet = recoverySet.stream()
-                        .filter(r -> r.getStatus() == RequestStatus.FastPending)
-                        .map(RecoveryReply::getPred)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toSet());
-
-                long position = recoverySet.stream()
-                        .filter(r -> r.getStatus() == RequestStatus.FastPending)
-                        .map(RecoveryReply::getPosition)
-                        .findFirst()
-                        .get();
-
-                reply = info.getReplyWithStatus(RequestStatus.FastPending, true);
-
-                Set<RequestId> whiteList;
-                int classicQuorum = ProcessDescriptor.getInstance().classicQuorum;
-                int majority = classicQuorum / 2 + 1;
-
-                if (reply != null) {
-                    whiteList = predSet;
-                } else if (recoverySet.size() >= classicQuorum) {
-                    whiteList = predSet.stream()
-                            .filter(predId ->
-                                    recoverySet.stream()
-                                            .filter(recoveryReply ->
-                                                    recoveryReply.getPred().contains(predId))
-                                            .count() >= majority
-                            )
-                            .collect(Collectors.toSet());
-                } else {
-                    whiteList = null;
-                }
+        reply = info.getReplyWithStatus(RequestStatus.Rejected, false);
 
-                Request newReq = new Request(rId, request.getObjectIds(), request.getPayload(),
-                        position, predSet, RequestStatus.PreFastPending, view);
+        if (reply != null) {
+            Request newReq = new Request(request.getCommand(),
+                    tsGenerator.newTimestamp(), null, RequestStatus.PreFastPending, view);
 
-//                logger.fatal(RECOVERY, "Sending Xfast proposeX {} {} {}", view, newReq, whiteList);
+            Set<RequestId> whiteList = null;
 
-                sendFastPropose(view, newReq, whiteList);
-            }
+            sendFastPropose(view, newReq, whiteList);
+            return;
         }
 
-//        logger.exit();
-    }
+        reply = info.getReplyWithStatus(RequestStatus.SlowPending, false);
 
-    private class OnFastProposeRunner implements Runnable {
-
-        private final RequestInfo info;
-        private final Request request;
-        private final int sender;
-        private final Request[][] waitReqs;
-        private final int index1;
-        private final int index2;
-        private final int view;
-        private final Set<RequestId> whiteList;
-
-        public OnFastProposeRunner(RequestInfo info, Request request, int view, int sender, Set<RequestId> whiteList, Request[][] waitReqs, int index1, int index2) {
-            this.info = info;
-            this.request = request;
-            this.view = view;
-            this.sender = sender;
-            this.waitReqs = waitReqs;
-            this.index1 = index1;
-            this.index2 = index2;
-            this.whiteList = whiteList;
-        }
+        if (reply != null) {
+            Request newReq = new Request(request.getCommand(),
+                    reply.getPosition(), reply.getPred(), RequestStatus.PreSlowPending, view);
 
-        @Override
-        public void run() {
-	    StringBuilder b = new StringBuilder();
-	    for(Request[] rArray : waitReqs) {
-		b.append(Arrays.toString(rArray));
-	    }
-            //logger.trace("Calling fastProposeResume for {} and waitReq {}", request, b.toString());
-            fastProposeResume(info, request, view, sender, whiteList, waitReqs, index1, index2);
-        }
-    }
-
-    private class OnSlowProposeRunner implements Runnable {
-
-        private final RequestInfo info;
-        private final Request request;
-        private final int sender;
-        private final SortedSet<Request> waitReqs;
-        private final int index;
-        private final int view;
-
-        public OnSlowProposeRunner(RequestInfo info, Request request, int view, int sender, SortedSet<Request> waitReqs, int index) {
-            this.info = info;
-            this.request = request;
-            this.view = view;
-            this.sender = sender;
-            this.waitReqs = waitReqs;
-            this.index = index;
+            sendSlowPropose(view, newReq, null);
+            return;
         }
 
-        @Override
-        public void run() {
-//            logger.trace("Calling slowProposeResume for {} and waitReq {}", request, waitReqs);
-            slowProposeResume(info, request, view, sender, waitReqs, index);
+        Set<RecoveryReply.Entry> recoverySet = info.getRecoverySet();
+
+        LongHashSet predIds = new LongHashSet();
+        recoverySet.stream()
+                .filter(r -> r.getStatus() == RequestStatus.FastPending)
+                .forEach(r -> PackedRequestIds.addAll(r.getPred(), predIds));
+        PackedRequestIds predSet = PackedRequestIds.of(predIds);
+
+        Optional<Long> fastPosition = recoverySet.stream()
+                .filter(r -> r.getStatus() == RequestStatus.FastPending)
+                .map(RecoveryReply.Entry::getPosition)
+                .findFirst();
+        if (!fastPosition.isPresent()) {
+            // no replica in the quorum has it pending: propose it again
+            sendFastPropose(view, new Request(request.getCommand(),
+                    tsGenerator.newTimestamp(), null, RequestStatus.PreFastPending, view), null);
+            return;
         }
-    }
-
-    private class OnDeliverRunner implements Runnable {
-
-        private final Request request;
-        private RequestId[] predArray;
-        private final int index;
-
-        public OnDeliverRunner(Request request, RequestId[] predArray, int index) {
-            this.request = request;
-            this.predArray = predArray;
-            this.index = index;
+        long position = fastPosition.get();
+
+        reply = info.getReplyWithStatus(RequestStatus.FastPending, true);
+
+        Set<RequestId> whiteList;
+        int classicQuorum = ProcessDescriptor.getInstance().classicQuorum;
+        int majority = classicQuorum / 2 + 1;
+
+        if (reply != null) {
+            whiteList = predSet;
+        } else if (recoverySet.size() >= classicQuorum) {
+            whiteList = PackedRequestIds.of(predSet.stream()
+                    .filter(predId ->
+                            recoverySet.stream()
+                                    .filter(recoveryReply ->
+                                            recoveryReply.getPred().contains(predId))
+                                    .count() >= majority
+                    )
+                    .collect(Collectors.toList()));
+        } else {
+            whiteList = null;
         }
 
-        @Override
-        public void run() {
-            deliverResume(request, predArray, index);
-        }
+        Request newReq = new Request(request.getCommand(),
+                position, predSet, RequestStatus.PreFastPending, view);
 
-        @Override
-        public String toString() {
-            return "OnDeliverRunner{" +
-                    "request=" + request +
-                    ", index=" + index +
-                    '}';
-        }
+        sendFastPropose(view, newReq, whiteList);
     }
 
 }
@@ -1,8 +1,7 @@
 package hyflow.caesar;
 
 import hyflow.caesar.messages.RecoveryReply;
-import hyflow.common.ProcessDescriptor;
-import hyflow.common.Request;
+import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
 
 import java.util.Arrays;
@@ -11,74 +10,133 @@ import java.util.stream.Collectors;
 
 /**
  * Created by balajiarun on 3/15/16.
+ * <p>
+ * Collects the replies to one batched {@link hyflow.caesar.messages.Recovery}.
+ * Every request of the batch reaches its quorum on its own, as replicas may
+ * skip some of them; {@link #addReply} returns the ones that just did, each
+ * with a copy of its quorum.
  */
 public class RecoveryInfo {
 
-    private final Request request;
-    private final RecoveryReply[] replies;
+    private final long[] requestIds;
+    private final int[] views;
+    /* replies[sender][index] */
+    private final RecoveryReply.Entry[][] replies;
 
     private final int classicQuorum;
-    private int count;
-    private boolean done;
-    private int maxView;
-
-    public RecoveryInfo(Request request, int numReplicas) {
-        this.request = request;
-        maxView = request.getView();
-
-        replies = new RecoveryReply[numReplicas];
-
-        count = 0;
-        done = false;
-
-        classicQuorum = ProcessDescriptor.getInstance().classicQuorum;
+    private final int[] count;
+    private final int[] maxView;
+    private int remaining;
+
+    public RecoveryInfo(long[] requestIds, int[] views, int[] requestViews, int numReplicas, int classicQuorum) {
+        this.requestIds = requestIds;
+        this.views = views;
+        this.maxView = requestViews.clone();
+        this.replies = new RecoveryReply.Entry[numReplicas][];
+        this.count = new int[requestIds.length];
+        this.remaining = requestIds.length;
+        this.classicQuorum = classicQuorum;
     }
 
-    public boolean isDone() {
-        return done;
+    public int size() {
+        return requestIds.length;
     }
 
-    public void setDone() {
-        done = true;
+    public RequestId getRequestId(int index) {
+        return RequestId.fromLong(requestIds[index]);
     }
 
-    public void addReply(RecoveryReply msg, int sender) {
-        replies[sender] = msg;
-        count++;
-
-        maxView = msg.getRequestView() > maxView ? msg.getRequestView() : maxView;
+    /** The view in which the request is recovered. */
+    public int getView(int index) {
+        return views[index];
     }
 
-    public RecoveryReply getReplyWithStatus(RequestStatus status, boolean withWhitelist) {
-        return Arrays.stream(replies)
-                .filter(msg -> msg != null
-                        && msg.isValid()
-                        && msg.hasWhitelist() == withWhitelist
-                        && msg.getRequestView() == maxView
-                        && msg.getStatus() == status)
-                .findFirst().orElse(null);
+    /** Whether every request of the batch has reached its quorum. */
+    public boolean isDone() {
+        return remaining == 0;
     }
 
-    public Set<RecoveryReply> getRecoverySet() {
+    /**
+     * Records a reply. Must be called with the info locked.
+     *
+     * @return the requests that reached a classic quorum with it, with the
+     *         replies received so far
+     */
+    public Quorum[] addReply(RecoveryReply msg, int sender) {
+        RecoveryReply.Entry[] entries = msg.getEntries();
+        if (replies[sender] != null || entries.length != requestIds.length) {
+            return new Quorum[0];
+        }
+        replies[sender] = entries;
+
+        Quorum[] ready = new Quorum[entries.length];
+        int readyCount = 0;
+        for (int i = 0; i < entries.length; i++) {
+            RecoveryReply.Entry entry = entries[i];
+            if (entry.isSkipped()) {
+                continue;
+            }
+            maxView[i] = Math.max(maxView[i], entry.getRequestView());
+            if (++count[i] == classicQuorum) {
+                ready[readyCount++] = quorum(i);
+            }
+        }
+        remaining -= readyCount;
+        return Arrays.copyOf(ready, readyCount);
+    }
 
-        return Arrays.stream(replies)
-                .filter(msg -> msg != null && msg.isValid() && msg.getRequestView() == maxView)
-                .collect(Collectors.toSet());
+    private Quorum quorum(int index) {
+        RecoveryReply.Entry[] entries = Arrays.stream(replies)
+                .filter(senderEntries -> senderEntries != null)
+                .map(senderEntries -> senderEntries[index])
+                .filter(entry -> entry.isValid() && entry.getRequestView() == maxView[index])
+                .toArray(RecoveryReply.Entry[]::new);
+        return new Quorum(getRequestId(index), views[index], entries);
     }
 
-    public boolean isClassicQuorum() {
-        return (count >= classicQuorum);
+    /**
+     * The replies about one request of the batch, in the highest view they
+     * report, as they were when the request reached its quorum. Replies that
+     * arrive later for the rest of the batch do not change it.
+     */
+    public static final class Quorum {
+        private final RequestId requestId;
+        private final int view;
+        private final RecoveryReply.Entry[] entries;
+
+        private Quorum(RequestId requestId, int view, RecoveryReply.Entry[] entries) {
+            this.requestId = requestId;
+            this.view = view;
+            this.entries = entries;
+        }
+
+        public RequestId getRequestId() {
+            return requestId;
+        }
+
+        /** The view in which the request is recovered. */
+        public int getView() {
+            return view;
+        }
+
+        public RecoveryReply.Entry getReplyWithStatus(RequestStatus status, boolean withWhitelist) {
+            return Arrays.stream(entries)
+                    .filter(entry -> entry.hasWhitelist() == withWhitelist && entry.getStatus() == status)
+                    .findFirst().orElse(null);
+        }
+
+        public Set<RecoveryReply.Entry> getRecoverySet() {
+            return Arrays.stream(entries).collect(Collectors.toSet());
+        }
     }
 
     @Override
     public String toString() {
         return "RecoveryInfo{" +
-                "request=" + request +
-                ", replies=" + Arrays.toString(replies) +
+                "size=" + requestIds.length +
                 ", classicQuorum=" + classicQuorum +
-                ", count=" + count +
-                ", done=" + done +
-                ", maxView=" + maxView +
+                ", count=" + Arrays.toString(count) +
+                ", remaining=" + remaining +
                 '}';
     }
 }
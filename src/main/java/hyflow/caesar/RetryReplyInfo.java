@@ -1,13 +1,13 @@
 package hyflow.caesar;
 
 import hyflow.caesar.messages.RetryReply;
+import hyflow.common.PackedRequestIds;
 import hyflow.common.ProcessDescriptor;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
 
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
@@ -18,7 +18,8 @@ public class RetryReplyInfo {
     private final Request request;
     private final RetryReply[] replies;
 
-    private final TreeSet<RequestId> predSet;
+    /* pred of each reply, merged once the quorum is in */
+    private final PackedRequestIds[] preds;
     private final int classicQuorum;
     private long position;
     private int count;
@@ -30,7 +31,7 @@ public class RetryReplyInfo {
 
         replies = new RetryReply[numReplicas];
 
-        predSet = new TreeSet<>();
+        preds = new PackedRequestIds[numReplicas];
         position = request.getPosition();
 
         count = 0;
@@ -48,14 +49,14 @@ public class RetryReplyInfo {
     }
 
     public Request updateAndGetRequest() {
-        request.setPred(predSet);
+        request.setPred(PackedRequestIds.union(preds));
         return request;
     }
 
     public void addReply(RetryReply msg, int sender) {
         replies[sender] = msg;
         count++;
-        predSet.addAll(msg.getPred());
+        preds[sender] = msg.getPred();
     }
 
     public boolean isClassicQuorum() {
@@ -0,0 +1,244 @@
+package hyflow.caesar;
+
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestInfo;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-size ring holding the per-request state of the {@link Proposer} and
+ * the {@link ConflictDetector}. A request id maps to slot
+ * {@code intId % capacity}; {@code intId / capacity} is the generation that
+ * tells the current owner of a slot apart from older and newer requests
+ * mapping to it. A slot is recycled once its request has been delivered and
+ * garbage collected everywhere, so memory stays constant however many
+ * requests flow through.
+ */
+final class SlotTable {
+
+    /**
+     * Returned by {@link #acquire} when the slot is still held by an older
+     * request that was not collected yet: the ring is full, and the caller
+     * has to try again once slots are released.
+     */
+    static final Slot FULL = new Slot();
+
+    private final Slot[] slots;
+    private final int capacity;
+    private final int numReplicas;
+
+    SlotTable(int capacity, int numReplicas) {
+        this.capacity = capacity;
+        this.numReplicas = numReplicas;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    private long getIntId(RequestId rId) {
+        return rId.getClientId() + ((long) rId.getSeqNumber() * numReplicas);
+    }
+
+    private long getIntId(long packedId) {
+        return RequestId.clientId(packedId) + ((long) RequestId.seqNumber(packedId) * numReplicas);
+    }
+
+    /**
+     * Returns the slot owned by the request, claiming it if the slot is free.
+     *
+     * @return the slot, null if the request was already collected, or
+     *         {@link #FULL} if the slot is still held by an older request
+     */
+    Slot acquire(RequestId rId) {
+        return acquire(getIntId(rId), rId, 0);
+    }
+
+    /** {@link #acquire(RequestId)} by packed id, see {@link RequestId#toLong()}. */
+    Slot acquire(long packedId) {
+        return acquire(getIntId(packedId), null, packedId);
+    }
+
+    private Slot acquire(long intId, RequestId rId, long packedId) {
+        long generation = intId / capacity;
+        Slot slot = slots[(int) (intId % capacity)];
+
+        synchronized (slot) {
+            if (slot.generation == generation) {
+                return slot.released ? null : slot;
+            }
+            if (slot.generation > generation) {
+                return null;
+            }
+            if (!slot.released) {
+                return FULL;
+            }
+            slot.claim(rId != null ? rId : RequestId.fromLong(packedId), generation);
+            return slot;
+        }
+    }
+
+    /**
+     * Returns the slot currently owned by the request, or null if the request
+     * has not been seen yet or was already collected.
+     */
+    Slot get(RequestId rId) {
+        long intId = getIntId(rId);
+        Slot slot = slots[(int) (intId % capacity)];
+
+        synchronized (slot) {
+            if (slot.generation != intId / capacity || slot.released) {
+                return null;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * True if the request was delivered and garbage collected and its slot
+     * released (and possibly reused since).
+     */
+    boolean isCollected(RequestId rId) {
+        long intId = getIntId(rId);
+        long generation = intId / capacity;
+        Slot slot = slots[(int) (intId % capacity)];
+
+        synchronized (slot) {
+            return slot.generation > generation || (slot.generation == generation && slot.released);
+        }
+    }
+
+    /**
+     * Per slot, the newest generation known to be collected: the one the
+     * slot was released at, or the one before its current owner. An image of
+     * what {@link #isCollected} answers.
+     */
+    long[] collectedGenerations() {
+        long[] generations = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            Slot slot = slots[i];
+            synchronized (slot) {
+                generations[i] = slot.released ? slot.generation : slot.generation - 1;
+            }
+        }
+        return generations;
+    }
+
+    /** {@link #isCollected} as of an image taken by {@link #collectedGenerations}. */
+    boolean isCollected(RequestId rId, long[] generations) {
+        long intId = getIntId(rId);
+        return intId / capacity <= generations[(int) (intId % capacity)];
+    }
+
+    /**
+     * Catches up with an image taken by {@link #collectedGenerations},
+     * possibly on another replica: the requests it shows as collected count
+     * as collected here too. A slot held by one of them is passed to
+     * {@code released}, under the slot lock, before it is freed.
+     */
+    void markCollected(long[] generations, Consumer<Slot> released) {
+        if (generations.length != capacity) {
+            throw new IllegalArgumentException("Image of " + generations.length + " slots, "
+                    + capacity + " configured (ProposerMapSize)");
+        }
+        for (int i = 0; i < capacity; i++) {
+            Slot slot = slots[i];
+            long generation = generations[i];
+            synchronized (slot) {
+                if (slot.generation > generation || (slot.generation == generation && slot.released)) {
+                    continue;
+                }
+                if (!slot.released) {
+                    released.accept(slot);
+                }
+                slot.generation = generation;
+                slot.released = true;
+                slot.clear();
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a collected request so that a later request mapping
+     * to it can claim it.
+     */
+    void release(RequestId rId) {
+        long intId = getIntId(rId);
+        Slot slot = slots[(int) (intId % capacity)];
+
+        synchronized (slot) {
+            if (slot.generation == intId / capacity) {
+                slot.released = true;
+                slot.clear();
+            }
+        }
+    }
+
+    void forEach(Consumer<Slot> action) {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.released) {
+                    continue;
+                }
+            }
+            action.accept(slot);
+        }
+    }
+
+    /**
+     * Per-request state. Fields are replaced with fresh objects on every
+     * claim, so code still holding references to a previous owner's state
+     * never observes the new owner.
+     */
+    static final class Slot {
+        private long generation = -1;
+        private boolean released = true;
+        private RequestId rId;
+
+        /* ConflictDetector state */
+        Request request;
+
+        /* Proposer state */
+        RequestInfo info;
+        volatile Request proposed;
+        volatile FastProposeReplyInfo fpReply;
+        volatile SlowProposeReplyInfo spReply;
+        volatile RetryReplyInfo retryReply;
+        final Object waitersLock = new Object();
+        /* proposals blocked by this request; guarded by waitersLock */
+        List<ProposeWait> waiters;
+        /* guarded by the DeliveryEngine while the slot is held */
+        DeliveryEngine.Node delivery;
+
+        private void claim(RequestId rId, long generation) {
+            this.rId = rId;
+            this.generation = generation;
+            this.released = false;
+
+            request = null;
+            info = new RequestInfo();
+            proposed = null;
+            fpReply = null;
+            spReply = null;
+            retryReply = null;
+            waiters = null;
+            delivery = null;
+        }
+
+        private void clear() {
+            request = null;
+            waiters = null;
+            delivery = null;
+            proposed = null;
+            fpReply = null;
+            spReply = null;
+            retryReply = null;
+        }
+
+        RequestId getId() {
+            return rId;
+        }
+    }
+}
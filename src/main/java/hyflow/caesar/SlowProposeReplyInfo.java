@@ -1,12 +1,12 @@
 package hyflow.caesar;
 
 import hyflow.caesar.messages.SlowProposeReply;
+import hyflow.common.LongHashSet;
+import hyflow.common.PackedRequestIds;
 import hyflow.common.ProcessDescriptor;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 
-import java.util.SortedSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Created by balajiarun on 3/14/16.
@@ -18,7 +18,7 @@ public class SlowProposeReplyInfo {
 
     private final int classicQuorum;
 
-    private final SortedSet<RequestId> predSet;
+    private final LongHashSet predSet;
     private long position;
     private boolean nack;
 
@@ -30,7 +30,7 @@ public class SlowProposeReplyInfo {
 
         replies = new SlowProposeReply[numReplicas];
 
-        predSet = new ConcurrentSkipListSet<>();
+        predSet = new LongHashSet();
         position = request.getPosition();
         nack = false;
 
@@ -41,7 +41,7 @@ public class SlowProposeReplyInfo {
     }
 
     public Request updateAndGetRequest() {
-        request.setPred(predSet);
+        request.setPred(PackedRequestIds.of(predSet));
         request.setPosition(position);
         return request;
     }
@@ -55,9 +55,12 @@ public class SlowProposeReplyInfo {
     }
 
     public void addReply(SlowProposeReply msg, int sender) {
+        if (replies[sender] != null) {
+            return;
+        }
         replies[sender] = msg;
         count++;
-        predSet.addAll(msg.getPred());
+        PackedRequestIds.addAll(msg.getPred(), predSet);
         if (!nack)
             nack = (msg.getStatus() == SlowProposeReply.Status.NACK);
         position = msg.position() > position ? msg.position() : position;
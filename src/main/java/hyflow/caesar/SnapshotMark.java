@@ -0,0 +1,87 @@
+package hyflow.caesar;
+
+import hyflow.common.LongHashSet;
+import hyflow.common.Request;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The requests whose effects a snapshot of the service contains: for every
+ * object, the position up to which all requests were delivered, plus the
+ * few delivered requests above those watermarks. It also carries the
+ * collected slot generations, see {@link SlotTable#collectedGenerations},
+ * since decisions for collected requests may be gone from the log and the
+ * other replicas while later decisions still name them as preds.
+ */
+public final class SnapshotMark {
+
+    private final long[] marks;
+    /* packed ids, see RequestId#toLong() */
+    private final LongHashSet above;
+    private final long[] collected;
+
+    SnapshotMark(long[] marks, LongHashSet above, long[] collected) {
+        this.marks = marks;
+        this.above = above;
+        this.collected = collected;
+    }
+
+    /** True if the request was delivered before the snapshot was taken. */
+    public boolean covers(Request request) {
+        return isBehindMarks(request) || above.contains(request.getId().toLong());
+    }
+
+    /** True if the request is at or below the watermarks of all its objects. */
+    boolean isBehindMarks(Request request) {
+        long position = request.getPosition();
+        for (int oId : request.getObjectIds()) {
+            if (position > marks[oId]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long mark(int oId) {
+        return marks[oId];
+    }
+
+    long[] collectedGenerations() {
+        return collected;
+    }
+
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(marks.length);
+        for (long mark : marks) {
+            output.writeLong(mark);
+        }
+        long[] ids = above.toArray();
+        output.writeInt(ids.length);
+        for (long id : ids) {
+            output.writeLong(id);
+        }
+        output.writeInt(collected.length);
+        for (long generation : collected) {
+            output.writeLong(generation);
+        }
+    }
+
+    public static SnapshotMark read(DataInputStream input) throws IOException {
+        long[] marks = new long[input.readInt()];
+        for (int i = 0; i < marks.length; i++) {
+            marks[i] = input.readLong();
+        }
+        int count = input.readInt();
+        LongHashSet above = new LongHashSet(count);
+        for (int i = 0; i < count; i++) {
+            above.add(input.readLong());
+        }
+        long[] collected = new long[input.readInt()];
+        for (int i = 0; i < collected.length; i++) {
+            collected[i] = input.readLong();
+        }
+        return new SnapshotMark(marks, above, collected);
+    }
+}
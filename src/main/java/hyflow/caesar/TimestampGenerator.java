@@ -1,31 +1,75 @@
 package hyflow.caesar;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
 /**
  * Created by balajiarun on 3/11/16.
+ * <p>
+ * Hands out the positions proposed by this replica: increasing values equal
+ * to the replica id modulo the number of replicas, so no two replicas ever
+ * propose the same one. Lock free; the next value is advanced with CAS.
+ * <p>
+ * In hybrid mode the next value is also kept at or above the wall clock in
+ * microseconds, so replicas that propose at the same time pick close
+ * positions even when one of them has proposed less, which makes fewer
+ * proposals land behind requests that were already accepted.
  */
 public class TimestampGenerator {
 
-    private long timestamp;
-    private int localId;
-    private int numReplicas;
+    /* next value to hand out */
+    private final AtomicLong timestamp;
+    private final int localId;
+    private final int numReplicas;
+    /* wall clock in microseconds, or null outside hybrid mode */
+    private final LongSupplier clock;
 
     public TimestampGenerator(int localId, int numReplicas) {
+        this(localId, numReplicas, null);
+    }
+
+    /** @param clock wall clock in microseconds for hybrid mode, or null */
+    public TimestampGenerator(int localId, int numReplicas, LongSupplier clock) {
         this.localId = localId;
         this.numReplicas = numReplicas;
-        timestamp = localId;
+        this.clock = clock;
+        timestamp = new AtomicLong(localId);
+    }
+
+    /** Wall clock in microseconds, for hybrid mode. */
+    public static long wallClockMicros() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    public long newTimestamp() {
+        if (clock == null) {
+            return timestamp.getAndAdd(numReplicas);
+        }
+        long wall = alignUp(clock.getAsLong());
+        while (true) {
+            long current = timestamp.get();
+            long next = Math.max(current, wall);
+            if (timestamp.compareAndSet(current, next + numReplicas)) {
+                return next;
+            }
+        }
     }
 
-    public synchronized long newTimestamp() {
-        long retVal = timestamp;
-        timestamp += numReplicas;
-        return retVal;
+    public void setTimestamp(long observed) {
+        long next = observed + numReplicas + localId - observed % numReplicas;
+        while (true) {
+            long current = timestamp.get();
+            if (observed <= current || timestamp.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        assert timestamp.get() % numReplicas == localId;
     }
 
-    public synchronized void setTimestamp(long observed) {
-        if(observed <= timestamp)
-            return;
-        timestamp = observed + numReplicas + localId - observed % numReplicas;
-        assert timestamp % numReplicas == localId;
+    /** Smallest value of this replica at or above {@code value}. */
+    private long alignUp(long value) {
+        long aligned = value - value % numReplicas + localId;
+        return aligned < value ? aligned + numReplicas : aligned;
     }
 
 }
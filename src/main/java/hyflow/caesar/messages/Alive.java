@@ -15,6 +15,10 @@ public class Alive extends Message {
         super(input);
     }
 
+    public Alive(ByteBuffer bb) {
+        super(bb);
+    }
+
     public MessageType getType() {
         return MessageType.Alive;
     }
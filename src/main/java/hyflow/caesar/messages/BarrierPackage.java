@@ -31,6 +31,16 @@ public class BarrierPackage extends Message {
         this.barrierName = new String(nameBytes);
     }
 
+    public BarrierPackage(ByteBuffer bb) {
+        super(bb);
+        this.n = bb.getInt();
+
+        byte[] nameBytes = new byte[bb.getInt()];
+        bb.get(nameBytes);
+
+        this.barrierName = new String(nameBytes);
+    }
+
     public int byteSize() {
         return super.byteSize() + 4 + 4 + barrierName.getBytes().length;
     }
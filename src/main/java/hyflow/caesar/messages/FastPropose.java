@@ -1,5 +1,6 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
@@ -8,7 +9,6 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Set;
-import java.util.TreeSet;
 
 public final class FastPropose extends Message {
     private static final long serialVersionUID = 1L;
@@ -56,11 +56,29 @@ public final class FastPropose extends Message {
 
         valid = input.readUnsignedByte() != 0;
         if (valid) {
-            int wLength = input.readInt();
+            whiteList = PackedRequestIds.read(input);
+        } else {
+            whiteList = null;
+        }
+
+        request = new Request(requestId, objectIds, payload, position, null, RequestStatus.FastPending, view);
+    }
+
+    public FastPropose(ByteBuffer bb) {
+        super(bb);
+        requestId = new RequestId(bb);
+
+        objectIds = new int[bb.getInt()];
+        bb.asIntBuffer().get(objectIds);
+        bb.position(bb.position() + 4 * objectIds.length);
 
-            whiteList = new TreeSet<>();
-            while (--wLength >= 0)
-                whiteList.add(new RequestId(input));
+        position = bb.getLong();
+        payload = new byte[bb.getInt()];
+        bb.get(payload);
+
+        valid = bb.get() != 0;
+        if (valid) {
+            whiteList = PackedRequestIds.read(bb);
         } else {
             whiteList = null;
         }
@@ -83,7 +101,7 @@ public final class FastPropose extends Message {
     public int byteSize() {
         if (valid)
             return super.byteSize() + requestId.byteSize() + 4 + (4 * objectIds.length)
-                    + 8 + 4 + payload.length + 1 + 4 + (requestId.byteSize() * whiteList.size());
+                    + 8 + 4 + payload.length + 1 + PackedRequestIds.byteSize(whiteList.size());
         else
             return super.byteSize() + requestId.byteSize() + 4 +
                     (4 * objectIds.length) + 8 + 4 + payload.length + 1;
@@ -103,10 +121,7 @@ public final class FastPropose extends Message {
 
         if (valid) {
             bb.put((byte) 1);
-            bb.putInt(whiteList.size());
-            for (RequestId rId : whiteList) {
-                rId.writeTo(bb);
-            }
+            PackedRequestIds.write(whiteList, bb);
         } else {
             bb.put((byte) 0);
         }
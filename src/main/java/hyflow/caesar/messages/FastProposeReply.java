@@ -1,13 +1,11 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.RequestId;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Collection;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Created by balajiarun on 3/12/16.
@@ -19,17 +17,13 @@ public final class FastProposeReply extends Message {
     private final long position;
     private final int waitTime;
 
-    private int predSize;
+    private final PackedRequestIds pred;
 
-    private Collection<RequestId> pred;
-    private byte[] bytePred;
-
-    public FastProposeReply(int view, RequestId rId, Status status, byte[] pred, int predSize, long position, int waitTime) {
+    public FastProposeReply(int view, RequestId rId, Status status, PackedRequestIds pred, long position, int waitTime) {
         super(view);
         this.requestId = rId;
         this.status = status;
-        this.bytePred = pred;
-        this.predSize = predSize;
+        this.pred = pred;
         this.position = position;
         this.waitTime = waitTime;
     }
@@ -39,20 +33,25 @@ public final class FastProposeReply extends Message {
         requestId = new RequestId(input);
         status = Status.values()[input.readUnsignedByte()];
 
-        int length = input.readInt();
-        pred = new TreeSet<>();
-        while (--length >= 0)
-            pred.add(new RequestId(input));
-
+        pred = PackedRequestIds.read(input);
         position = input.readLong();
         waitTime = input.readInt();
     }
 
+    public FastProposeReply(ByteBuffer bb) {
+        super(bb);
+        requestId = new RequestId(bb);
+        status = Status.values()[bb.get() & 0xFF];
+        pred = PackedRequestIds.read(bb);
+        position = bb.getLong();
+        waitTime = bb.getInt();
+    }
+
     public RequestId getRequestId() {
         return requestId;
     }
 
-    public Collection<RequestId> getPred() {
+    public PackedRequestIds getPred() {
         return pred;
     }
 
@@ -74,15 +73,14 @@ public final class FastProposeReply extends Message {
         requestId.writeTo(bb);
         bb.put((byte) status.ordinal());
 
-        bb.putInt(predSize);
-        bb.put(bytePred);
+        pred.writeTo(bb);
         bb.putLong(position);
         bb.putInt(waitTime);
     }
 
     @Override
     public int byteSize() {
-        return super.byteSize() + requestId.byteSize() + 1 + 4 + bytePred.length + 8 + 4;
+        return super.byteSize() + requestId.byteSize() + 1 + pred.byteSize() + 8 + 4;
     }
 
     @Override
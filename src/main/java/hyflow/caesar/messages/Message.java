@@ -24,6 +24,11 @@ public abstract class Message implements Serializable {
         sentTime = input.readLong();
     }
 
+    protected Message(ByteBuffer bb) {
+        view = bb.getInt();
+        sentTime = bb.getLong();
+    }
+
     public int getView() {
         return view;
     }
@@ -42,10 +47,7 @@ public abstract class Message implements Serializable {
 
     public final byte[] toByteArray() {
         ByteBuffer bb = ByteBuffer.allocate(byteSize());
-        bb.put((byte) getType().ordinal());
-        bb.putInt(view);
-        bb.putLong(sentTime);
-        write(bb);
+        writeTo(bb);
 
         assert bb.remaining() == 0 : "Wrong sizes. Limit=" + bb.limit() + ",capacity=" +
                 bb.capacity() + ",position=" + bb.position();
@@ -53,6 +55,17 @@ public abstract class Message implements Serializable {
         return bb.array();
     }
 
+    /**
+     * Serializes the message into {@code bb}, which must have at least
+     * {@link #byteSize()} bytes remaining. Same format as {@link #toByteArray()}.
+     */
+    public final void writeTo(ByteBuffer bb) {
+        bb.put((byte) getType().ordinal());
+        bb.putInt(view);
+        bb.putLong(sentTime);
+        write(bb);
+    }
+
     public abstract MessageType getType();
 
     protected abstract void write(ByteBuffer bb);
@@ -3,6 +3,7 @@ package hyflow.caesar.messages;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * This class is responsible for serializing and deserializing messages to /
@@ -42,6 +43,76 @@ public final class MessageFactory {
         return message;
     }
     
+    /**
+     * Creates a <code>Message</code> from the remaining bytes of a buffer
+     * holding exactly one message, as written by Message::writeTo(). Fields
+     * are read straight from the buffer; predecessor lists are not copied
+     * (see {@link hyflow.common.PackedRequestIds}), so the buffer must not be
+     * reused once the message has been handed out.
+     *
+     * @param bb - the buffer with serialized message inside
+     * @return correct object from one of message subclasses
+     *
+     * @throws IllegalArgumentException if a correct message could not be read
+     *             from the buffer
+     */
+    public static Message create(ByteBuffer bb) {
+        MessageType type = MessageType.values()[bb.get() & 0xFF];
+        assert type != MessageType.ANY && type != MessageType.SENT : "Message type " + type +
+                " cannot be serialized";
+
+        Message message;
+        switch (type) {
+            case FastPropose:
+                message = new FastPropose(bb);
+                break;
+            case FastProposeReply:
+                message = new FastProposeReply(bb);
+                break;
+
+            case SlowPropose:
+                message = new SlowPropose(bb);
+                break;
+            case SlowProposeReply:
+                message = new SlowProposeReply(bb);
+                break;
+
+            case Retry:
+                message = new Retry(bb);
+                break;
+            case RetryReply:
+                message = new RetryReply(bb);
+                break;
+
+            case Stable:
+                message = new Stable(bb);
+                break;
+
+            case Recovery:
+                message = new Recovery(bb);
+                break;
+            case RecoveryReply:
+                message = new RecoveryReply(bb);
+                break;
+
+            case Barrier:
+                message = new BarrierPackage(bb);
+                break;
+
+            case Alive:
+                message = new Alive(bb);
+                break;
+
+            case Watermark:
+                message = new Watermark(bb);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + type);
+        }
+        return message;
+    }
+
     /**
      * Creates new message of specified type from given stream.
      * 
@@ -98,6 +169,10 @@ public final class MessageFactory {
                 message = new Alive(input);
                 break;
 
+            case Watermark:
+                message = new Watermark(input);
+                break;
+
             default:
                 throw new IllegalArgumentException("Unknown message type: " + type);
         }
@@ -22,6 +22,8 @@ public enum MessageType {
 
     Barrier,
 
+    Watermark,
+
     // Special markers used by the network implementation to raise callbacks
     // There are no classes with this messages types
     ANY, // any message
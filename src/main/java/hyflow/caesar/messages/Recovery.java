@@ -8,23 +8,62 @@ import java.nio.ByteBuffer;
 
 /**
  * Created by balaji on 4/21/16.
+ * <p>
+ * Asks for the state of a batch of requests of a suspected node, each in
+ * its own new view. Replies are matched to the batch by its id.
  */
 public class Recovery extends Message {
 
-    private final RequestId requestId;
+    private final int batchId;
+    /* packed request ids, see RequestId#toLong() */
+    private final long[] requestIds;
+    private final int[] views;
 
-    public Recovery(int view, RequestId rId) {
-        super(view);
-        this.requestId = rId;
+    public Recovery(int batchId, long[] requestIds, int[] views) {
+        super(0);
+        this.batchId = batchId;
+        this.requestIds = requestIds;
+        this.views = views;
     }
 
     public Recovery(DataInputStream input) throws IOException {
         super(input);
-        requestId = new RequestId(input);
+        batchId = input.readInt();
+        int count = input.readInt();
+        requestIds = new long[count];
+        views = new int[count];
+        for (int i = 0; i < count; i++) {
+            requestIds[i] = RequestId.pack(input.readShort(), input.readInt());
+            views[i] = input.readInt();
+        }
     }
 
-    public RequestId getRequestId() {
-        return requestId;
+    public Recovery(ByteBuffer bb) {
+        super(bb);
+        batchId = bb.getInt();
+        int count = bb.getInt();
+        requestIds = new long[count];
+        views = new int[count];
+        for (int i = 0; i < count; i++) {
+            requestIds[i] = RequestId.pack(bb.getShort(), bb.getInt());
+            views[i] = bb.getInt();
+        }
+    }
+
+    public int getBatchId() {
+        return batchId;
+    }
+
+    public int size() {
+        return requestIds.length;
+    }
+
+    public long getRequestId(int index) {
+        return requestIds[index];
+    }
+
+    public int getView(int index) {
+        return views[index];
     }
 
     @Override
@@ -34,18 +73,25 @@ public class Recovery extends Message {
 
     @Override
     public int byteSize() {
-        return super.byteSize() + requestId.byteSize();
+        return super.byteSize() + 4 + 4 + requestIds.length * (2 + 4 + 4);
     }
 
     @Override
     protected void write(ByteBuffer bb) {
-        requestId.writeTo(bb);
+        bb.putInt(batchId);
+        bb.putInt(requestIds.length);
+        for (int i = 0; i < requestIds.length; i++) {
+            bb.putShort(RequestId.clientId(requestIds[i]));
+            bb.putInt(RequestId.seqNumber(requestIds[i]));
+            bb.putInt(views[i]);
+        }
     }
 
     @Override
     public String toString() {
         return "Recovery{" +
-                "requestId=" + requestId +
+                "batchId=" + batchId +
+                ", size=" + requestIds.length +
                 '}';
     }
 }
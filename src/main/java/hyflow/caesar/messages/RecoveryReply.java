@@ -1,5 +1,6 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
@@ -8,81 +9,48 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Created by balaji on 4/21/16.
+ * <p>
+ * Answers a {@link Recovery} with one entry per requested id, in the same
+ * order.
  */
 public class RecoveryReply extends Message {
 
-    private final RequestId requestId;
-    private final boolean valid;
-    private int requestView;
-    private long position;
-    private Collection<RequestId> pred;
-    private RequestStatus status;
-
-    private boolean hasWhitelist;
-
-    public RecoveryReply(int view, RequestId rId, Request request) {
-        super(view);
-        this.requestId = rId;
-        if (request != null) {
-            this.requestView = request.getView();
-            this.position = request.getPosition();
-            this.status = request.getStatus();
-            this.pred = request.getPred();
-            this.hasWhitelist = request.hasWhitelist();
-            this.valid = true;
-        } else {
-            this.valid = false;
-        }
+    private final int batchId;
+    private final Entry[] entries;
+
+    public RecoveryReply(int batchId, Entry[] entries) {
+        super(0);
+        this.batchId = batchId;
+        this.entries = entries;
     }
 
     RecoveryReply(DataInputStream input) throws IOException {
         super(input);
-        requestId = new RequestId(input);
-        valid = input.readUnsignedByte() != 0;
-        if (valid) {
-            requestView = input.readInt();
-            position = input.readLong();
-            status = RequestStatus.values()[input.readUnsignedByte()];
-
-            int length = input.readInt();
-            pred = new ConcurrentSkipListSet<>();
-            while (--length >= 0)
-                pred.add(new RequestId(input));
-
-            hasWhitelist = input.readUnsignedByte() != 0;
+        batchId = input.readInt();
+        entries = new Entry[input.readInt()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(input);
         }
     }
 
-    public RequestId getRequestId() {
-        return requestId;
-    }
-
-    public int getRequestView() {
-        return requestView;
-    }
-
-    public long getPosition() {
-        return position;
-    }
-
-    public Collection<RequestId> getPred() {
-        return pred;
-    }
-
-    public RequestStatus getStatus() {
-        return status;
+    RecoveryReply(ByteBuffer bb) {
+        super(bb);
+        batchId = bb.getInt();
+        entries = new Entry[bb.getInt()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry(bb);
+        }
     }
 
-    public boolean isValid() {
-        return valid;
+    public int getBatchId() {
+        return batchId;
     }
 
-    public boolean hasWhitelist() {
-        return hasWhitelist;
+    public Entry[] getEntries() {
+        return entries;
     }
 
     @Override
@@ -92,30 +60,19 @@ public class RecoveryReply extends Message {
 
     @Override
     public int byteSize() {
-        if (!valid)
-            return super.byteSize() + requestId.byteSize() + 1;
-        else
-            return super.byteSize() + requestId.byteSize() + 1 + 4 + 8 + 1 + 4
-                    + pred.size() * requestId.byteSize() + 1;
+        int size = super.byteSize() + 4 + 4;
+        for (Entry entry : entries) {
+            size += entry.byteSize();
+        }
+        return size;
     }
 
     @Override
     protected void write(ByteBuffer bb) {
-        requestId.writeTo(bb);
-        if (valid) {
-            bb.put((byte) 1);
-            bb.putInt(requestView);
-            bb.putLong(position);
-            bb.put((byte) status.ordinal());
-
-            bb.putInt(pred.size());
-            for (RequestId rId : pred) {
-                rId.writeTo(bb);
-            }
-
-            bb.put((byte) (hasWhitelist ? 1 : 0));
-        } else {
-            bb.put((byte) 0);
+        bb.putInt(batchId);
+        bb.putInt(entries.length);
+        for (Entry entry : entries) {
+            entry.write(bb);
         }
     }
 
@@ -123,13 +80,122 @@ public class RecoveryReply extends Message {
     public String toString() {
         return "RecoveryReply{" +
                 super.toString() +
-                "requestId=" + requestId +
-                ", valid=" + valid +
-                ", requestView=" + requestView +
-                ", position=" + position +
-                ", pred=" + pred +
-                ", status=" + status +
-                ", hasWhitelist=" + hasWhitelist +
+                "batchId=" + batchId +
+                ", size=" + entries.length +
                 '}';
     }
+
+    /** What a replica knows about one request. */
+    public static final class Entry {
+        /* the replica is in a higher view for the request, or has collected it */
+        public static final Entry SKIPPED = new Entry();
+
+        private static final byte STATE_INVALID = 0;
+        private static final byte STATE_VALID = 1;
+        private static final byte STATE_SKIPPED = 2;
+
+        private final byte state;
+        private int requestView;
+        private long position;
+        private Collection<RequestId> pred;
+        private RequestStatus status;
+        private boolean hasWhitelist;
+
+        private Entry() {
+            this.state = STATE_SKIPPED;
+        }
+
+        public Entry(Request request) {
+            if (request != null) {
+                this.requestView = request.getView();
+                this.position = request.getPosition();
+                this.status = request.getStatus();
+                this.pred = request.getPred();
+                this.hasWhitelist = request.hasWhitelist();
+                this.state = STATE_VALID;
+            } else {
+                this.state = STATE_INVALID;
+            }
+        }
+
+        Entry(DataInputStream input) throws IOException {
+            state = input.readByte();
+            if (state == STATE_VALID) {
+                requestView = input.readInt();
+                position = input.readLong();
+                status = RequestStatus.values()[input.readUnsignedByte()];
+                pred = PackedRequestIds.read(input);
+                hasWhitelist = input.readUnsignedByte() != 0;
+            }
+        }
+
+        Entry(ByteBuffer bb) {
+            state = bb.get();
+            if (state == STATE_VALID) {
+                requestView = bb.getInt();
+                position = bb.getLong();
+                status = RequestStatus.values()[bb.get() & 0xFF];
+                pred = PackedRequestIds.read(bb);
+                hasWhitelist = bb.get() != 0;
+            }
+        }
+
+        public int getRequestView() {
+            return requestView;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public Collection<RequestId> getPred() {
+            return pred;
+        }
+
+        public RequestStatus getStatus() {
+            return status;
+        }
+
+        public boolean isValid() {
+            return state == STATE_VALID;
+        }
+
+        public boolean isSkipped() {
+            return state == STATE_SKIPPED;
+        }
+
+        public boolean hasWhitelist() {
+            return hasWhitelist;
+        }
+
+        private int byteSize() {
+            if (state != STATE_VALID)
+                return 1;
+            else
+                return 1 + 4 + 8 + 1 + PackedRequestIds.byteSize(pred.size()) + 1;
+        }
+
+        private void write(ByteBuffer bb) {
+            bb.put(state);
+            if (state == STATE_VALID) {
+                bb.putInt(requestView);
+                bb.putLong(position);
+                bb.put((byte) status.ordinal());
+                PackedRequestIds.write(pred, bb);
+                bb.put((byte) (hasWhitelist ? 1 : 0));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "state=" + state +
+                    ", requestView=" + requestView +
+                    ", position=" + position +
+                    ", pred=" + pred +
+                    ", status=" + status +
+                    ", hasWhitelist=" + hasWhitelist +
+                    '}';
+        }
+    }
 }
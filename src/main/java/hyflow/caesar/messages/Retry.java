@@ -1,5 +1,6 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
@@ -9,8 +10,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 public final class Retry extends Message {
     private static final long serialVersionUID = 1L;
@@ -42,10 +41,7 @@ public final class Retry extends Message {
             this.objectIds[i] = input.readInt();
         }
 
-        int predLen = input.readInt();
-        pred = new TreeSet<>();
-        while (--predLen >= 0)
-            pred.add(new RequestId(input));
+        pred = PackedRequestIds.read(input);
 
         this.position = input.readLong();
         this.payload = new byte[input.readInt()];
@@ -54,6 +50,23 @@ public final class Retry extends Message {
         request = new Request(requestId, objectIds, payload, position, pred, RequestStatus.Accepted, view);
     }
 
+    public Retry(ByteBuffer bb) {
+        super(bb);
+        this.requestId = new RequestId(bb);
+
+        this.objectIds = new int[bb.getInt()];
+        bb.asIntBuffer().get(objectIds);
+        bb.position(bb.position() + 4 * objectIds.length);
+
+        pred = PackedRequestIds.read(bb);
+
+        this.position = bb.getLong();
+        this.payload = new byte[bb.getInt()];
+        bb.get(payload);
+
+        request = new Request(requestId, objectIds, payload, position, pred, RequestStatus.Accepted, view);
+    }
+
     public MessageType getType() {
         return MessageType.Retry;
     }
@@ -65,7 +78,7 @@ public final class Retry extends Message {
     public int byteSize() {
         return super.byteSize() + requestId.byteSize() +
                 4 + (4 * objectIds.length) +
-                4 + (pred.size() * requestId.byteSize()) +
+                PackedRequestIds.byteSize(pred.size()) +
                 8 + 4 + payload.length;
     }
 
@@ -77,10 +90,7 @@ public final class Retry extends Message {
         for(int oId : oIds)
             bb.putInt(oId);
 
-        bb.putInt(pred.size());
-        for (RequestId rId : pred) {
-            rId.writeTo(bb);
-        }
+        PackedRequestIds.write(pred, bb);
 
         bb.putLong(request.getPosition());
         bb.putInt(request.getPayload().length);
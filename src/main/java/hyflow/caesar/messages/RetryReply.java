@@ -1,13 +1,11 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.RequestId;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Collection;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Created by balajiarun on 3/12/16.
@@ -16,32 +14,32 @@ public final class RetryReply extends Message {
 
     private final RequestId requestId;
 
-    private Collection<RequestId> pred;
-    private byte[] bytePred;
-    private int predSize;
+    private final PackedRequestIds pred;
 
-    public RetryReply(int view, RequestId rId, byte[] pred, int predSize) {
+    public RetryReply(int view, RequestId rId, PackedRequestIds pred) {
         super(view);
         this.requestId = rId;
-        this.bytePred = pred;
-        this.predSize = predSize;
+        this.pred = pred;
     }
 
     public RetryReply(DataInputStream input) throws IOException {
         super(input);
         requestId = new RequestId(input);
 
-        int length = input.readInt();
-        pred = new TreeSet<>();
-        while (--length >= 0)
-            pred.add(new RequestId(input));
+        pred = PackedRequestIds.read(input);
+    }
+
+    public RetryReply(ByteBuffer bb) {
+        super(bb);
+        requestId = new RequestId(bb);
+        pred = PackedRequestIds.read(bb);
     }
 
     public RequestId getRequestId() {
         return requestId;
     }
 
-    public Collection<RequestId> getPred() {
+    public PackedRequestIds getPred() {
         return pred;
     }
 
@@ -53,14 +51,12 @@ public final class RetryReply extends Message {
     @Override
     protected void write(ByteBuffer bb) {
         requestId.writeTo(bb);
-
-        bb.putInt(predSize);
-        bb.put(bytePred);
+        pred.writeTo(bb);
     }
 
     @Override
     public int byteSize() {
-        return super.byteSize() + requestId.byteSize() + 4 + bytePred.length;
+        return super.byteSize() + requestId.byteSize() + pred.byteSize();
     }
 
     @Override
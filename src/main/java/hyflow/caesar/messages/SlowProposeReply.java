@@ -1,12 +1,12 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.RequestId;
 
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Created by balajiarun on 3/12/16.
@@ -31,14 +31,18 @@ public final class SlowProposeReply extends Message {
         requestId = new RequestId(input);
         status = Status.values()[input.readUnsignedByte()];
 
-        int length = input.readInt();
-        pred = new ConcurrentSkipListSet<>();
-        while (--length >= 0)
-            pred.add(new RequestId(input));
-
+        pred = PackedRequestIds.read(input);
         position = input.readLong();
     }
 
+    public SlowProposeReply(ByteBuffer bb) {
+        super(bb);
+        requestId = new RequestId(bb);
+        status = Status.values()[bb.get() & 0xFF];
+        pred = PackedRequestIds.read(bb);
+        position = bb.getLong();
+    }
+
     public RequestId getRequestId() {
         return requestId;
     }
@@ -65,16 +69,13 @@ public final class SlowProposeReply extends Message {
         requestId.writeTo(bb);
         bb.put((byte) status.ordinal());
 
-        bb.putInt(pred.size());
-        for (RequestId rId : pred) {
-            rId.writeTo(bb);
-        }
+        PackedRequestIds.write(pred, bb);
         bb.putLong(position);
     }
 
     @Override
     public int byteSize() {
-        return super.byteSize() + requestId.byteSize() + 1 + 4 + (pred.size() * requestId.byteSize()) + 8;
+        return super.byteSize() + requestId.byteSize() + 1 + PackedRequestIds.byteSize(pred.size()) + 8;
     }
 
     @Override
@@ -1,5 +1,6 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.Request;
 import hyflow.common.RequestId;
 import hyflow.common.RequestStatus;
@@ -10,8 +11,6 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 public final class Stable extends Message {
     private static final long serialVersionUID = 1L;
@@ -43,10 +42,7 @@ public final class Stable extends Message {
             objectIds[i] = input.readInt();
         }
 
-        int pLen = input.readInt();
-        pred = new TreeSet<>();
-        while (--pLen >= 0)
-            pred.add(new RequestId(input));
+        pred = PackedRequestIds.read(input);
 
         position = input.readLong();
         payload = new byte[input.readInt()];
@@ -55,6 +51,23 @@ public final class Stable extends Message {
         request = new Request(requestId, objectIds, payload, position, pred, RequestStatus.Stable, view);
     }
 
+    public Stable(ByteBuffer bb) {
+        super(bb);
+        requestId = new RequestId(bb);
+
+        objectIds = new int[bb.getInt()];
+        bb.asIntBuffer().get(objectIds);
+        bb.position(bb.position() + 4 * objectIds.length);
+
+        pred = PackedRequestIds.read(bb);
+
+        position = bb.getLong();
+        payload = new byte[bb.getInt()];
+        bb.get(payload);
+
+        request = new Request(requestId, objectIds, payload, position, pred, RequestStatus.Stable, view);
+    }
+
     public MessageType getType() {
         return MessageType.Stable;
     }
@@ -66,7 +79,7 @@ public final class Stable extends Message {
     public int byteSize() {
         return super.byteSize() + requestId.byteSize() +
                 4 + (4 * objectIds.length) +
-                4 + (requestId.byteSize() * pred.size()) +
+                PackedRequestIds.byteSize(pred.size()) +
                 8 + 4 + payload.length;
     }
 
@@ -89,10 +102,7 @@ public final class Stable extends Message {
         for(int oId : objectIds)
             bb.putInt(oId);
 
-        bb.putInt(pred.size());
-        for (RequestId rId : pred) {
-            rId.writeTo(bb);
-        }
+        PackedRequestIds.write(pred, bb);
 
         bb.putLong(position);
         bb.putInt(payload.length);
@@ -0,0 +1,83 @@
+package hyflow.caesar.messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Periodically broadcast by every replica with the objects whose delivered
+ * watermark advanced since the last broadcast. For each object it carries the
+ * highest position up to which the sender has delivered every request it knows
+ * about on that object.
+ */
+public final class Watermark extends Message {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] objectIds;
+    private final long[] positions;
+
+    public Watermark(int view, int[] objectIds, long[] positions) {
+        super(view);
+        assert objectIds.length == positions.length : "Watermark arrays differ in length";
+        this.objectIds = objectIds;
+        this.positions = positions;
+    }
+
+    public Watermark(DataInputStream input) throws IOException {
+        super(input);
+        int length = input.readInt();
+        objectIds = new int[length];
+        positions = new long[length];
+        for (int i = 0; i < length; i++) {
+            objectIds[i] = input.readInt();
+            positions[i] = input.readLong();
+        }
+    }
+
+    public Watermark(ByteBuffer bb) {
+        super(bb);
+        int length = bb.getInt();
+        objectIds = new int[length];
+        positions = new long[length];
+        for (int i = 0; i < length; i++) {
+            objectIds[i] = bb.getInt();
+            positions[i] = bb.getLong();
+        }
+    }
+
+    public int[] getObjectIds() {
+        return objectIds;
+    }
+
+    public long[] getPositions() {
+        return positions;
+    }
+
+    @Override
+    public MessageType getType() {
+        return MessageType.Watermark;
+    }
+
+    @Override
+    public int byteSize() {
+        return super.byteSize() + 4 + objectIds.length * (4 + 8);
+    }
+
+    @Override
+    protected void write(ByteBuffer bb) {
+        bb.putInt(objectIds.length);
+        for (int i = 0; i < objectIds.length; i++) {
+            bb.putInt(objectIds[i]);
+            bb.putLong(positions[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Watermark{" +
+                "objectIds=" + Arrays.toString(objectIds) +
+                ", positions=" + Arrays.toString(positions) +
+                '}';
+    }
+}
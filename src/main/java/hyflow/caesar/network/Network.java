@@ -4,12 +4,11 @@ import hyflow.caesar.messages.Message;
 import hyflow.caesar.messages.MessageFactory;
 import hyflow.caesar.messages.MessageType;
 import hyflow.common.ProcessDescriptor;
+import hyflow.common.nio.BufferPool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -29,6 +28,9 @@ public abstract class Network {
     protected static final Map<MessageType, CopyOnWriteArrayList<MessageHandler>> msgListeners;
     private final static Logger logger = LogManager.getLogger(Network.class);
 
+    /** Direct buffers for serializing outgoing messages, shared by all networks. */
+    protected static final BufferPool bufferPool = new BufferPool();
+
     static {
         msgListeners = Collections.synchronizedMap(
                 new EnumMap<MessageType, CopyOnWriteArrayList<MessageHandler>>(MessageType.class));
@@ -108,11 +110,7 @@ public abstract class Network {
     public void sendMessage(Message message, int destination) {
         byte[] bytes = message.toByteArray();
         if (destination == localId) {
-            try {
-                fireReceiveMessage(MessageFactory.create(new DataInputStream(new ByteArrayInputStream(bytes))), p.localId);
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+            fireReceiveMessage(MessageFactory.create(ByteBuffer.wrap(bytes)), p.localId);
         } else {
             send(bytes, destination);
         }
@@ -120,6 +118,16 @@ public abstract class Network {
 
     // // // Protected part - for implementing the subclasses // // //
 
+    /**
+     * Decodes the message in the remaining bytes of {@code bb} from a copy, for
+     * buffers that go back to the pool while the message is still in use.
+     */
+    protected static Message decodeCopy(ByteBuffer bb) {
+        ByteBuffer copy = ByteBuffer.allocate(bb.remaining());
+        copy.put(bb).flip();
+        return MessageFactory.create(copy);
+    }
+
     /**
      * Sends the message to all processes.
      *
@@ -0,0 +1,374 @@
+package hyflow.caesar.network;
+
+import hyflow.caesar.messages.Message;
+import hyflow.caesar.messages.MessageFactory;
+import hyflow.common.KillOnExceptionHandler;
+import hyflow.common.ProcessDescriptor;
+import hyflow.common.nio.AcceptHandler;
+import hyflow.common.nio.PacketHandler;
+import hyflow.common.nio.PooledBuffer;
+import hyflow.common.nio.ReaderAndWriter;
+import hyflow.common.nio.SelectorThread;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replica transport driven by a small pool of {@link SelectorThread}s shared by
+ * all the networks of this replica, instead of a sender and a receiver thread
+ * per peer and channel as in {@link TcpNetwork}. Messages are written with
+ * gathering writes from pooled buffers, each preceded by its length.
+ * <p>
+ * Connection set-up follows {@link TcpNetwork}: the replica with the lower id
+ * waits for the connection, the other one connects and sends its id first.
+ */
+public class NioNetwork extends Network {
+    private final static Logger logger = LogManager.getLogger(NioNetwork.class);
+
+    /* shared by every NioNetwork of this replica */
+    private static SelectorThread[] selectors;
+    private static final AtomicInteger nextSelector = new AtomicInteger();
+
+    private final int id;
+    private final NioConnection[] connections;
+    private final ServerSocketChannel server;
+    private final Connector connector;
+    private final Thread connectorThread;
+    private boolean started = false;
+
+    /**
+     * Creates new network for handling connections with other replicas.
+     *
+     * @throws IOException if opening server socket fails
+     */
+    public NioNetwork(int id) throws IOException {
+        this.id = id;
+        this.connections = new NioConnection[p.numReplicas];
+
+        int port = p.getLocalProcess().getReplicaPort() + (id * 100);
+        logger.info("Opening port: " + port);
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress((InetAddress) null, port));
+
+        this.connector = new Connector();
+        this.connectorThread = new Thread(connector, "NioConnector-" + id);
+        connectorThread.setUncaughtExceptionHandler(new KillOnExceptionHandler());
+    }
+
+    private static synchronized SelectorThread[] selectors() throws IOException {
+        if (selectors == null) {
+            int count = Math.max(1, ProcessDescriptor.getInstance().selectorThreads);
+            SelectorThread[] threads = new SelectorThread[count];
+            for (int i = 0; i < count; i++) {
+                threads[i] = new SelectorThread(i);
+                threads[i].start();
+            }
+            selectors = threads;
+        }
+        return selectors;
+    }
+
+    private static SelectorThread nextSelectorThread() throws IOException {
+        SelectorThread[] threads = selectors();
+        return threads[(nextSelector.getAndIncrement() & Integer.MAX_VALUE) % threads.length];
+    }
+
+    @Override
+    public void start() {
+        if (started) {
+            return;
+        }
+        for (int i = 0; i < connections.length; i++) {
+            if (i != p.localId) {
+                connections[i] = new NioConnection(i);
+            }
+        }
+
+        try {
+            SelectorThread acceptor = nextSelectorThread();
+            acceptor.scheduleRegisterChannel(server, SelectionKey.OP_ACCEPT, new Acceptor(acceptor));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        connectorThread.start();
+        started = true;
+    }
+
+    @Override
+    public boolean send(byte[] message, int destination) {
+        assert destination != p.localId;
+        PooledBuffer buffer = bufferPool.allocate(4 + message.length);
+        buffer.buffer().putInt(message.length).put(message);
+        connections[destination].send(buffer);
+        return true;
+    }
+
+    @Override
+    public void sendMessage(Message message, BitSet destinations) {
+        assert !destinations.isEmpty() : "Sending a message to no one";
+
+        PooledBuffer buffer = serialize(message);
+        for (int i = destinations.nextSetBit(0); i >= 0; i = destinations.nextSetBit(i + 1)) {
+            if (i == p.localId) {
+                // do not send message to self (just fire event)
+                deliverToSelf(buffer);
+            } else {
+                connections[i].send(buffer.retain());
+            }
+        }
+        buffer.release();
+
+        // Not really sent, only queued for sending,
+        // but it's good enough for the notification
+        fireSentMessage(message, destinations);
+    }
+
+    @Override
+    public void sendMessage(Message message, int destination) {
+        PooledBuffer buffer = serialize(message);
+        if (destination == p.localId) {
+            deliverToSelf(buffer);
+            buffer.release();
+        } else {
+            connections[destination].send(buffer);
+        }
+    }
+
+    /** Serializes the message preceded by its length. */
+    private PooledBuffer serialize(Message message) {
+        int size = message.byteSize();
+        PooledBuffer buffer = bufferPool.allocate(4 + size);
+        buffer.buffer().putInt(size);
+        message.writeTo(buffer.buffer());
+        assert !buffer.buffer().hasRemaining() : "Wrong message size " + message;
+        return buffer;
+    }
+
+    private void deliverToSelf(PooledBuffer buffer) {
+        ByteBuffer bb = buffer.duplicate();
+        bb.position(4);
+        fireReceiveMessage(decodeCopy(bb), p.localId);
+    }
+
+    /** Decodes a received frame; the frame buffer is not reused afterwards. */
+    private void receive(ByteBuffer bb, int sender) {
+        Message message;
+        try {
+            message = MessageFactory.create(bb);
+        } catch (RuntimeException e) {
+            logger.fatal("Error reading message from " + sender, e);
+            return;
+        }
+        fireReceiveMessage(message, sender);
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Accepts connections from replicas with lower ids and reads their id
+     * before handing the channel to the right connection.
+     */
+    private final class Acceptor implements AcceptHandler {
+        private final SelectorThread selector;
+
+        Acceptor(SelectorThread selector) {
+            this.selector = selector;
+        }
+
+        public void handleAccept() {
+            try {
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    logger.info("Received connection from " + channel.getRemoteAddress());
+                    final ReaderAndWriter rw = new ReaderAndWriter(channel, nextSelectorThread());
+                    final ByteBuffer remoteId = ByteBuffer.allocate(4);
+                    rw.setPacketHandler(new PacketHandler() {
+                        public ByteBuffer getByteBuffer() {
+                            return remoteId;
+                        }
+
+                        public void finished() {
+                            remoteId.flip();
+                            int replicaId = remoteId.getInt();
+                            if (replicaId < 0 || replicaId >= p.numReplicas || replicaId == p.localId) {
+                                logger.warn("Invalid remote replica id: " + replicaId);
+                                rw.close();
+                                return;
+                            }
+                            connections[replicaId].setConnection(rw);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                logger.warn("Accepting connection failed", e);
+            }
+            selector.addChannelInterest(server, SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * (Re)connects to the replicas with higher ids whenever their connection
+     * is down. Sleeps while all of them are up.
+     */
+    private final class Connector implements Runnable {
+        /* set when a connection went down; guarded by this */
+        private boolean lost = true;
+
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    synchronized (this) {
+                        while (!lost) {
+                            wait();
+                        }
+                        lost = false;
+                    }
+
+                    boolean failed = false;
+                    for (int i = p.localId + 1; i < connections.length; i++) {
+                        if (!connections[i].isConnected() && !connect(i)) {
+                            failed = true;
+                        }
+                    }
+
+                    if (failed) {
+                        Thread.sleep(p.tcpReconnectTimeout);
+                        connectionLost();
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.fatal("Connector thread has been interrupted.");
+            }
+        }
+
+        synchronized void connectionLost() {
+            lost = true;
+            notifyAll();
+        }
+
+        private boolean connect(int replicaId) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.connect(new InetSocketAddress(p.config.getProcess(replicaId).getHostname(),
+                        p.config.getProcess(replicaId).getReplicaPort() + id * 100));
+
+                ByteBuffer localId = ByteBuffer.allocate(4);
+                localId.putInt(p.localId).flip();
+                while (localId.hasRemaining()) {
+                    channel.write(localId);
+                }
+
+                connections[replicaId].setConnection(new ReaderAndWriter(channel, nextSelectorThread()));
+                return true;
+            } catch (IOException e) {
+                logger.warn("TCP connection with replica " + replicaId + " failed");
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Link to one peer. Holds the current channel, if any, and reads the
+     * length prefixed messages coming from it.
+     */
+    private final class NioConnection {
+        private final int replicaId;
+        private volatile ReaderAndWriter rw;
+        private int dropped = 0;
+
+        NioConnection(int replicaId) {
+            this.replicaId = replicaId;
+        }
+
+        boolean isConnected() {
+            return rw != null;
+        }
+
+        void send(PooledBuffer message) {
+            ReaderAndWriter current = rw;
+            if (current == null) {
+                message.release();
+                if (dropped % 102400 == 0) {
+                    logger.fatal("Dropping message, not connected. To: " + replicaId + ". " + dropped);
+                }
+                dropped++;
+                return;
+            }
+            current.send(message);
+        }
+
+        void setConnection(final ReaderAndWriter newRw) {
+            ReaderAndWriter old;
+            synchronized (this) {
+                old = rw;
+                rw = newRw;
+            }
+            if (old != null) {
+                old.scheduleClose();
+            }
+
+            newRw.setCloseHandler(() -> connectionClosed(newRw));
+            newRw.setPacketHandler(new FrameReader(newRw));
+            logger.info("Connected to " + replicaId);
+        }
+
+        private void connectionClosed(ReaderAndWriter closed) {
+            synchronized (this) {
+                if (rw != closed) {
+                    return;
+                }
+                rw = null;
+            }
+            logger.warn("Connection to " + replicaId + " closed");
+            if (replicaId > p.localId) {
+                connector.connectionLost();
+            }
+        }
+
+        /** Reads the length of the next message, then the message itself. */
+        private final class FrameReader implements PacketHandler {
+            private final ReaderAndWriter rw;
+            private final ByteBuffer header = ByteBuffer.allocate(4);
+            private ByteBuffer body;
+
+            FrameReader(ReaderAndWriter rw) {
+                this.rw = rw;
+            }
+
+            public ByteBuffer getByteBuffer() {
+                return body == null ? header : body;
+            }
+
+            public void finished() {
+                if (body == null) {
+                    header.flip();
+                    body = ByteBuffer.allocate(header.getInt());
+                    header.clear();
+                } else {
+                    body.flip();
+                    receive(body, replicaId);
+                    body = null;
+                }
+                rw.setPacketHandler(this);
+            }
+        }
+    }
+}
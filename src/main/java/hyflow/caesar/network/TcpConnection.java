@@ -5,13 +5,17 @@ import hyflow.caesar.messages.MessageFactory;
 import hyflow.common.KillOnExceptionHandler;
 import hyflow.common.PID;
 import hyflow.common.ProcessDescriptor;
+import hyflow.common.nio.PooledBuffer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
@@ -22,9 +26,16 @@ import java.util.concurrent.BlockingQueue;
  * and connects. If passive mode is enabled, then we wait for socket from the
  * <code>SocketServer</code> provided by <code>TcpNetwork</code>.
  * <p>
+ * Outgoing messages are {@link PooledBuffer}s shared with the other
+ * connections; the sender thread writes them straight from the (direct)
+ * buffer to the socket channel and releases its reference afterwards. It
+ * drains everything queued at once and writes it with gathering writes of at
+ * most <code>TcpMaxWriteBytes</code> each.
+ * <p>
  * Every time new message is received from this connection, it is deserialized,
  * and then all registered network listeners in related <code>TcpNetwork</code>
- * are notified about it.
+ * are notified about it. With <code>TcpFraming</code> every message comes
+ * after its length; it is read whole and decoded from the buffer.
  *
  * @see TcpNetwork
  */
@@ -38,10 +49,11 @@ public class TcpConnection {
     private final TcpNetwork network;
     private final Thread senderThread;
     private final Thread receiverThread;
-    private final BlockingQueue<byte[]> sendQueue = new ArrayBlockingQueue<>(1000000);
-    private Socket socket;
+    private final BlockingQueue<PooledBuffer> sendQueue = new ArrayBlockingQueue<>(1000000);
+    private final int maxWriteBytes;
+    private final boolean framing;
+    private volatile SocketChannel channel;
     private DataInputStream input;
-    private OutputStream output;
     private volatile boolean connected = false;
     private int dropped = 0;
     private int droppedFull = 0;
@@ -59,6 +71,8 @@ public class TcpConnection {
         this.replica = replica;
         this.id = id;
         this.active = active;
+        this.maxWriteBytes = ProcessDescriptor.getInstance().tcpMaxWriteBytes;
+        this.framing = ProcessDescriptor.getInstance().tcpFraming;
 
         logger.info("Creating connection: " + replica + " - " + active);
 
@@ -83,6 +97,17 @@ public class TcpConnection {
      * @return true if sending message was successful
      */
     public boolean send(byte[] message) {
+        return send(PooledBuffer.wrap(message));
+    }
+
+    /**
+     * Queues a serialized message for sending. Takes over one reference to
+     * the buffer, which is released once written or dropped.
+     *
+     * @param message - serialized message
+     * @return true if sending message was successful
+     */
+    public boolean send(PooledBuffer message) {
         try {
 
             if (connected)  {
@@ -94,6 +119,7 @@ public class TcpConnection {
 //                }
 //
             } else {
+                message.release();
                 if (dropped % 102400 == 0) {
                     logger.fatal("Dropping message, not connected. To: " + replica.getId() + ". " + dropped);
                 }
@@ -101,6 +127,7 @@ public class TcpConnection {
             }
 
         } catch (InterruptedException e) {
+            message.release();
             logger.warn("Thread interrupted. Terminating.");
             Thread.currentThread().interrupt();
         }
@@ -112,21 +139,18 @@ public class TcpConnection {
      * initialized connection with other replica. First method tries to close
      * old connection and then set-up new one.
      *
-     * @param socket - active socket connection
+     * @param channel - active socket connection
      * @param input - input stream from this socket
-     * @param output - output stream from this socket
      */
-    public synchronized void setConnection(Socket socket, DataInputStream input,
-                                           DataOutputStream output) {
-        assert socket.isConnected() : "Invalid socket state";
+    public synchronized void setConnection(SocketChannel channel, DataInputStream input) {
+        assert channel.isConnected() : "Invalid socket state";
 
         // first close old connection
         close();
 
         // initialize new connection
-        this.socket = socket;
+        this.channel = channel;
         this.input = input;
-        this.output = output;
         connected = true;
 
         // if main thread wait for this connection notifyClient it
@@ -162,37 +186,55 @@ public class TcpConnection {
         if (active) {
             // this is active connection so we try to connect to host
             while (true) {
+                SocketChannel channel = null;
                 try {
-                    socket = new Socket();
-//                    socket.setReceiveBufferSize(TCP_BUFFER_SIZE);
-//                    socket.setSendBufferSize(TCP_BUFFER_SIZE);
-                    logger.warn("RcvdBuffer: " + socket.getReceiveBufferSize() +
-                            ", SendBuffer: " + socket.getSendBufferSize());
-                    socket.setTcpNoDelay(true);
+                    channel = SocketChannel.open();
+//                    channel.socket().setReceiveBufferSize(TCP_BUFFER_SIZE);
+//                    channel.socket().setSendBufferSize(TCP_BUFFER_SIZE);
+                    logger.warn("RcvdBuffer: " + channel.socket().getReceiveBufferSize() +
+                            ", SendBuffer: " + channel.socket().getSendBufferSize());
+                    channel.socket().setTcpNoDelay(true);
 
                     logger.info("Connecting to: " + replica);
                     try {
-                        socket.connect(new InetSocketAddress(replica.getHostname(),
+                        channel.connect(new InetSocketAddress(replica.getHostname(),
                                 replica.getReplicaPort() + id * 100));
                     } catch (ConnectException e) {
                         logger.warn("TCP connection with replica " + replica.getId() + " failed");
+                        channel.close();
                         Thread.sleep(ProcessDescriptor.getInstance().tcpReconnectTimeout);
                         continue;
                     }
 
                     input = new DataInputStream(
-                            new BufferedInputStream(socket.getInputStream()));
-
-                    output = socket.getOutputStream();
-                    int v = ProcessDescriptor.getInstance().localId;
-                    output.write((v >>> 24) & 0xFF);
-                    output.write((v >>> 16) & 0xFF);
-                    output.write((v >>>  8) & 0xFF);
-                    output.write(v & 0xFF);
-                    output.flush();
+                            new BufferedInputStream(channel.socket().getInputStream()));
+
+                    ByteBuffer localId = ByteBuffer.allocate(4);
+                    localId.putInt(ProcessDescriptor.getInstance().localId).flip();
+
+                    // the sender writes under the channel lock, so holding it
+                    // keeps messages from overtaking the local id
+                    synchronized (channel) {
+                        // Wake up the sender thread
+                        synchronized (this) {
+                            this.channel = channel;
+                            connected = true;
+                            notifyAll();
+                        }
+                        while (localId.hasRemaining()) {
+                            channel.write(localId);
+                        }
+                    }
                     // connection established
                     break;
                 } catch (IOException e) {
+                    close();
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
                     // some other problem (possibly other side closes
                     // connection while initializing connection); for debug
                     // purpose we print this message
@@ -202,12 +244,6 @@ public class TcpConnection {
                 }
             }
 
-            // Wake up the sender thread
-            synchronized (this) {
-                connected = true;
-                notifyAll();
-            }
-
         } else {
             // this is passive connection so we are waiting until other replica
             // connect to us; we will be notified by setConnection method
@@ -224,17 +260,17 @@ public class TcpConnection {
      */
     private synchronized void close() {
         connected = false;
-        if (socket != null && socket.isConnected()) {
+        if (channel != null && channel.isConnected()) {
             logger.info("Closing socket ...");
             try {
-                socket.shutdownOutput();
+                channel.socket().shutdownOutput();
 
                 // TODO not clean socket closing; we have to wait until all data
                 // will be received from server; after closing output stream we
                 // should wait until we read all data from input stream;
                 // otherwise RST will be send
-                socket.close();
-                socket = null;
+                channel.close();
+                channel = null;
                 logger.info("Socket closed.");
             } catch (IOException e) {
                 logger.warn("Error closing socket: " + e.getMessage());
@@ -243,36 +279,81 @@ public class TcpConnection {
     }
 
     private final class Sender implements Runnable {
+        private final List<PooledBuffer> batch = new ArrayList<>();
+        private ByteBuffer[] views = new ByteBuffer[64];
+
         public void run() {
             logger.info("Sender thread started.");
             try {
                 while (!Thread.interrupted()) {
 
 //                    long start = System.currentTimeMillis();
-                    byte[] msg = sendQueue.take();
+                    batch.add(sendQueue.take());
+                    sendQueue.drainTo(batch);
 //                    int delta = (int) (System.currentTimeMillis() - start);
 //                    if (delta > 10) {
 //                        logger.warn("Take Wait time: " + delta);
 //                    }
 
-                    // ignore message if not connected
-                    // Works without memory barrier because connected is volatile
-                    if (!connected) {
-                        continue;
-                    }
-
                     try {
-                        output.write(msg);
-                        output.flush();
+                        // ignore messages if not connected
+                        // Works without memory barrier because connected is volatile
+                        SocketChannel ch = channel;
+                        if (!connected || ch == null) {
+                            continue;
+                        }
+
+                        synchronized (ch) {
+                            write(ch);
+                        }
                     } catch (IOException e) {
                         logger.warn("Error sending message", e);
                         close();
+                    } finally {
+                        for (PooledBuffer msg : batch) {
+                            msg.release();
+                        }
+                        batch.clear();
                     }
                 }
             } catch (InterruptedException e) {
+                for (PooledBuffer msg : batch) {
+                    msg.release();
+                }
                 logger.fatal("Sender thread has been interupted and stopped.");
             }
         }
+
+        /**
+         * Writes the drained messages with gathering writes, each covering as
+         * many messages as fit in maxWriteBytes (at least one).
+         */
+        private void write(SocketChannel ch) throws IOException {
+            if (views.length < batch.size()) {
+                views = new ByteBuffer[Math.max(batch.size(), views.length * 2)];
+            }
+
+            int start = 0;
+            while (start < batch.size()) {
+                int end = start;
+                long bytes = 0;
+                do {
+                    ByteBuffer view = batch.get(end).duplicate();
+                    views[end] = view;
+                    bytes += view.remaining();
+                    end++;
+                } while (end < batch.size() && bytes + batch.get(end).size() <= maxWriteBytes);
+
+                int first = start;
+                while (first < end) {
+                    ch.write(views, first, end - first);
+                    while (first < end && !views[first].hasRemaining()) {
+                        views[first++] = null;
+                    }
+                }
+                start = end;
+            }
+        }
     }
 
     /**
@@ -300,7 +381,7 @@ public class TcpConnection {
                     }
 
                     try {
-                        Message message = MessageFactory.create(input);
+                        Message message = framing ? readFrame() : MessageFactory.create(input);
 //                        if (logger.isTraceEnabled()) {
 //                            logger.trace("Received [" + replica.getId() + "] " + message +
 //                                    " size: " + message.byteSize());
@@ -318,5 +399,15 @@ public class TcpConnection {
                 }
             }
         }
+
+        /**
+         * Reads one length prefixed message. The buffer is handed over to the
+         * message, which may keep parts of it.
+         */
+        private Message readFrame() throws IOException {
+            byte[] frame = new byte[input.readInt()];
+            input.readFully(frame);
+            return MessageFactory.create(ByteBuffer.wrap(frame));
+        }
     }
 }
@@ -3,22 +3,26 @@ package hyflow.caesar.network;
 import hyflow.caesar.messages.Message;
 import hyflow.caesar.messages.MessageFactory;
 import hyflow.common.KillOnExceptionHandler;
+import hyflow.common.nio.PooledBuffer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.BitSet;
 
 public class TcpNetwork extends Network implements Runnable {
     private final static Logger logger = LogManager.getLogger(TcpNetwork.class);
     private final TcpConnection[] connections;
-    private final ServerSocket server;
+    private final ServerSocketChannel server;
     private final Thread acceptorThread;
     private final int id;
+    private final boolean framing;
     private boolean started = false;
 
     /**
@@ -28,14 +32,15 @@ public class TcpNetwork extends Network implements Runnable {
      */
     public TcpNetwork(int id) throws IOException {
         this.id = id;
+        this.framing = p.tcpFraming;
         this.connections = new TcpConnection[p.numReplicas];
 
         int port = p.getLocalProcess().getReplicaPort() + (id * 100);
         logger.info("Opening port: " + port);
-        this.server = new ServerSocket();
-//        server.setReceiveBufferSize(TcpConnection.TCP_BUFFER_SIZE);
+        this.server = ServerSocketChannel.open();
+//        server.socket().setReceiveBufferSize(TcpConnection.TCP_BUFFER_SIZE);
         server.bind(new InetSocketAddress((InetAddress) null, port));
-        logger.info("Buffer Size:" + server.getReceiveBufferSize());
+        logger.info("Buffer Size:" + server.socket().getReceiveBufferSize());
         this.acceptorThread = new Thread(this, "TcpNetwork");
         acceptorThread.setUncaughtExceptionHandler(new KillOnExceptionHandler());
     }
@@ -70,6 +75,11 @@ public class TcpNetwork extends Network implements Runnable {
      */
     public boolean send(byte[] message, int destination) {
         assert destination != p.localId;
+        if (framing) {
+            PooledBuffer buffer = bufferPool.allocate(4 + message.length);
+            buffer.buffer().putInt(message.length).put(message);
+            return connections[destination].send(buffer);
+        }
         return connections[destination].send(message);
     }
 
@@ -77,25 +87,54 @@ public class TcpNetwork extends Network implements Runnable {
     public void sendMessage(Message message, BitSet destinations) {
         assert !destinations.isEmpty() : "Sending a message to no one";
 
-        byte[] bytes = message.toByteArray();
+        // serialized once; every connection holds a reference until written
+        PooledBuffer buffer = serialize(message);
         for (int i = destinations.nextSetBit(0); i >= 0; i = destinations.nextSetBit(i + 1)) {
             if (i == p.localId) {
                 // do not send message to self (just fire event)
-                try {
-                    fireReceiveMessage(MessageFactory.create(new DataInputStream(new ByteArrayInputStream(bytes))), p.localId);
-                } catch (IOException | ClassNotFoundException e) {
-                    e.printStackTrace();
-                }
+                deliverToSelf(buffer);
             } else {
-                send(bytes, i);
+                connections[i].send(buffer.retain());
             }
         }
+        buffer.release();
 
         // Not really sent, only queued for sending,
         // but it's good enough for the notification
         fireSentMessage(message, destinations);
     }
 
+    @Override
+    public void sendMessage(Message message, int destination) {
+        PooledBuffer buffer = serialize(message);
+        if (destination == p.localId) {
+            deliverToSelf(buffer);
+            buffer.release();
+        } else {
+            connections[destination].send(buffer);
+        }
+    }
+
+    /** Serializes the message, preceded by its length if framing. */
+    private PooledBuffer serialize(Message message) {
+        int size = message.byteSize();
+        PooledBuffer buffer = bufferPool.allocate(framing ? 4 + size : size);
+        if (framing) {
+            buffer.buffer().putInt(size);
+        }
+        message.writeTo(buffer.buffer());
+        assert !buffer.buffer().hasRemaining() : "Wrong message size " + message;
+        return buffer;
+    }
+
+    private void deliverToSelf(PooledBuffer buffer) {
+        ByteBuffer bb = buffer.duplicate();
+        if (framing) {
+            bb.position(4);
+        }
+        fireReceiveMessage(decodeCopy(bb), p.localId);
+    }
+
     /**
      * Main loop which accepts incoming connections.
      */
@@ -103,8 +142,8 @@ public class TcpNetwork extends Network implements Runnable {
         logger.info(Thread.currentThread().getName() + " thread started");
         while (!Thread.interrupted()) {
             try {
-                Socket socket = server.accept();
-                initializeConnection(socket);
+                SocketChannel channel = server.accept();
+                initializeConnection(channel);
             } catch (IOException e) {
                 // TODO: probably too many open files exception occurred;
                 // should we open server socket again or just wait and ignore
@@ -114,7 +153,8 @@ public class TcpNetwork extends Network implements Runnable {
         }
     }
 
-    private void initializeConnection(Socket socket) {
+    private void initializeConnection(SocketChannel channel) {
+        Socket socket = channel.socket();
         try {
             logger.info("Received connection from " + socket.getRemoteSocketAddress());
 //            socket.setReceiveBufferSize(TcpConnection.TCP_BUFFER_SIZE);
@@ -124,8 +164,6 @@ public class TcpNetwork extends Network implements Runnable {
                     ", SendBuffer: " + socket.getSendBufferSize());
             DataInputStream input = new DataInputStream(
                     new BufferedInputStream(socket.getInputStream()));
-            DataOutputStream output = new DataOutputStream(
-                    new BufferedOutputStream(socket.getOutputStream()));
             int replicaId = input.readInt();
 
             if (replicaId < 0 || replicaId >= p.numReplicas) {
@@ -139,7 +177,7 @@ public class TcpNetwork extends Network implements Runnable {
                 return;
             }
 
-            connections[replicaId].setConnection(socket, input, output);
+            connections[replicaId].setConnection(channel, input);
         } catch (IOException e) {
             logger.warn("Initialization of accepted connection failed.", e);
             try {
@@ -0,0 +1,114 @@
+package hyflow.caesar.replica;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs delivered requests on a pool while keeping the delivery order of
+ * requests that access a common object. Every object remembers the last
+ * request submitted for it; a new request waits for the unfinished last
+ * requests of all its objects and runs as soon as they are done, so
+ * requests on disjoint objects execute in parallel.
+ * <p>
+ * {@link #submit} must be called in delivery order for conflicting
+ * requests.
+ */
+final class ExecutionScheduler {
+
+    private final Executor pool;
+
+    /* last task per object (object id modulo the table size); guarded by this */
+    private final Task[] tails;
+    private final int[] allObjects;
+
+    ExecutionScheduler(Executor pool, int numObjects) {
+        this.pool = pool;
+        this.tails = new Task[Math.max(1, numObjects)];
+        this.allObjects = new int[tails.length];
+        for (int i = 0; i < allObjects.length; i++) {
+            allObjects[i] = i;
+        }
+    }
+
+    void submit(int[] objectIds, Runnable action) {
+        Task task = new Task(objectIds, action);
+        synchronized (this) {
+            for (int objectId : objectIds) {
+                int index = index(objectId);
+                Task prev = tails[index];
+                tails[index] = task;
+                if (prev != null && prev != task && !prev.done && !prev.hasSuccessor(task)) {
+                    prev.successors.add(task);
+                    task.waiting.incrementAndGet();
+                }
+            }
+        }
+        task.unblock();
+    }
+
+    /**
+     * Runs {@code action} once every request submitted before has finished;
+     * requests submitted after wait for it.
+     */
+    void submitBarrier(Runnable action) {
+        submit(allObjects, action);
+    }
+
+    private int index(int objectId) {
+        return Math.floorMod(objectId, tails.length);
+    }
+
+    private void finished(Task task) {
+        List<Task> successors;
+        synchronized (this) {
+            task.done = true;
+            for (int objectId : task.objectIds) {
+                int index = index(objectId);
+                if (tails[index] == task) {
+                    tails[index] = null;
+                }
+            }
+            successors = task.successors;
+            task.successors = null;
+        }
+        for (Task successor : successors) {
+            successor.unblock();
+        }
+    }
+
+    private final class Task implements Runnable {
+        private final int[] objectIds;
+        private final Runnable action;
+        /* unfinished predecessors, plus one until submit is over */
+        private final AtomicInteger waiting = new AtomicInteger(1);
+        /* guarded by the scheduler */
+        private List<Task> successors = new ArrayList<>(2);
+        private boolean done;
+
+        Task(int[] objectIds, Runnable action) {
+            this.objectIds = objectIds;
+            this.action = action;
+        }
+
+        private boolean hasSuccessor(Task task) {
+            return !successors.isEmpty() && successors.get(successors.size() - 1) == task;
+        }
+
+        private void unblock() {
+            if (waiting.decrementAndGet() == 0) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                action.run();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+}
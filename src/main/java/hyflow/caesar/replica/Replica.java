@@ -1,8 +1,11 @@
 package hyflow.caesar.replica;
 
 import hyflow.benchmark.AbstractService;
+import hyflow.caesar.Batcher;
 import hyflow.caesar.Caesar;
 import hyflow.caesar.DecideCallback;
+import hyflow.caesar.SnapshotMark;
+import hyflow.caesar.statistics.RequestProfile;
 import hyflow.common.ProcessDescriptor;
 import hyflow.common.Request;
 import hyflow.common.ScheduledThreadDispatcher;
@@ -10,16 +13,27 @@ import hyflow.main.Client;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Replica {
 
     private final static Logger logger = LogManager.getLogger(Replica.class);
 
     private final Caesar caesar;
-    private final DecideCallback callback;
+    private final InnerDecideCallback callback;
     private final AbstractService service;
     private final ScheduledThreadDispatcher deliverDispatcher;
+    private final ExecutionScheduler scheduler;
+    private final StateTransfer stateTransfer;
+    /* null if snapshots are disabled */
+    private final Snapshotter snapshotter;
+    /* requests already in the restored snapshot, replayed without executing them */
+    private volatile SnapshotMark restored;
+    /* deliveries kept back while the state is fetched from a peer; guarded by itself */
+    private volatile List<Request> held;
     private Client client;
 
     public Replica(AbstractService service, Caesar caesar) throws IOException {
@@ -27,26 +41,111 @@ public class Replica {
         this.caesar = caesar;
         callback = new InnerDecideCallback();
         deliverDispatcher = new ScheduledThreadDispatcher("DeliveryThread", ProcessDescriptor.getInstance().deliveryThreads);
+        scheduler = new ExecutionScheduler(deliverDispatcher, service.getTotalObjects());
+
+        ProcessDescriptor pd = ProcessDescriptor.getInstance();
+        StateCapture capture = new StateCapture(service, caesar, scheduler);
+        stateTransfer = new StateTransfer(capture, caesar, pd.catchUpBandwidth);
+        if (pd.snapshotDirectory.isEmpty()) {
+            snapshotter = null;
+        } else {
+            snapshotter = new Snapshotter(new File(pd.snapshotDirectory, "replica-" + pd.localId),
+                    pd.snapshotInterval, capture, caesar);
+        }
     }
 
     public void start(Client client) throws IOException {
         this.client = client;
-        caesar.startCaesar(callback);
+        ProcessDescriptor pd = ProcessDescriptor.getInstance();
+        if (snapshotter != null) {
+            restored = snapshotter.restore();
+            if (restored != null) {
+                // before the log replay: the log no longer holds what it collected
+                caesar.installSnapshot(restored);
+            }
+        }
+        boolean catchUp = pd.catchUpFrom >= 0 && pd.catchUpFrom != pd.localId;
+        if (catchUp) {
+            held = new ArrayList<>();
+        }
+        stateTransfer.start(pd.config.getProcess(pd.localId).getReplicaPort() + StateTransfer.PORT_OFFSET);
+        // decisions are received from now on, proposals are answered once caught up
+        caesar.startCaesar(callback, catchUp);
+        if (catchUp) {
+            restored = stateTransfer.catchUp(pd.catchUpFrom);
+            releaseHeld();
+            caesar.caughtUp();
+        }
+        if (snapshotter != null) {
+            snapshotter.start();
+        }
     }
 
     public void submit(Request request) {
         caesar.propose(request);
     }
 
+    private void releaseHeld() {
+        List<Request> requests = held;
+        synchronized (requests) {
+            logger.info("Releasing " + requests.size() + " deliveries held during state transfer");
+            callback.execute(requests);
+            held = null;
+        }
+    }
+
     private class InnerDecideCallback implements DecideCallback {
 
         @Override
-        public void deliver(final Request request) {
-            deliverDispatcher.execute(() -> {
-                service.executeRequest(request);
-                caesar.onDelivery(request);
-                client.notifyClient(request);
-            });
+        public void deliver(final List<Request> requests) {
+            List<Request> waiting = held;
+            if (waiting != null) {
+                synchronized (waiting) {
+                    if (held != null) {
+                        waiting.addAll(requests);
+                        return;
+                    }
+                }
+            }
+            execute(requests);
+        }
+
+        private void execute(List<Request> requests) {
+            for (final Request request : requests) {
+                SnapshotMark snapshot = restored;
+                if (snapshot != null && snapshot.covers(request)) {
+                    scheduler.submit(request.getObjectIds(), () -> {
+                        caesar.onDelivery(request);
+                        RequestProfile.remove(request.getId());
+                    });
+                } else if (caesar.isBatching()) {
+                    scheduler.submit(request.getObjectIds(), () -> deliverBatch(request));
+                } else {
+                    scheduler.submit(request.getObjectIds(), () -> {
+                        service.executeRequest(request);
+                        caesar.onDelivery(request);
+                        client.notifyClient(request);
+                        RequestProfile.remove(request.getId());
+                    });
+                }
+            }
+        }
+
+        private void deliverBatch(Request batch) {
+            Request[] members = Batcher.unpack(batch);
+            for (Request member : members) {
+                service.executeRequest(member);
+            }
+            caesar.onDelivery(batch);
+
+            RequestProfile profile = RequestProfile.remove(batch.getId());
+            for (Request member : members) {
+                if (profile != null) {
+                    RequestProfile.share(member.getId(), profile);
+                }
+                client.notifyClient(member);
+                RequestProfile.remove(member.getId());
+            }
         }
     }
 
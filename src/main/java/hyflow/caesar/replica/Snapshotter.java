@@ -0,0 +1,117 @@
+package hyflow.caesar.replica;
+
+import hyflow.caesar.Caesar;
+import hyflow.caesar.SnapshotMark;
+import hyflow.common.ScheduledThreadDispatcher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes the service state to a file and truncates the stable
+ * log behind it. The snapshot is a {@link StateCapture} cut, so it holds
+ * exactly the requests executed before it, and is serialized in the
+ * background while execution goes on.
+ * <p>
+ * The file holds the {@link SnapshotMark} followed by the service state.
+ * It is written aside and renamed over the previous one once synced.
+ */
+final class Snapshotter {
+    private final static Logger logger = LogManager.getLogger(Snapshotter.class);
+
+    private static final String FILE_NAME = "snapshot";
+
+    private final File directory;
+    private final int interval;
+    private final StateCapture capture;
+    private final Caesar caesar;
+    private ScheduledThreadDispatcher dispatcher;
+
+    Snapshotter(File directory, int interval, StateCapture capture, Caesar caesar) {
+        this.directory = directory;
+        this.interval = interval;
+        this.capture = capture;
+        this.caesar = caesar;
+    }
+
+    /**
+     * Loads the last snapshot, if any, into the service.
+     *
+     * @return what the snapshot contains, or null if there is none
+     */
+    SnapshotMark restore() throws IOException {
+        File file = new File(directory, FILE_NAME);
+        if (!file.exists() || !capture.getService().supportsSnapshots()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            SnapshotMark mark = SnapshotMark.read(input);
+            capture.getService().restoreSnapshot(input);
+            logger.info("Restored snapshot " + file);
+            return mark;
+        }
+    }
+
+    void start() {
+        if (interval <= 0) {
+            return;
+        }
+        dispatcher = new ScheduledThreadDispatcher("Snapshotter", 1);
+        dispatcher.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException e) {
+                logger.error("Snapshot failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return false if the service does not support snapshots */
+    boolean takeSnapshot() throws IOException {
+        StateCapture.Cut cut;
+        try {
+            cut = capture.begin(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (cut == null) {
+            logger.warn(capture.getService().getClass().getSimpleName() + " does not support snapshots");
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+            return false;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            cut.close();
+            throw new IOException("Cannot create snapshot directory " + directory);
+        }
+        File tmp = new File(directory, FILE_NAME + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+            cut.mark.writeTo(output);
+            cut.state.writeTo(output);
+            output.flush();
+            file.getFD().sync();
+        } finally {
+            cut.close();
+        }
+        Files.move(tmp.toPath(), new File(directory, FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        caesar.truncateLog(cut.mark);
+        return true;
+    }
+}
@@ -0,0 +1,103 @@
+package hyflow.caesar.replica;
+
+import hyflow.benchmark.AbstractService;
+import hyflow.caesar.Caesar;
+import hyflow.caesar.SnapshotMark;
+import hyflow.common.Request;
+import hyflow.transaction.SharedObjectRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Takes consistent cuts of the service state for snapshots and state
+ * transfer. A cut is started by a barrier on the execution scheduler; only
+ * one is open at a time, so the snapshotter and the state transfer server
+ * take turns.
+ */
+final class StateCapture {
+
+    private final AbstractService service;
+    private final Caesar caesar;
+    private final ExecutionScheduler scheduler;
+    private final Semaphore open = new Semaphore(1);
+
+    StateCapture(AbstractService service, Caesar caesar, ExecutionScheduler scheduler) {
+        this.service = service;
+        this.caesar = caesar;
+        this.scheduler = scheduler;
+    }
+
+    AbstractService getService() {
+        return service;
+    }
+
+    /**
+     * Waits for the current cut to be closed and starts a new one.
+     *
+     * @param withHistory whether to also collect the stable requests still
+     *            in the conflict history
+     * @return the cut, or null if the service does not support snapshots
+     */
+    Cut begin(boolean withHistory) throws IOException, InterruptedException {
+        if (!service.supportsSnapshots()) {
+            return null;
+        }
+        open.acquire();
+        CompletableFuture<Cut> begun = new CompletableFuture<>();
+        scheduler.submitBarrier(() -> {
+            try {
+                SharedObjectRegistry.Snapshot state = service.beginSnapshot();
+                List<Request> history = withHistory ? caesar.stableRequests() : Collections.emptyList();
+                begun.complete(new Cut(state, caesar.snapshotMark(), history));
+            } catch (RuntimeException e) {
+                begun.completeExceptionally(e);
+            }
+        });
+
+        try {
+            return begun.get();
+        } catch (ExecutionException e) {
+            open.release();
+            throw new IOException("Cannot start snapshot", e.getCause());
+        } catch (InterruptedException e) {
+            // the barrier may still open a snapshot; close it when it does
+            begun.whenComplete((cut, failure) -> {
+                if (cut != null) {
+                    cut.close();
+                } else {
+                    open.release();
+                }
+            });
+            throw e;
+        }
+    }
+
+    final class Cut implements Closeable {
+        final SharedObjectRegistry.Snapshot state;
+        final SnapshotMark mark;
+        /* stable requests that may not be covered by the mark */
+        final List<Request> history;
+        private boolean closed;
+
+        private Cut(SharedObjectRegistry.Snapshot state, SnapshotMark mark, List<Request> history) {
+            this.state = state;
+            this.mark = mark;
+            this.history = history;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                state.close();
+                open.release();
+            }
+        }
+    }
+}
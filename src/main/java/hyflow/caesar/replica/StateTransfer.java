@@ -0,0 +1,151 @@
+package hyflow.caesar.replica;
+
+import hyflow.caesar.Caesar;
+import hyflow.caesar.SnapshotMark;
+import hyflow.caesar.messages.MessageFactory;
+import hyflow.caesar.messages.Stable;
+import hyflow.common.PID;
+import hyflow.common.ProcessDescriptor;
+import hyflow.common.Request;
+import hyflow.common.ThrottledOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Brings a lagging or restarted replica up to date from a peer over a
+ * connection of its own, so the transfer does not queue behind the propose
+ * channels. The peer sends a {@link StateCapture} cut: the snapshot mark,
+ * the service state and the stable requests still in its conflict history,
+ * which together cover every decision the peer knew at the cut. Decisions
+ * taken later reach the replica through the stable channel, which must be
+ * connected before the transfer is requested.
+ * <p>
+ * The sender writes in large chunks, throttled to
+ * {@link ProcessDescriptor#catchUpBandwidth} bytes per second.
+ */
+final class StateTransfer {
+    private final static Logger logger = LogManager.getLogger(StateTransfer.class);
+
+    /* offset of the transfer port from the replica port, after the four channels */
+    static final int PORT_OFFSET = 400;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final StateCapture capture;
+    private final Caesar caesar;
+    private final long bandwidth;
+    private ServerSocket server;
+
+    StateTransfer(StateCapture capture, Caesar caesar, long bandwidth) {
+        this.capture = capture;
+        this.caesar = caesar;
+        this.bandwidth = bandwidth;
+    }
+
+    /** Starts serving transfers to other replicas. */
+    void start(int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        Thread thread = new Thread(this::acceptLoop, "StateTransfer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                serve(socket);
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    logger.warn("State transfer failed", e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException, InterruptedException {
+        socket.setSendBufferSize(4 * CHUNK_SIZE);
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+        int requester = input.readInt();
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new ThrottledOutputStream(socket.getOutputStream(), bandwidth), CHUNK_SIZE));
+
+        StateCapture.Cut cut = capture.begin(true);
+        if (cut == null) {
+            logger.warn("Cannot send state to " + requester + ": "
+                    + capture.getService().getClass().getSimpleName() + " does not support snapshots");
+            output.writeBoolean(false);
+            output.flush();
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            output.writeBoolean(true);
+            cut.mark.writeTo(output);
+            cut.state.writeTo(output);
+            output.writeInt(cut.history.size());
+            for (Request request : cut.history) {
+                byte[] message = new Stable(request.getView(), request).toByteArray();
+                output.writeInt(message.length);
+                output.write(message);
+            }
+            output.flush();
+            logger.info("Sent state and " + cut.history.size() + " stable requests to " + requester
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            cut.close();
+        }
+    }
+
+    /**
+     * Fetches the state of {@code peer}, loads it into the service and
+     * applies the decisions sent along. Execution must be held until the
+     * returned mark is in place.
+     *
+     * @return the requests contained in the loaded state
+     */
+    SnapshotMark catchUp(int peer) throws IOException {
+        if (!capture.getService().supportsSnapshots()) {
+            throw new IOException(capture.getService().getClass().getSimpleName()
+                    + " does not support snapshots, cannot catch up");
+        }
+        ProcessDescriptor pd = ProcessDescriptor.getInstance();
+        PID pid = pd.config.getProcess(peer);
+        try (Socket socket = new Socket(pid.getHostname(), pid.getReplicaPort() + PORT_OFFSET)) {
+            socket.setReceiveBufferSize(4 * CHUNK_SIZE);
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeInt(pd.localId);
+            output.flush();
+
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK_SIZE));
+            if (!input.readBoolean()) {
+                throw new IOException("Replica " + peer + " cannot send its state");
+            }
+            SnapshotMark mark = SnapshotMark.read(input);
+            // the decisions sent and those already received may name requests the peer collected
+            caesar.installSnapshot(mark);
+            capture.getService().restoreSnapshot(input);
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] message = new byte[input.readInt()];
+                input.readFully(message);
+                caesar.applyStable((Stable) MessageFactory.create(ByteBuffer.wrap(message)));
+            }
+            logger.info("Caught up from replica " + peer + " with " + count + " stable requests");
+            return mark;
+        }
+    }
+}
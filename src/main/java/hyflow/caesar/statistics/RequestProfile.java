@@ -0,0 +1,75 @@
+package hyflow.caesar.statistics;
+
+import hyflow.caesar.messages.FastProposeReply;
+import hyflow.common.RequestId;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Timings of one request, in milliseconds, kept in a side table keyed by
+ * request id so that requests carry no profiling fields. The table is off
+ * unless enabled; {@link #of} then returns null and nothing is recorded.
+ * <p>
+ * Entries are removed once the client has been notified of the delivery.
+ */
+public final class RequestProfile {
+
+    private static final ConcurrentHashMap<RequestId, RequestProfile> table = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
+
+    public long startWait;
+    public int waitDuration;
+    public long startPropose;
+    public int proposeDuration;
+    public long startRetry;
+    public int retryDuration;
+    public long startDeliver;
+    public int deliverDuration;
+    /* longest wait reported by the fast propose replies */
+    public int replyWait;
+
+    public static void setEnabled(boolean enabled) {
+        RequestProfile.enabled = enabled;
+        if (!enabled) {
+            table.clear();
+        }
+    }
+
+    /** @return the profile of the request, or null if profiling is off */
+    public static RequestProfile of(RequestId id) {
+        if (!enabled) {
+            return null;
+        }
+        return table.computeIfAbsent(id, k -> new RequestProfile());
+    }
+
+    /** Makes {@code profile} the profile of {@code id}, as for the members of a batch. */
+    public static void share(RequestId id, RequestProfile profile) {
+        if (enabled) {
+            table.put(id, profile);
+        }
+    }
+
+    public static RequestProfile remove(RequestId id) {
+        if (!enabled) {
+            return null;
+        }
+        return table.remove(id);
+    }
+
+    public static void clear() {
+        table.clear();
+    }
+
+    /** Records the end of the fast propose phase. */
+    public void proposed(FastProposeReply[] replies) {
+        proposeDuration = (int) (System.currentTimeMillis() - startPropose);
+        int max = 0;
+        for (FastProposeReply reply : replies) {
+            if (reply != null) {
+                max = Math.max(max, reply.getWaitTime());
+            }
+        }
+        replyWait = max;
+    }
+}
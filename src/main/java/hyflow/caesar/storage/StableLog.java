@@ -0,0 +1,455 @@
+package hyflow.caesar.storage;
+
+import hyflow.caesar.messages.Message;
+import hyflow.caesar.messages.MessageFactory;
+import hyflow.caesar.messages.Stable;
+import hyflow.common.KillOnExceptionHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link Stable} decisions, written to memory-mapped
+ * segment files. A record is the message preceded by its length and CRC32;
+ * a zero length marks the end of the log, and a record whose checksum does
+ * not match (torn by a crash) ends it too.
+ * <p>
+ * Appends complete through a callback once the record is durable according
+ * to the {@link SyncPolicy}. With {@link SyncPolicy#GROUP} a single thread
+ * forces the log whenever records are waiting, so every record appended
+ * during a force shares the next one, and hands their callbacks to an
+ * executor.
+ * <p>
+ * The next segment is mapped ahead of time by a background thread under a
+ * temporary name, and full segments are forced and closed by the sync
+ * thread, so an append never waits for file operations while holding the
+ * log.
+ */
+public final class StableLog implements Closeable {
+    private final static Logger logger = LogManager.getLogger(StableLog.class);
+
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final String PREFIX = "stable-";
+    private static final String SUFFIX = ".log";
+    private static final String NEXT_FILE = PREFIX + "next.tmp";
+
+    public enum SyncPolicy {
+        /** Never forced by the log; records are acknowledged once written. */
+        NONE,
+        /** Forced every sync interval; records are acknowledged once written. */
+        PERIODIC,
+        /** Records are acknowledged once the force covering them returned. */
+        GROUP
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final SyncPolicy policy;
+    private final int syncInterval;
+    private final Thread syncer;
+    /* runs the callbacks of the group commits */
+    private final Executor callbacks;
+    /* maps the next segment */
+    private final ExecutorService preparer;
+
+    /* guarded by this */
+    private long segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    /* the next segment being mapped, null while a larger one is in use */
+    private Future<Segment> next;
+    /* full segments not forced and closed yet */
+    private List<Segment> retired = new ArrayList<>();
+    private long appended = 0;
+    private long synced = 0;
+    private List<Runnable> waiting = new ArrayList<>();
+    private boolean closed = false;
+
+    /* guarded by this */
+    private final CRC32 crc = new CRC32();
+
+    public StableLog(File directory, int segmentSize, SyncPolicy policy, int syncInterval,
+                     Executor callbacks) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.policy = policy;
+        this.syncInterval = Math.max(1, syncInterval);
+        this.callbacks = callbacks;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        // mapped ahead of a crash, never used
+        Files.deleteIfExists(new File(directory, NEXT_FILE).toPath());
+
+        long[] segments = segments();
+        if (segments.length == 0) {
+            openSegment(0, segmentSize);
+        } else {
+            // continue after the last valid record of the last segment
+            long last = segments[segments.length - 1];
+            openSegment(last, segmentSize);
+            segment.position(0);
+            while (readRecord(segment) != null) {
+            }
+            endMark();
+        }
+
+        preparer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "StableLogPreparer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        next = preparer.submit(this::prepare);
+
+        if (policy == SyncPolicy.NONE) {
+            syncer = null;
+        } else {
+            syncer = new Thread(this::syncLoop, "StableLogSync");
+            syncer.setDaemon(true);
+            syncer.setUncaughtExceptionHandler(new KillOnExceptionHandler());
+            syncer.start();
+        }
+    }
+
+    public static SyncPolicy parsePolicy(String name) {
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log sync policy: " + name);
+    }
+
+    /**
+     * Reads every valid record in log order. Meant for start-up, before the
+     * first {@link #append}.
+     */
+    public void replay(Consumer<Stable> consumer) throws IOException {
+        int count = 0;
+        for (long index : segments()) {
+            try (FileChannel in = FileChannel.open(segmentFile(index).toPath(), StandardOpenOption.READ)) {
+                ByteBuffer bb = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                Stable record;
+                while ((record = readRecord(bb)) != null) {
+                    consumer.accept(record);
+                    count++;
+                }
+            }
+        }
+        logger.info("Replayed " + count + " stable decisions from " + directory);
+    }
+
+    /**
+     * Deletes the segments, other than the one being written, whose records
+     * are all {@code obsolete}.
+     *
+     * @return the number of segments deleted
+     */
+    public int truncate(Predicate<Stable> obsolete) throws IOException {
+        long current;
+        synchronized (this) {
+            current = segmentIndex;
+        }
+        int deleted = 0;
+        for (long index : segments()) {
+            if (index >= current) {
+                break;
+            }
+            File file = segmentFile(index);
+            boolean drop = true;
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer bb = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                Stable record;
+                while (drop && (record = readRecord(bb)) != null) {
+                    drop = obsolete.test(record);
+                }
+            }
+            if (drop) {
+                Files.delete(file.toPath());
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Truncated " + deleted + " stable log segments");
+        }
+        return deleted;
+    }
+
+    /**
+     * Appends a decision and runs {@code onDurable} once it is durable
+     * according to the sync policy, on the caller's thread or, with
+     * {@link SyncPolicy#GROUP}, on the callback executor.
+     */
+    public void append(Message record, Runnable onDurable) {
+        int size = record.byteSize();
+        List<Segment> full = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Log closed");
+            }
+            if (segment.remaining() < HEADER_SIZE + size + 4) {
+                roll(HEADER_SIZE + size + 4);
+            }
+
+            int start = segment.position();
+            segment.position(start + HEADER_SIZE);
+            record.writeTo(segment);
+
+            ByteBuffer body = segment.duplicate();
+            body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + size);
+            crc.reset();
+            crc.update(body);
+            segment.putInt(start, size);
+            segment.putInt(start + 4, (int) crc.getValue());
+            endMark();
+
+            appended++;
+            if (policy == SyncPolicy.GROUP) {
+                waiting.add(onDurable);
+                notifyAll();
+                return;
+            }
+            if (policy == SyncPolicy.NONE && !retired.isEmpty()) {
+                // nothing forces them; just close them
+                full = retired;
+                retired = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            close(full, false);
+        }
+        onDurable.run();
+    }
+
+    /** Writes the end marker after the last record, without moving past it. */
+    private void endMark() {
+        if (segment.remaining() >= 4) {
+            segment.putInt(segment.position(), 0);
+        }
+    }
+
+    private Stable readRecord(ByteBuffer bb) {
+        if (bb.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = bb.position();
+        int size = bb.getInt();
+        int checksum = bb.getInt();
+        if (size <= 0 || size > bb.remaining()) {
+            bb.position(start);
+            return null;
+        }
+        ByteBuffer body = bb.slice();
+        body.limit(size);
+        CRC32 check = new CRC32();
+        check.update(body.duplicate());
+        if ((int) check.getValue() != checksum) {
+            logger.warn("Torn record at " + start + ", log ends there");
+            bb.position(start);
+            return null;
+        }
+        bb.position(start + HEADER_SIZE + size);
+        return (Stable) MessageFactory.create(body);
+    }
+
+    /**
+     * Moves to a new segment of at least {@code minSize} bytes, normally the
+     * one mapped ahead. The full segment is left to the sync thread.
+     */
+    private void roll(int minSize) {
+        retired.add(new Segment(channel, segment));
+        long index = segmentIndex + 1;
+        try {
+            if (minSize <= segmentSize && next != null) {
+                Segment prepared = getPrepared();
+                Files.move(new File(directory, NEXT_FILE).toPath(), segmentFile(index).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                channel = prepared.channel;
+                segment = prepared.buffer;
+                segmentIndex = index;
+                next = preparer.submit(this::prepare);
+            } else {
+                // larger than a segment: mapped here, the prepared one waits for the next roll
+                openSegment(index, minSize);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot roll stable log", e);
+        }
+    }
+
+    /** The segment mapped ahead, usually ready by the time the current one is full. */
+    private Segment getPrepared() throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return next.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot prepare the next stable log segment", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Maps the next segment under a temporary name, renamed when it is used. */
+    private Segment prepare() throws IOException {
+        FileChannel prepared = FileChannel.open(new File(directory, NEXT_FILE).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(prepared, prepared.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+
+    private void openSegment(long index, int size) throws IOException {
+        File file = segmentFile(index);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        segmentIndex = index;
+    }
+
+    /** Closes full segments, forcing them first unless the policy never forces. */
+    private static void close(List<Segment> segments, boolean force) {
+        for (Segment full : segments) {
+            if (force) {
+                full.buffer.force();
+            }
+            try {
+                full.channel.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close stable log segment", e);
+            }
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%s%020d%s", PREFIX, index, SUFFIX));
+    }
+
+    /** Indexes of the segment files, in log order. */
+    private long[] segments() {
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (names == null) {
+            return new long[0];
+        }
+        long[] indexes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = Long.parseLong(names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+        }
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    private void syncLoop() {
+        try {
+            while (true) {
+                MappedByteBuffer toForce;
+                List<Segment> full;
+                long target;
+                List<Runnable> done;
+                synchronized (this) {
+                    if (policy == SyncPolicy.GROUP) {
+                        while (!closed && appended == synced) {
+                            wait();
+                        }
+                    } else if (!closed) {
+                        wait(syncInterval);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    toForce = segment;
+                    full = retired;
+                    retired = new ArrayList<>();
+                    target = appended;
+                    done = waiting;
+                    waiting = new ArrayList<>();
+                }
+
+                close(full, true);
+                toForce.force();
+
+                synchronized (this) {
+                    synced = target;
+                }
+                if (!done.isEmpty()) {
+                    callbacks.execute(() -> {
+                        for (Runnable callback : done) {
+                            callback.run();
+                        }
+                    });
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Stable log sync thread interrupted");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Runnable> done;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            close(retired, policy != SyncPolicy.NONE);
+            retired = new ArrayList<>();
+            segment.force();
+            channel.close();
+            done = waiting;
+            waiting = new ArrayList<>();
+        }
+        preparer.shutdown();
+        if (next != null) {
+            try {
+                next.get().channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.warn("Cannot prepare the next stable log segment", e.getCause());
+            }
+            Files.deleteIfExists(new File(directory, NEXT_FILE).toPath());
+        }
+        for (Runnable callback : done) {
+            callback.run();
+        }
+    }
+
+    /** A mapped segment file. */
+    private static final class Segment {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package hyflow.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dispatcher with one queue set per thread. A task goes to the thread its
+ * affinity key hashes to, so the messages of one request are handled on one
+ * core; a thread that runs out of work takes tasks from the others. Instead
+ * of a heap, each thread keeps {@value #BANDS} FIFO priority bands and
+ * empties the higher ones first.
+ */
+public final class AffinityDispatcher implements Dispatcher {
+    private final static Logger logger = LogManager.getLogger(AffinityDispatcher.class);
+
+    static final int BANDS = 3;
+    /* priority of the first and second bands; lower priorities go to the last one */
+    static final int URGENT_PRIORITY = 10;
+    static final int NORMAL_PRIORITY = 1;
+
+    private final Worker[] workers;
+    /* workers parked or about to park */
+    private final AtomicInteger idle = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    public AffinityDispatcher(String threadName, int count) {
+        workers = new Worker[Math.max(1, count)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(threadName + i);
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    static int band(int priority) {
+        if (priority >= URGENT_PRIORITY) {
+            return 0;
+        }
+        return priority >= NORMAL_PRIORITY ? 1 : 2;
+    }
+
+    @Override
+    public void execute(Runnable task, int priority, long key) {
+        // spread keys that differ only in the high bits, like packed request ids
+        long hash = key * 0x9E3779B97F4A7C15L;
+        Worker worker = workers[(int) ((hash >>> 32) % workers.length)];
+        worker.bands[band(priority)].add(task);
+        if (worker.parked) {
+            LockSupport.unpark(worker);
+        } else if (idle.get() > 0) {
+            wakeThief(worker);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task, int priority) {
+        execute(task, priority, ThreadLocalRandom.current().nextLong());
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, NORMAL_PRIORITY);
+    }
+
+    /** Lets an idle worker steal from the busy {@code owner}. */
+    private void wakeThief(Worker owner) {
+        for (Worker worker : workers) {
+            if (worker != owner && worker.parked) {
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Worker worker : workers) {
+            for (Queue<Runnable> band : worker.bands) {
+                band.clear();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private Runnable steal(Worker thief) {
+        int start = ThreadLocalRandom.current().nextInt(workers.length);
+        for (int b = 0; b < BANDS; b++) {
+            for (int i = 0; i < workers.length; i++) {
+                Worker victim = workers[(start + i) % workers.length];
+                if (victim != thief) {
+                    Runnable task = victim.bands[b].poll();
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<Runnable>[] newBands() {
+        return new Queue[BANDS];
+    }
+
+    private final class Worker extends Thread {
+        private final Queue<Runnable>[] bands = newBands();
+        private volatile boolean parked;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+            for (int b = 0; b < BANDS; b++) {
+                bands[b] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        private Runnable next() {
+            for (Queue<Runnable> band : bands) {
+                Runnable task = band.poll();
+                if (task != null) {
+                    return task;
+                }
+            }
+            return steal(this);
+        }
+
+        @Override
+        public void run() {
+            while (!shutdown) {
+                Runnable task = next();
+                if (task == null) {
+                    // announce the park before the last look, so a submitter either
+                    // sees it and unparks, or its task is found by the look
+                    parked = true;
+                    idle.incrementAndGet();
+                    task = next();
+                    if (task == null && !shutdown) {
+                        LockSupport.park(this);
+                    }
+                    idle.decrementAndGet();
+                    parked = false;
+                    if (task == null) {
+                        continue;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.fatal("Task failed: " + task, t);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package hyflow.common;
+
+import java.util.Arrays;
+
+/**
+ * The command a client submitted: its id, the objects it accesses and its
+ * payload. It never changes once created, so every copy of a request made
+ * during consensus shares the same instance.
+ */
+public final class Command {
+
+    private final RequestId id;
+    private final int[] objectIds;
+    private final byte[] payload;
+
+    public Command(RequestId id, int[] objectIds, byte[] payload) {
+        this.id = id;
+        this.objectIds = objectIds;
+        this.payload = payload;
+    }
+
+    public RequestId getId() {
+        return id;
+    }
+
+    public int[] getObjectIds() {
+        return objectIds;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "Command{" +
+                "id=" + id +
+                ", objectIds=" + Arrays.toString(objectIds) +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package hyflow.common;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs message handlers. Tasks carry a priority, higher first, and an
+ * affinity key; implementations may run tasks with the same key on the
+ * same thread.
+ */
+public interface Dispatcher extends Executor {
+
+    void execute(Runnable task, int priority, long key);
+
+    void execute(Runnable task, int priority);
+
+    /** Drops the tasks that have not started yet. */
+    void clear();
+
+    void shutdown();
+
+    /** Creates the dispatcher named by {@link ProcessDescriptor#dispatcherType}. */
+    static Dispatcher create(String name, int threads) {
+        String type = ProcessDescriptor.getInstance().dispatcherType;
+        switch (type.toLowerCase()) {
+            case "affinity":
+                return new AffinityDispatcher(name, threads);
+            case "priority":
+                return new ThreadDispatcher(name, threads);
+            default:
+                throw new IllegalArgumentException("Unknown DispatcherType " + type);
+        }
+    }
+}
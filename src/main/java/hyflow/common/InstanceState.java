@@ -0,0 +1,24 @@
+package hyflow.common;
+
+import java.util.Collection;
+
+/**
+ * Immutable consensus state of a request as of one instant. A change of any
+ * field makes a new instance, so the fields read from one instance always
+ * belong together. The object stays within a single cache line.
+ */
+public final class InstanceState {
+    public final long position;
+    public final RequestStatus status;
+    public final int view;
+    public final boolean hasWhitelist;
+    public final Collection<RequestId> pred;
+
+    InstanceState(long position, RequestStatus status, int view, boolean hasWhitelist, Collection<RequestId> pred) {
+        this.position = position;
+        this.status = status;
+        this.view = view;
+        this.hasWhitelist = hasWhitelist;
+        this.pred = pred;
+    }
+}
@@ -0,0 +1,123 @@
+package hyflow.common;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive longs, used for sets of packed
+ * request ids ({@link RequestId#toLong()}) so that building and probing them
+ * does not box. Not thread safe.
+ */
+public final class LongHashSet {
+
+    /* marks a free cell; the key itself is tracked by hasFree */
+    private static final long FREE = 0;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasFree;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size + (hasFree ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** @return true if the key was not in the set */
+    public boolean add(long key) {
+        if (key == FREE) {
+            boolean added = !hasFree;
+            hasFree = true;
+            return added;
+        }
+        int i = index(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == FREE) {
+            return hasFree;
+        }
+        int i = index(key);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        hasFree = false;
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size()];
+        int n = 0;
+        if (hasFree) {
+            result[n++] = FREE;
+        }
+        for (long key : keys) {
+            if (key != FREE) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    public long[] toSortedArray() {
+        long[] result = toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toSortedArray());
+    }
+
+    private int index(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        for (long key : old) {
+            if (key != FREE) {
+                int i = index(key);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package hyflow.common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only set of request ids kept in their wire format, a count
+ * followed by (short clientId, int seqNumber) entries. Predecessor lists of
+ * received messages stay in this form; a {@link RequestId} is only created
+ * for the entry being iterated or looked up.
+ * <p>
+ * Lookups are binary searches when the entries arrived in packed order
+ * ({@link RequestId#toLong()}), which is how the <code>of</code> factories
+ * write them, and linear scans otherwise.
+ */
+public final class PackedRequestIds extends AbstractSet<RequestId> {
+
+    private static final int ENTRY_SIZE = 2 + 4;
+
+    public static final PackedRequestIds EMPTY = new PackedRequestIds(ByteBuffer.allocate(0), 0);
+
+    /* entries only, starting at 0 */
+    private final ByteBuffer entries;
+    private final int size;
+    private final boolean sorted;
+
+    private PackedRequestIds(ByteBuffer entries, int size) {
+        this.entries = entries;
+        this.size = size;
+        this.sorted = checkSorted();
+    }
+
+    private PackedRequestIds(ByteBuffer entries, int size, boolean sorted) {
+        this.entries = entries;
+        this.size = size;
+        this.sorted = sorted;
+    }
+
+    /**
+     * Takes the list at the current position of {@code bb} without copying
+     * it and moves past it. The list shares {@code bb}'s content, which must
+     * therefore not be reused while the list is reachable.
+     */
+    public static PackedRequestIds read(ByteBuffer bb) {
+        int size = bb.getInt();
+        if (size == 0) {
+            return EMPTY;
+        }
+        ByteBuffer entries = bb.slice();
+        entries.limit(size * ENTRY_SIZE);
+        bb.position(bb.position() + size * ENTRY_SIZE);
+        return new PackedRequestIds(entries, size);
+    }
+
+    public static PackedRequestIds read(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size == 0) {
+            return EMPTY;
+        }
+        byte[] entries = new byte[size * ENTRY_SIZE];
+        input.readFully(entries);
+        return new PackedRequestIds(ByteBuffer.wrap(entries), size);
+    }
+
+    /** Packs {@code ids} in sorted order. */
+    public static PackedRequestIds of(Collection<RequestId> ids) {
+        if (ids instanceof PackedRequestIds) {
+            return (PackedRequestIds) ids;
+        }
+        long[] packed = toLongArray(ids);
+        Arrays.sort(packed);
+        return ofSorted(packed);
+    }
+
+    /** Packs the ids of {@code ids} in sorted order. */
+    public static PackedRequestIds of(LongHashSet ids) {
+        return ofSorted(ids.toSortedArray());
+    }
+
+    private static PackedRequestIds ofSorted(long[] packed) {
+        if (packed.length == 0) {
+            return EMPTY;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(packed.length * ENTRY_SIZE);
+        for (long id : packed) {
+            entries.putShort(RequestId.clientId(id));
+            entries.putInt(RequestId.seqNumber(id));
+        }
+        entries.clear();
+        return new PackedRequestIds(entries, packed.length, true);
+    }
+
+    /**
+     * Sorted union of the given lists (null entries are skipped), by a k-way
+     * merge of their entries. Lists that did not arrive sorted are sorted
+     * first.
+     */
+    public static PackedRequestIds union(PackedRequestIds... lists) {
+        int k = 0;
+        int total = 0;
+        PackedRequestIds single = EMPTY;
+        for (PackedRequestIds list : lists) {
+            if (list != null && list.size > 0) {
+                k++;
+                total += list.size;
+                single = list;
+            }
+        }
+        if (k <= 1 && single.sorted) {
+            return single;
+        }
+
+        PackedRequestIds[] inputs = new PackedRequestIds[k];
+        int[] heads = new int[k];
+        k = 0;
+        for (PackedRequestIds list : lists) {
+            if (list != null && list.size > 0) {
+                inputs[k++] = list.sorted ? list : ofSorted(sortedLongs(list));
+            }
+        }
+
+        ByteBuffer entries = ByteBuffer.allocate(total * ENTRY_SIZE);
+        int size = 0;
+        long last = 0;
+        while (true) {
+            // few inputs (one per replica), so a scan of the heads beats a heap
+            int min = -1;
+            long minId = 0;
+            for (int i = 0; i < k; i++) {
+                if (heads[i] < inputs[i].size) {
+                    long id = inputs[i].getLong(heads[i]);
+                    if (min < 0 || id < minId) {
+                        min = i;
+                        minId = id;
+                    }
+                }
+            }
+            if (min < 0) {
+                break;
+            }
+            heads[min]++;
+            if (size == 0 || minId != last) {
+                entries.putShort(RequestId.clientId(minId));
+                entries.putInt(RequestId.seqNumber(minId));
+                last = minId;
+                size++;
+            }
+        }
+        entries.flip();
+        return new PackedRequestIds(entries.slice(), size, true);
+    }
+
+    private static long[] sortedLongs(PackedRequestIds list) {
+        long[] packed = toLongArray(list);
+        Arrays.sort(packed);
+        return packed;
+    }
+
+    /** Writes {@code ids} in the format read by {@link #read(ByteBuffer)}. */
+    public static void write(Collection<RequestId> ids, ByteBuffer bb) {
+        if (ids instanceof PackedRequestIds) {
+            ((PackedRequestIds) ids).writeTo(bb);
+            return;
+        }
+        bb.putInt(ids.size());
+        for (RequestId rId : ids) {
+            rId.writeTo(bb);
+        }
+    }
+
+    /** Adds the packed form of every id in {@code ids} to {@code set}. */
+    public static void addAll(Collection<RequestId> ids, LongHashSet set) {
+        if (ids instanceof PackedRequestIds) {
+            ((PackedRequestIds) ids).addTo(set);
+            return;
+        }
+        for (RequestId rId : ids) {
+            set.add(rId.toLong());
+        }
+    }
+
+    /** The ids of {@code ids} in packed form, in iteration order. */
+    public static long[] toLongArray(Collection<RequestId> ids) {
+        long[] packed = new long[ids.size()];
+        if (ids instanceof PackedRequestIds) {
+            PackedRequestIds list = (PackedRequestIds) ids;
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = list.getLong(i);
+            }
+        } else {
+            int n = 0;
+            for (RequestId rId : ids) {
+                packed[n++] = rId.toLong();
+            }
+        }
+        return packed;
+    }
+
+    /** Encoded size of a list of {@code count} ids. */
+    public static int byteSize(int count) {
+        return 4 + count * ENTRY_SIZE;
+    }
+
+    public void writeTo(ByteBuffer bb) {
+        bb.putInt(size);
+        bb.put(entries.duplicate());
+    }
+
+    public int byteSize() {
+        return byteSize(size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public short clientId(int index) {
+        return entries.getShort(index * ENTRY_SIZE);
+    }
+
+    public int seqNumber(int index) {
+        return entries.getInt(index * ENTRY_SIZE + 2);
+    }
+
+    /** Entry {@code index} as a packed id, see {@link RequestId#toLong()}. */
+    public long getLong(int index) {
+        return RequestId.pack(clientId(index), seqNumber(index));
+    }
+
+    public RequestId get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return new RequestId(clientId(index), seqNumber(index));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof RequestId)) {
+            return false;
+        }
+        return contains(((RequestId) o).toLong());
+    }
+
+    public boolean contains(long id) {
+        return sorted ? search(id) >= 0 : scan(id) >= 0;
+    }
+
+    /** Adds all entries to {@code set}. */
+    public void addTo(LongHashSet set) {
+        for (int i = 0; i < size; i++) {
+            set.add(getLong(i));
+        }
+    }
+
+    private int search(long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = getLong(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int scan(long id) {
+        for (int i = 0; i < size; i++) {
+            if (getLong(i) == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean checkSorted() {
+        for (int i = 1; i < size; i++) {
+            if (getLong(i) <= getLong(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<RequestId> iterator() {
+        return new Iterator<RequestId>() {
+            private int index = 0;
+
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            public RequestId next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+}
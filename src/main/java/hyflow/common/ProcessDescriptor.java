@@ -35,8 +35,12 @@ public final class ProcessDescriptor {
      */
     public static final String NETWORK = "Network";
     public static final String DEFAULT_NETWORK = "TCP";
+    /** Number of selector threads shared by the NIO network channels */
+    public static final String SELECTOR_THREADS = "SelectorThreads";
+    public static final int DEFAULT_SELECTOR_THREADS = 2;
     /**
-     * The maximum size of batched request.
+     * The maximum size of batched request, in bytes of encoded client
+     * requests. A batch is proposed as soon as it reaches this size.
      */
     public static final String BATCH_SIZE = "BatchSize";
     public static final int DEFAULT_BATCH_SIZE = 65507;
@@ -51,9 +55,10 @@ public final class ProcessDescriptor {
      * Maximum time in ms that a batch can be delayed before being proposed.
      * Used to aggregate several requests on a single proposal, for greater
      * efficiency. (Naggle's algorithm for state machine replication).
+     * 0 disables batching. Must be the same on all replicas.
      */
     public static final String MAX_BATCH_DELAY = "MaxBatchDelay";
-    public static final int DEFAULT_MAX_BATCH_DELAY = 10;
+    public static final int DEFAULT_MAX_BATCH_DELAY = 0;
 
     /**
      * Before any snapshot was made, we need to have an estimate of snapshot
@@ -66,6 +71,21 @@ public final class ProcessDescriptor {
     public static final String TCP_RECONNECT_TIMEOUT = "TcpReconnectMilisecs";
     public static final long DEFAULT_TCP_RECONNECT_TIMEOUT = 1000;
 
+    /** Upper bound on the bytes a TCP sender hands to one gathering write */
+    public static final String TCP_MAX_WRITE_BYTES = "TcpMaxWriteBytes";
+    public static final int DEFAULT_TCP_MAX_WRITE_BYTES = 256 * 1024;
+
+    /**
+     * Precede every TCP message with its length, so that the receiver reads
+     * it whole and decodes it from the buffer. Must match on all replicas.
+     */
+    public static final String TCP_FRAMING = "TcpFraming";
+    public static final boolean DEFAULT_TCP_FRAMING = false;
+
+    /**
+     * Number of request slots. Slots are recycled once a request is garbage
+     * collected, so this bounds the requests in flight, not the total.
+     */
     private static final String PROPOSER_MAP_SIZE = "ProposerMapSize";
     private static final int DEFAULT_PROPOSER_MAP_SIZE = 100000;
 
@@ -99,15 +119,104 @@ public final class ProcessDescriptor {
     private static final String RECOVERY_LEADER = "RecoveryLeader";
     private static final int DEFAULT_RECOVERY_LEADER = 0;
 
+    /**
+     * How long to wait for a fast quorum after a classic one, in
+     * milliseconds; with the Adaptive policy, the longest wait.
+     */
     private static final String FP_TIMEOUT = "FPTimeout";
     private static final int DEFAULT_FP_TIMEOUT = 100;
 
+    /**
+     * Fixed waits FPTimeout; Adaptive waits until the fast quorum is
+     * expected from the reply latencies seen so far.
+     */
+    private static final String FP_TIMEOUT_POLICY = "FPTimeoutPolicy";
+    private static final String DEFAULT_FP_TIMEOUT_POLICY = "Adaptive";
+
+    /** Shortest wait of the Adaptive policy, in milliseconds */
+    private static final String FP_TIMEOUT_MIN = "FPTimeoutMin";
+    private static final int DEFAULT_FP_TIMEOUT_MIN = 1;
+
+    /**
+     * Keeps proposed positions at or above the wall clock in microseconds,
+     * like a hybrid logical clock.
+     */
+    private static final String HYBRID_TIMESTAMPS = "HybridTimestamps";
+    private static final boolean DEFAULT_HYBRID_TIMESTAMPS = false;
+
+    /**
+     * Dispatcher of the message handlers: Affinity (per thread queues keyed
+     * by request, with work stealing) or Priority (one shared priority heap).
+     */
+    private static final String DISPATCHER_TYPE = "DispatcherType";
+    private static final String DEFAULT_DISPATCHER_TYPE = "Affinity";
+
+    /** Records per request timings in the RequestProfile side table. */
+    private static final String PROFILE_REQUESTS = "ProfileRequests";
+    private static final boolean DEFAULT_PROFILE_REQUESTS = false;
+
     private static final String MONITOR_INTERVAL = "MonitorInterval";
     private static final int DEFAULT_MONITOR_INTERVAL = 2000;
 
     private static final String CONFLICT_POOL = "ConflictPool";
     private static final int DEFAULT_CONFLICT_POOL = 50;
 
+    /**
+     * Interval between watermark broadcasts used to garbage collect delivered
+     * requests from the conflict history. In milliseconds, 0 disables it.
+     */
+    private static final String GC_INTERVAL = "GCInterval";
+    private static final int DEFAULT_GC_INTERVAL = 1000;
+
+    /**
+     * Directory of the write-ahead log of stable decisions, replayed on
+     * start. Empty disables the log.
+     */
+    private static final String WAL_DIRECTORY = "WalDirectory";
+    private static final String DEFAULT_WAL_DIRECTORY = "";
+
+    /** Size of a log segment file, in bytes */
+    private static final String WAL_SEGMENT_SIZE = "WalSegmentSize";
+    private static final int DEFAULT_WAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * When stable decisions count as persisted: None (written to the page
+     * cache), Periodic (forced every WalSyncInterval ms) or Group (after the
+     * next force, shared by all records waiting for it).
+     */
+    private static final String WAL_SYNC_POLICY = "WalSyncPolicy";
+    private static final String DEFAULT_WAL_SYNC_POLICY = "Group";
+
+    /** Interval between forces of the Periodic sync policy, in milliseconds */
+    private static final String WAL_SYNC_INTERVAL = "WalSyncInterval";
+    private static final int DEFAULT_WAL_SYNC_INTERVAL = 10;
+
+    /**
+     * Directory where snapshots of the service state are kept and restored
+     * from on start. Empty disables snapshots.
+     */
+    private static final String SNAPSHOT_DIRECTORY = "SnapshotDirectory";
+    private static final String DEFAULT_SNAPSHOT_DIRECTORY = "";
+
+    /** Interval between snapshots, in milliseconds */
+    private static final String SNAPSHOT_INTERVAL = "SnapshotInterval";
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 60000;
+
+    /** Maximum number of requests recovered by one Recovery message */
+    private static final String RECOVERY_BATCH_SIZE = "RecoveryBatchSize";
+    private static final int DEFAULT_RECOVERY_BATCH_SIZE = 1024;
+
+    /**
+     * Replica to fetch the state from on start, over the state transfer
+     * connection. -1 starts from the local snapshot and log only.
+     */
+    private static final String CATCH_UP_FROM = "CatchUpFrom";
+    private static final int DEFAULT_CATCH_UP_FROM = -1;
+
+    /** Rate at which a replica sends its state to another, in bytes per second; 0 is unlimited */
+    private static final String CATCH_UP_BANDWIDTH = "CatchUpBandwidth";
+    private static final int DEFAULT_CATCH_UP_BANDWIDTH = 32 * 1024 * 1024;
+
     /*
      * Singleton class with static access. This allows any class on the JVM to
      * statically access the process descriptor without needing to be given a
@@ -129,8 +238,14 @@ public final class ProcessDescriptor {
     public final int maxUdpPacketSize;
 
     public final String network;
+    public final int selectorThreads;
+
+    public final int batchSize;
+    public final int maxBatchDelay;
 
     public final long tcpReconnectTimeout;
+    public final int tcpMaxWriteBytes;
+    public final boolean tcpFraming;
     public final int fdSuspectTimeout;
     public final int fdSendTimeout;
 
@@ -150,8 +265,25 @@ public final class ProcessDescriptor {
 
     public final int recoveryLeader;
     public final int fpTimeout;
+    public final String fpTimeoutPolicy;
+    public final int fpTimeoutMin;
+    public final boolean hybridTimestamps;
+    public final String dispatcherType;
+    public final boolean profileRequests;
     public final int monitorInterval;
     public final int conflictPool;
+    public final int gcInterval;
+
+    public final String walDirectory;
+    public final int walSegmentSize;
+    public final String walSyncPolicy;
+    public final int walSyncInterval;
+
+    public final String snapshotDirectory;
+    public final int snapshotInterval;
+    public final int recoveryBatchSize;
+    public final int catchUpFrom;
+    public final int catchUpBandwidth;
 
     private ProcessDescriptor(Configuration config, int localId) {
         this.localId = localId;
@@ -176,17 +308,21 @@ public final class ProcessDescriptor {
         this.zmqHost = config.getProperty(ZMQ_HOST, DEFAULT_ZMQ_HOST);
         this.zmqPort = config.getProperty(ZMQ_PORT, DEFAULT_ZMQ_PORT);
 
-//        this.batchingLevel = config.getIntProperty(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        this.batchSize = config.getIntProperty(BATCH_SIZE, DEFAULT_BATCH_SIZE);
         this.maxUdpPacketSize = config.getIntProperty(MAX_UDP_PACKET_SIZE,
                 DEFAULT_MAX_UDP_PACKET_SIZE);
-//        this.maxBatchDelay = config.getIntProperty(MAX_BATCH_DELAY,
-//                DEFAULT_MAX_BATCH_DELAY);
+        this.maxBatchDelay = config.getIntProperty(MAX_BATCH_DELAY,
+                DEFAULT_MAX_BATCH_DELAY);
         this.network = config.getProperty(NETWORK, DEFAULT_NETWORK);
+        this.selectorThreads = config.getIntProperty(SELECTOR_THREADS, DEFAULT_SELECTOR_THREADS);
 
 //        this.retransmitTimeout = config.getLongProperty(RETRANSMIT_TIMEOUT,
 //                DEFAULT_RETRANSMIT_TIMEOUT);
         this.tcpReconnectTimeout = config.getLongProperty(TCP_RECONNECT_TIMEOUT,
                 DEFAULT_TCP_RECONNECT_TIMEOUT);
+        this.tcpMaxWriteBytes = config.getIntProperty(TCP_MAX_WRITE_BYTES,
+                DEFAULT_TCP_MAX_WRITE_BYTES);
+        this.tcpFraming = config.getBooleanProperty(TCP_FRAMING, DEFAULT_TCP_FRAMING);
 
         this.fdSuspectTimeout = config.getIntProperty(FD_SUSPECT_TO,
                 DEFAULT_FD_SUSPECT_TO);
@@ -198,12 +334,33 @@ public final class ProcessDescriptor {
 
         this.fpTimeout = config.getIntProperty(FP_TIMEOUT,
                 DEFAULT_FP_TIMEOUT);
+        this.fpTimeoutPolicy = config.getProperty(FP_TIMEOUT_POLICY, DEFAULT_FP_TIMEOUT_POLICY);
+        this.fpTimeoutMin = config.getIntProperty(FP_TIMEOUT_MIN, DEFAULT_FP_TIMEOUT_MIN);
+        this.hybridTimestamps = config.getBooleanProperty(HYBRID_TIMESTAMPS, DEFAULT_HYBRID_TIMESTAMPS);
+        this.dispatcherType = config.getProperty(DISPATCHER_TYPE, DEFAULT_DISPATCHER_TYPE);
 
+        this.profileRequests = config.getBooleanProperty(PROFILE_REQUESTS, DEFAULT_PROFILE_REQUESTS);
         this.monitorInterval = config.getIntProperty(MONITOR_INTERVAL,
                 DEFAULT_MONITOR_INTERVAL);
 
         this.conflictPool = config.getIntProperty(CONFLICT_POOL,
                 DEFAULT_CONFLICT_POOL);
+
+        this.gcInterval = config.getIntProperty(GC_INTERVAL,
+                DEFAULT_GC_INTERVAL);
+
+        this.walDirectory = config.getProperty(WAL_DIRECTORY, DEFAULT_WAL_DIRECTORY);
+        this.walSegmentSize = config.getIntProperty(WAL_SEGMENT_SIZE, DEFAULT_WAL_SEGMENT_SIZE);
+        this.walSyncPolicy = config.getProperty(WAL_SYNC_POLICY, DEFAULT_WAL_SYNC_POLICY);
+        this.walSyncInterval = config.getIntProperty(WAL_SYNC_INTERVAL, DEFAULT_WAL_SYNC_INTERVAL);
+
+        this.snapshotDirectory = config.getProperty(SNAPSHOT_DIRECTORY, DEFAULT_SNAPSHOT_DIRECTORY);
+        this.snapshotInterval = config.getIntProperty(SNAPSHOT_INTERVAL, DEFAULT_SNAPSHOT_INTERVAL);
+
+        this.recoveryBatchSize = config.getIntProperty(RECOVERY_BATCH_SIZE, DEFAULT_RECOVERY_BATCH_SIZE);
+
+        this.catchUpFrom = config.getIntProperty(CATCH_UP_FROM, DEFAULT_CATCH_UP_FROM);
+        this.catchUpBandwidth = config.getIntProperty(CATCH_UP_BANDWIDTH, DEFAULT_CATCH_UP_BANDWIDTH);
     }
 
     public static void initialize(Configuration config, int localId) {
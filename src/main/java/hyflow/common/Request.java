@@ -1,128 +1,130 @@
 package hyflow.common;
 
-import hyflow.caesar.FastProposeReplyInfo;
-
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Request from the user which needs to be inserted in state machine. It can 
  * also be a transaction if this partial order is used to insert transactions
  * from clients.
- * 
+ * <p>
+ * A request pairs the immutable {@link Command} with its consensus state.
+ * The state is an immutable {@link InstanceState} published through a
+ * volatile field: readers load it without locking, and writers replace it
+ * with a compare-and-set. Timings are kept apart, in
+ * {@link hyflow.caesar.statistics.RequestProfile}.
  */
 public final class Request implements Comparable<Request> {
 
-    public RequestId requestId;
-    public int[] objectIds;
+    private static final AtomicReferenceFieldUpdater<Request, InstanceState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Request.class, InstanceState.class, "state");
 
-    public byte[] payload;
+    private final Command command;
+    private volatile InstanceState state;
 
-    private Collection<RequestId> pred;
+    public Request(RequestId requestId, int[] objectIds, byte[] payload) {
+        this(new Command(requestId, objectIds, payload));
+    }
 
-    private long position;
-    private RequestStatus status;
-    private int view;
+    public Request(Command command) {
+        this.command = command;
+        this.state = new InstanceState(-1, RequestStatus.Waiting, 0, false, PackedRequestIds.EMPTY);
+    }
 
-    private boolean hasWhitelist;
+    public Request(RequestId requestId, int[] objectIds, byte[] payload,
+                   long position, Collection<RequestId> pred, RequestStatus status, int view) {
+        this(new Command(requestId, objectIds, payload), position, pred, status, view);
+    }
 
-    public long startWait;
-    public int waitDuration;
-    public long startPropose;
-    public long proposeDuration;
-    public long startDeliver;
-    public long deliverDuration;
-    public long startRetry;
-    public long retryDuration;
-    public FastProposeReplyInfo info;
+    public Request(Command command, long position, Collection<RequestId> pred, RequestStatus status, int view) {
+        this.command = command;
+        this.state = new InstanceState(position, status, view, false, pred == null ? PackedRequestIds.EMPTY : pred);
+    }
 
-    public Request(RequestId requestId, int[] objectIds, byte[] payload) {
-        this.requestId = requestId;
-        this.objectIds = objectIds;
-        this.payload = payload;
-        this.status = RequestStatus.Waiting;
-        this.pred = new TreeSet<>();
-        this.view = 0;
-        this.position = -1;
+    public Command getCommand() {
+        return command;
     }
 
-    public Request(RequestId requestId, int[] objectIds, byte[] payload,
-                   long position, Collection<RequestId> pred, RequestStatus status, int view) {
-        this.requestId = requestId;
-        this.objectIds = objectIds;
-        this.payload = payload;
-        this.position = position;
-        this.pred = pred == null ? new TreeSet<>() : pred;
-        this.status = status;
-        this.view = view;
+    /** The position, status, view and pred as of one instant. */
+    public InstanceState getState() {
+        return state;
     }
 
-    public synchronized long getPosition() {
-        return position;
+    public long getPosition() {
+        return state.position;
     }
 
-    public synchronized void setPosition(long position) {
-        this.position = position;
+    public void setPosition(long position) {
+        InstanceState current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new InstanceState(position, current.status,
+                current.view, current.hasWhitelist, current.pred)));
     }
 
     public int[] getObjectIds() {
-        return objectIds;
+        return command.getObjectIds();
     }
 
     public RequestId getId() {
-        return requestId;
+        return command.getId();
     }
 
     public byte[] getPayload() {
-        return payload;
+        return command.getPayload();
     }
 
-    public synchronized RequestStatus getStatus() {
-        return status;
+    public RequestStatus getStatus() {
+        return state.status;
     }
 
-    public synchronized void setStatus(RequestStatus status) {
-        this.status = status;
+    public void setStatus(RequestStatus status) {
+        InstanceState current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new InstanceState(current.position, status,
+                current.view, current.hasWhitelist, current.pred)));
     }
 
-    public synchronized Collection<RequestId> getPred() {
-        return pred;
+    public Collection<RequestId> getPred() {
+        return state.pred;
     }
 
-    public synchronized void setPred(Collection<RequestId> pred) {
-        this.pred = pred;
+    public void setPred(Collection<RequestId> pred) {
+        InstanceState current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new InstanceState(current.position, current.status,
+                current.view, current.hasWhitelist, pred)));
     }
 
     public boolean hasWhitelist() {
-        return hasWhitelist;
+        return state.hasWhitelist;
     }
 
     public void setHasWhitelist(boolean hasWhitelist) {
-        this.hasWhitelist = hasWhitelist;
-    }
-
-    public synchronized int getView() {
-        return view;
+        InstanceState current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new InstanceState(current.position, current.status,
+                current.view, hasWhitelist, current.pred)));
     }
 
-    public synchronized void setView(int view) {
-        this.view = view;
+    public int getView() {
+        return state.view;
     }
 
-    public synchronized void updateWith(Request other) {
-        view = other.view;
-        pred = other.pred;
-        position = other.position;
-        status = other.status;
+    public void setView(int view) {
+        InstanceState current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, new InstanceState(current.position, current.status,
+                view, current.hasWhitelist, current.pred)));
     }
 
-    public synchronized void init(Request newReq) {
-        requestId = newReq.requestId;
-        objectIds = newReq.objectIds;
-        payload = newReq.payload;
-        view = newReq.view;
-        pred = newReq.pred;
-        position = newReq.position;
-        status = newReq.status;
+    /** Takes over the consensus state of {@code other} at once. */
+    public void updateWith(Request other) {
+        state = other.state;
     }
 
     @Override
@@ -133,25 +135,26 @@ public final class Request implements Comparable<Request> {
         if(other == this)
             return true;
 
-        return ((Request) other).requestId.equals(this.requestId);
+        return ((Request) other).getId().equals(getId());
     }
 
     @Override
     public int compareTo(Request o) {
-        return requestId.compareTo(o.requestId);
+        return getId().compareTo(o.getId());
     }
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
+        InstanceState state = this.state;
         return "Request{" +
-                "requestId=" + requestId +
-                ", objectIds=" + Arrays.toString(objectIds) +
+                "requestId=" + getId() +
+                ", objectIds=" + Arrays.toString(getObjectIds()) +
 //                ", payload=" + Arrays.toString(payload) +
 //                ", pred=" + pred +
-                ", position=" + position +
-                ", status=" + status +
+                ", position=" + state.position +
+                ", status=" + state.status +
 //                ", view=" + view +
                 '}';
     }
 
-}
\ No newline at end of file
+}
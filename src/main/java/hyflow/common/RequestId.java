@@ -34,6 +34,11 @@ public class RequestId implements Serializable, Comparable<RequestId> {
         this.seqNumber = input.readInt();
     }
 
+    public RequestId(ByteBuffer bb) {
+        this.clientId = bb.getShort();
+        this.seqNumber = bb.getInt();
+    }
+
     /**
      * Returns the id of client.
      * 
@@ -56,6 +61,31 @@ public class RequestId implements Serializable, Comparable<RequestId> {
         return 2 + 4;
     }
 
+    /**
+     * Packs the id into a long, client id in the upper half and sequence
+     * number in the lower one. For non-negative ids, packed values compare
+     * like {@link #compareTo(RequestId)}.
+     */
+    public long toLong() {
+        return pack(clientId, seqNumber);
+    }
+
+    public static long pack(int clientId, int seqNumber) {
+        return ((long) clientId << 32) | (seqNumber & 0xFFFFFFFFL);
+    }
+
+    public static RequestId fromLong(long packed) {
+        return new RequestId(clientId(packed), seqNumber(packed));
+    }
+
+    public static short clientId(long packed) {
+        return (short) (packed >> 32);
+    }
+
+    public static int seqNumber(long packed) {
+        return (int) packed;
+    }
+
     public void writeTo(ByteBuffer bb) {
         bb.putShort(clientId);
         bb.putInt(seqNumber);
@@ -15,7 +15,7 @@ import java.util.concurrent.*;
  *
  * @author Nuno Santos (LSR)
  */
-public class ThreadDispatcher extends ThreadPoolExecutor {
+public class ThreadDispatcher extends ThreadPoolExecutor implements Dispatcher {
     private final static Logger logger = LogManager.getLogger(ThreadDispatcher.class.getCanonicalName());
 
     private final NamedThreadFactory ntf;
@@ -31,10 +31,31 @@ public class ThreadDispatcher extends ThreadPoolExecutor {
         });
     }
 
+    @Override
+    public void execute(Runnable command, int priority, long key) {
+        execute(command, priority);
+    }
+
+    @Override
     public void execute(Runnable command, int priority) {
         super.execute(new PriorityFutureTask(command, null, priority));
     }
 
+    /** Runs the task at priority 0; the queue only holds prioritized tasks. */
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof PriorityFutureTask) {
+            super.execute(command);
+        } else {
+            execute(command, 0);
+        }
+    }
+
+    @Override
+    public void clear() {
+        getQueue().clear();
+    }
+
     public Future<?> submit(Runnable task, int priority) {
         return super.submit(new PriorityFutureTask(task, null, priority));
     }
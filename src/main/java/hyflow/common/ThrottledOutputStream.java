@@ -0,0 +1,55 @@
+package hyflow.common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Limits the rate of the bytes written to a stream. Writes sleep while the
+ * bytes written so far are ahead of the allowed rate, so bulk transfers do
+ * not take the bandwidth of other connections. A burst of one second is
+ * allowed after an idle period.
+ */
+public final class ThrottledOutputStream extends FilterOutputStream {
+
+    private final long bytesPerSecond;
+    /* time at which the bytes written so far are allowed, in nanoseconds */
+    private long allowedAt;
+
+    /** @param bytesPerSecond maximum rate; 0 or less does not limit it */
+    public ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+        super(out);
+        this.bytesPerSecond = bytesPerSecond;
+        this.allowedAt = System.nanoTime();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        throttle(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        throttle(len);
+        out.write(b, off, len);
+    }
+
+    private void throttle(int bytes) throws IOException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        allowedAt = Math.max(allowedAt, now - 1_000_000_000L) + bytes * 1_000_000_000L / bytesPerSecond;
+        long wait = allowedAt - now;
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
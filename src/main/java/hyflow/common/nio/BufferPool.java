@@ -0,0 +1,72 @@
+package hyflow.common.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers used to serialize outgoing messages. Buffers come in
+ * power of two size classes from {@value #MIN_SIZE} bytes to {@value #MAX_SIZE}
+ * bytes; each class keeps at most {@value #MAX_POOLED_BYTES} bytes of idle
+ * buffers. Larger requests get a one-off heap buffer that is never pooled.
+ */
+public final class BufferPool {
+
+    static final int MIN_SIZE = 256;
+    static final int MAX_SIZE = 1 << 20;
+    static final int MAX_POOLED_BYTES = 8 << 20;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicInteger[] freeCount;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool() {
+        int classes = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+        free = new Queue[classes];
+        freeCount = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            freeCount[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns a buffer with at least {@code size} bytes, positioned at 0 and
+     * limited to {@code size}, holding one reference.
+     */
+    public PooledBuffer allocate(int size) {
+        if (size > MAX_SIZE) {
+            ByteBuffer bb = ByteBuffer.allocate(size);
+            return new PooledBuffer(bb, null, -1);
+        }
+
+        int sizeClass = sizeClass(size);
+        ByteBuffer bb = free[sizeClass].poll();
+        if (bb == null) {
+            bb = ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+        } else {
+            freeCount[sizeClass].decrementAndGet();
+        }
+        bb.clear().limit(size);
+        return new PooledBuffer(bb, this, sizeClass);
+    }
+
+    void recycle(ByteBuffer bb, int sizeClass) {
+        if (freeCount[sizeClass].incrementAndGet() * (MIN_SIZE << sizeClass) > MAX_POOLED_BYTES) {
+            // pool is full; let the GC reclaim it
+            freeCount[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].offer(bb);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
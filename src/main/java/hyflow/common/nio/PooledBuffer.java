@@ -0,0 +1,62 @@
+package hyflow.common.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted buffer holding one serialized message. The same buffer is
+ * shared by every connection the message is sent to: each holder calls
+ * {@link #retain()} before handing it on and {@link #release()} when done, and
+ * the buffer returns to its {@link BufferPool} when the last reference goes.
+ * <p>
+ * Holders must read through {@link #duplicate()} so that positions do not
+ * interfere.
+ */
+public final class PooledBuffer {
+
+    private final ByteBuffer buffer;
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    PooledBuffer(ByteBuffer buffer, BufferPool pool, int sizeClass) {
+        this.buffer = buffer;
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+    }
+
+    /** Wraps bytes that do not come from a pool. */
+    public static PooledBuffer wrap(byte[] bytes) {
+        return new PooledBuffer(ByteBuffer.wrap(bytes), null, -1);
+    }
+
+    /** The underlying buffer, for the owner to fill in before sharing it. */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** An independent read view of the content, from position 0 to the limit. */
+    public ByteBuffer duplicate() {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(0);
+        return dup;
+    }
+
+    public int size() {
+        return buffer.limit();
+    }
+
+    public PooledBuffer retain() {
+        int prev = refCount.getAndIncrement();
+        assert prev > 0 : "retain after release";
+        return this;
+    }
+
+    public void release() {
+        int left = refCount.decrementAndGet();
+        assert left >= 0 : "buffer released too many times";
+        if (left == 0 && pool != null) {
+            pool.recycle(buffer, sizeClass);
+        }
+    }
+}
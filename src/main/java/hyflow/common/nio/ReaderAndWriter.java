@@ -4,14 +4,17 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 /**
  * This class provides default implementation of <code>ReadWriteHandler</code>
  * using java channels. It provides method used to send byte array, which will
- * be send as soon as there will be space in system send buffer. Reading data is
+ * be send as soon as there will be space in system send buffer. Messages may be
+ * queued from any thread; the selector thread writes up to
+ * {@value #MAX_GATHER} of them with a single gathering write. Reading data is
  * done using <code>PacketHandler</code>. After setting new
  * <code>PacketHandler</code> to this object, reading mode is enabled, and reads
  * data to fill entire byte buffer(provided by <code>PacketHandler</code>). If
@@ -23,12 +26,27 @@ import java.util.logging.Logger;
  */
 public final class ReaderAndWriter implements ReadWriteHandler {
     private final static Logger logger = Logger.getLogger(ReaderAndWriter.class.getCanonicalName());
+    /** Maximum number of messages written by one gathering write. */
+    static final int MAX_GATHER = 64;
+
     public final SocketChannel socketChannel;
     private final SelectorThread selectorThread;
-    /* Owned by the selector thread */
-    private final Queue<byte[]> messages;
+    private final Queue<PooledBuffer> messages;
+    /* set while a flush task is queued on the selector */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flushScheduled.set(false);
+            handleWrite();
+        }
+    };
     private PacketHandler packetHandler;
-    private ByteBuffer writeBuffer;
+    private Runnable closeHandler;
+
+    /* Owned by the selector thread: messages of the current gathering write */
+    private final PooledBuffer[] writing = new PooledBuffer[MAX_GATHER];
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_GATHER];
+    private int writeCount = 0;
 
     /**
      * Creates new <code>ReaderAndWrite</code> using socket channel and selector
@@ -46,7 +64,7 @@ public final class ReaderAndWriter implements ReadWriteHandler {
         // answers.
         this.socketChannel.socket().setTcpNoDelay(true);
         this.selectorThread = selectorThread;
-        this.messages = new ArrayDeque<byte[]>(4);
+        this.messages = new ConcurrentLinkedQueue<PooledBuffer>();
         this.selectorThread.scheduleRegisterChannel(socketChannel, 0, this);
     }
 
@@ -59,7 +77,19 @@ public final class ReaderAndWriter implements ReadWriteHandler {
     public void setPacketHandler(PacketHandler packetHandler) {
         assert this.packetHandler == null : "Previous packet wasn't read yet.";
         this.packetHandler = packetHandler;
-        selectorThread.scheduleAddChannelInterest(socketChannel, SelectionKey.OP_READ);
+        if (selectorThread.amIInSelector()) {
+            selectorThread.addChannelInterest(socketChannel, SelectionKey.OP_READ);
+        } else {
+            selectorThread.scheduleAddChannelInterest(socketChannel, SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Sets a task run on the selector thread once the channel is closed,
+     * whichever side closed it.
+     */
+    public void setCloseHandler(Runnable closeHandler) {
+        this.closeHandler = closeHandler;
     }
 
     /**
@@ -85,14 +115,17 @@ public final class ReaderAndWriter implements ReadWriteHandler {
                 }
 
                 // if the whole packet was read, then notifyClient packet handler;
-                // calling return instead of break cause that the OP_READ flag
-                // is not set ; to start reading again, new packet handler has
-                // to be set
+                // if it does not set a new packet handler we return, so the
+                // OP_READ flag is not set; otherwise keep reading what is
+                // already buffered
                 if (packetHandler.getByteBuffer().remaining() == 0) {
                     PacketHandler old = packetHandler;
                     packetHandler = null;
                     old.finished();
-                    return;
+                    if (packetHandler == null || !socketChannel.isOpen()) {
+                        return;
+                    }
+                    continue;
                 }
                 break;
             }
@@ -115,33 +148,49 @@ public final class ReaderAndWriter implements ReadWriteHandler {
     public void handleWrite() {
         // The might have disconnected. In that case, discard the message
         if (!socketChannel.isOpen()) {
+            releaseAll();
             return;
         }
         while (true) {
-            // If there is a message partial written, finished sending it.
-            // Otherwise, send the next message in the queue.
-            if (writeBuffer == null) {
-                byte[] msg = messages.poll();
+            // Messages partially written stay at the head of the gathering
+            // array; top it up with the next messages in the queue.
+            while (writeCount < MAX_GATHER) {
+                PooledBuffer msg = messages.poll();
                 if (msg == null) {
-                    // No more messages to send. Leave write interested off in channel
-                    return;
+                    break;
                 }
-                // create buffer from message
-                writeBuffer = ByteBuffer.wrap(msg);
+                writing[writeCount] = msg;
+                writeBuffers[writeCount] = msg.duplicate();
+                writeCount++;
+            }
+            if (writeCount == 0) {
+                // No more messages to send. Leave write interested off in channel
+                return;
             }
+
             // write as many bytes as possible
             try {
-                int writeBytes = socketChannel.write(writeBuffer);
+                socketChannel.write(writeBuffers, 0, writeCount);
             } catch (IOException e) {
                 logger.warning("Error writing to socket: " + socketChannel.socket().getInetAddress() + ". Exception: " + e);
                 close();
                 return;
             }
 
-            if (writeBuffer.remaining() == 0) {
-                // Finished with a message. Try to send the next message.
-                writeBuffer = null;
-            } else {
+            int done = 0;
+            while (done < writeCount && !writeBuffers[done].hasRemaining()) {
+                writing[done].release();
+                done++;
+            }
+            System.arraycopy(writing, done, writing, 0, writeCount - done);
+            System.arraycopy(writeBuffers, done, writeBuffers, 0, writeCount - done);
+            for (int i = writeCount - done; i < writeCount; i++) {
+                writing[i] = null;
+                writeBuffers[i] = null;
+            }
+            writeCount -= done;
+
+            if (writeCount > 0) {
                 // Current message was not fully sent. Register write interest before returning
                 selectorThread.addChannelInterest(socketChannel, SelectionKey.OP_WRITE);
                 return;
@@ -156,21 +205,43 @@ public final class ReaderAndWriter implements ReadWriteHandler {
      * @param message
      */
     public void send(final byte[] message) {
+        send(PooledBuffer.wrap(message));
+    }
+
+    /**
+     * Adds the message to the queue of messages to sent. Takes over one
+     * reference to the buffer, released once it is written or dropped. May be
+     * called from any thread; messages queued before the selector gets to
+     * them go out in one gathering write.
+     *
+     * @param message
+     */
+    public void send(PooledBuffer message) {
         // discard message if channel is not connected
         if (!socketChannel.isConnected()) {
+            message.release();
             return;
         }
-        if (selectorThread.amIInSelector()) {
-            messages.add(message);
-            handleWrite();
-        } else {
-            logger.warning("Not in selector. Thread: " + Thread.currentThread().getName());
-            selectorThread.beginInvoke(new Runnable() {
-                @Override
-                public void run() {
-                    messages.add(message);
-                    handleWrite();
-                }});
+        messages.add(message);
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (selectorThread.amIInSelector()) {
+                flushTask.run();
+            } else {
+                selectorThread.beginInvoke(flushTask);
+            }
+        }
+    }
+
+    private void releaseAll() {
+        for (int i = 0; i < writeCount; i++) {
+            writing[i].release();
+            writing[i] = null;
+            writeBuffers[i] = null;
+        }
+        writeCount = 0;
+        PooledBuffer msg;
+        while ((msg = messages.poll()) != null) {
+            msg.release();
         }
     }
 
@@ -192,11 +263,18 @@ public final class ReaderAndWriter implements ReadWriteHandler {
      */
     public void close() {
         assert selectorThread.amIInSelector();
+        if (!socketChannel.isOpen()) {
+            return;
+        }
         try {
             socketChannel.close();
         } catch (IOException e) {
             logger.warning("Error closing socket: " + e.getMessage());
         }
+        releaseAll();
+        if (closeHandler != null) {
+            closeHandler.run();
+        }
     }
 
     public SelectorThread getSelectorThread() {
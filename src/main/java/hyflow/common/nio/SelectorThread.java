@@ -10,6 +10,7 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,6 +31,8 @@ public final class SelectorThread extends Thread {
     private final int id;
     /** list of active tasks waiting for execution in selector thread */
     private List<Runnable> tasks = new ArrayList<Runnable>();
+    /** set once a wakeup was issued for the current loop iteration */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
 
     /**
      * Initializes new thread responsible for handling channels.
@@ -54,6 +57,8 @@ public final class SelectorThread extends Thread {
 //        int c = 0;
         // run main loop until thread is interrupted
         while (!Thread.interrupted()) {
+            // tasks added from now on need a new wakeup
+            wakeupPending.set(false);
             runScheduleTasks();
 
             try {
@@ -117,9 +122,19 @@ public final class SelectorThread extends Thread {
     public void beginInvoke(Runnable task) {
         synchronized (taskLock) {
             tasks.add(task);
-            // Do not wakeup the Selector thread by calling selector.wakeup().
-            // Doing so generates too much contention on the selector internal lock.
-            // Instead, the selector will periodically poll the array with tasks
+        }
+        wakeup();
+    }
+
+    /**
+     * Makes the selector run its tasks without waiting for the select
+     * timeout. Calling selector.wakeup() for every task generates too much
+     * contention on the selector internal lock, so at most one wakeup is
+     * issued per loop iteration.
+     */
+    public void wakeup() {
+        if (!amIInSelector() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
         }
     }
 
@@ -138,9 +153,7 @@ public final class SelectorThread extends Thread {
             }
         };
 
-        synchronized (taskLock) {
-            tasks.add(task);
-        }
+        beginInvoke(task);
     }
 
     /**
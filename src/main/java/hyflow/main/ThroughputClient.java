@@ -3,7 +3,7 @@ package hyflow.main;
 import hyflow.benchmark.AbstractService;
 import hyflow.benchmark.kv.KeyValue;
 import hyflow.caesar.Caesar;
-import hyflow.caesar.messages.FastProposeReply;
+import hyflow.caesar.statistics.RequestProfile;
 import hyflow.caesar.statistics.RequestStats;
 import hyflow.common.*;
 import org.apache.logging.log4j.LogManager;
@@ -33,6 +33,7 @@ public class ThroughputClient implements Client {
     private final int numReplicas;
     private final short localId;
     private final Map<RequestId, Request> requestMap;
+    private final Map<RequestId, RequestProfile> profiles;
     private Vector<ClientThread> clients = new Vector<>();
     private AtomicInteger runningClients = new AtomicInteger(0);
     private AtomicInteger reqDoneCount = new AtomicInteger(0);
@@ -47,6 +48,9 @@ public class ThroughputClient implements Client {
         this.localId = replicaId;
 
         this.requestMap = new ConcurrentHashMap<>();
+        this.profiles = new ConcurrentHashMap<>();
+        // the cost logs are filled from the request profiles
+        RequestProfile.setEnabled(true);
 
         InputStream fis = Paths.get("tpsclient.properties").toUri().toURL().openStream();
         configuration.load(fis);
@@ -141,19 +145,13 @@ public class ThroughputClient implements Client {
             BufferedWriter bw = new BufferedWriter(fw);
             CostInfo info = new CostInfo();
             requestMap.forEach((rId, request) -> {
-                info.propose += request.proposeDuration;
-                info.retry += request.retryDuration;
-                info.deliver += request.deliverDuration;
-                if (request.info != null) {
-                    FastProposeReply[] replies = request.info.getReplies();
-                    if (request.objectIds[0] < ProcessDescriptor.getInstance().conflictPool) {
-                        int max = 0;
-                        for (FastProposeReply reply : replies) {
-                            if (reply != null) {
-                                max = Math.max(max, reply.getWaitTime());
-                            }
-                        }
-                        info.wait += max;
+                RequestProfile profile = profiles.get(rId);
+                if (profile != null) {
+                    info.propose += profile.proposeDuration;
+                    info.retry += profile.retryDuration;
+                    info.deliver += profile.deliverDuration;
+                    if (request.getObjectIds()[0] < ProcessDescriptor.getInstance().conflictPool) {
+                        info.wait += profile.replyWait;
                         info.waitCount++;
                     }
                 }
@@ -171,6 +169,8 @@ public class ThroughputClient implements Client {
         }
 
         requestMap.clear();
+        profiles.clear();
+        RequestProfile.clear();
 
 
         try {
@@ -220,10 +220,10 @@ public class ThroughputClient implements Client {
             reqDoneCount.incrementAndGet();
             req.setStatus(RequestStatus.Delivered);
 
-            req.deliverDuration = request.deliverDuration;
-            req.proposeDuration = request.proposeDuration;
-            req.retryDuration = request.retryDuration;
-            req.info = request.info;
+            RequestProfile profile = RequestProfile.remove(rId);
+            if (profile != null) {
+                profiles.put(rId, profile);
+            }
 
             synchronized (rId) {
                 rId.notifyAll();
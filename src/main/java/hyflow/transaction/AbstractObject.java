@@ -1,11 +1,18 @@
 package hyflow.transaction;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Created by balajiarun on 3/7/16.
  */
 public abstract class AbstractObject {
     private long version;
 
+    /* last snapshot that captured this object; guarded by this */
+    int snapshotEpoch;
+
     public AbstractObject() {
         version = -1;
     }
@@ -22,5 +29,10 @@ public abstract class AbstractObject {
         version += 1;
     }
 
-}
+    /** Writes the mutable state of the object, for snapshots. */
+    public abstract void writeState(DataOutput output) throws IOException;
 
+    /** Replaces the mutable state with one written by {@link #writeState}. */
+    public abstract void readState(DataInput input) throws IOException;
+
+}
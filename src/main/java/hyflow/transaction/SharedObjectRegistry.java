@@ -1,12 +1,29 @@
 package hyflow.transaction;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * Created by balajiarun on 3/7/16.
+ * <p>
+ * Snapshots are copy-on-write: while one is being written, the first write
+ * to an object through {@link #openForWrite(int)} saves the object's state
+ * for the snapshot, so execution goes on while the snapshot is serialized.
  */
 public class SharedObjectRegistry {
 
     private final AbstractObject[] registry;
 
+    /* snapshot being written, if any */
+    private volatile Snapshot snapshot;
+    /* guarded by this */
+    private int epoch = 0;
+
     public SharedObjectRegistry(int capacity) {
         this.registry = new AbstractObject[capacity];
     }
@@ -19,4 +36,109 @@ public class SharedObjectRegistry {
         return registry[id];
     }
 
+    /** Returns an object that is about to be modified. */
+    public AbstractObject openForWrite(int id) {
+        AbstractObject object = registry[id];
+        Snapshot current = snapshot;
+        if (current != null) {
+            current.preserve(id, object);
+        }
+        return object;
+    }
+
+    /**
+     * Starts a snapshot of the current state. Must be called while no write
+     * is in progress; writes may resume as soon as it returns.
+     */
+    public synchronized Snapshot beginSnapshot() {
+        if (snapshot != null) {
+            throw new IllegalStateException("A snapshot is already being written");
+        }
+        snapshot = new Snapshot(++epoch);
+        return snapshot;
+    }
+
+    /** Replaces the state of every object with the one in a snapshot. */
+    public void restore(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count != registry.length) {
+            throw new IOException("Snapshot holds " + count + " objects, expected " + registry.length);
+        }
+        for (AbstractObject object : registry) {
+            byte[] state = new byte[input.readInt()];
+            input.readFully(state);
+            if (object != null) {
+                synchronized (object) {
+                    object.readState(new DataInputStream(new ByteArrayInputStream(state)));
+                }
+            }
+        }
+    }
+
+    private static byte[] capture(AbstractObject object) {
+        if (object == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        try {
+            object.writeState(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public final class Snapshot implements Closeable {
+        private final int epoch;
+        /* state saved before the first write to an object; guarded by the object */
+        private final byte[][] saved = new byte[registry.length][];
+
+        private Snapshot(int epoch) {
+            this.epoch = epoch;
+        }
+
+        private void preserve(int id, AbstractObject object) {
+            synchronized (object) {
+                if (object.snapshotEpoch != epoch) {
+                    saved[id] = capture(object);
+                    object.snapshotEpoch = epoch;
+                }
+            }
+        }
+
+        /** Writes the state as of {@link #beginSnapshot()}, in the format read by {@link #restore}. */
+        public void writeTo(DataOutputStream output) throws IOException {
+            output.writeInt(registry.length);
+            for (int id = 0; id < registry.length; id++) {
+                AbstractObject object = registry[id];
+                byte[] state;
+                if (object == null) {
+                    state = capture(null);
+                } else {
+                    synchronized (object) {
+                        if (object.snapshotEpoch != epoch) {
+                            state = capture(object);
+                            object.snapshotEpoch = epoch;
+                        } else {
+                            state = saved[id];
+                            saved[id] = null;
+                        }
+                    }
+                }
+                output.writeInt(state.length);
+                output.write(state);
+            }
+        }
+
+        /** Ends the snapshot; writes stop saving state for it. */
+        @Override
+        public void close() {
+            synchronized (SharedObjectRegistry.this) {
+                if (snapshot == this) {
+                    snapshot = null;
+                }
+            }
+        }
+    }
+
 }
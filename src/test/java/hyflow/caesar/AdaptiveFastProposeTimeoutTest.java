@@ -0,0 +1,55 @@
+package hyflow.caesar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveFastProposeTimeoutTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void testUsesCeilingWithoutSamples() {
+        AdaptiveFastProposeTimeout timeout = new AdaptiveFastProposeTimeout(5, 4, MS, 100 * MS);
+        assertEquals(100 * MS, timeout.remainingNanos(0));
+    }
+
+    @Test
+    public void testWaitsForTheFastQuorumthReplica() {
+        AdaptiveFastProposeTimeout timeout = new AdaptiveFastProposeTimeout(5, 4, MS, 100 * MS);
+        long[] latencies = {2 * MS, 3 * MS, 4 * MS, 10 * MS, 80 * MS};
+        for (int round = 0; round < 200; round++) {
+            for (int replica = 0; replica < latencies.length; replica++) {
+                timeout.recordReply(replica, latencies[replica]);
+            }
+        }
+        // steady latencies: the deviation vanishes and the 4th fastest replica decides
+        long expected = timeout.expectedQuorumNanos();
+        assertTrue(expected >= 10 * MS && expected < 11 * MS);
+        assertEquals(expected - 5 * MS, timeout.remainingNanos(5 * MS));
+    }
+
+    @Test
+    public void testRemainingIsClamped() {
+        AdaptiveFastProposeTimeout timeout = new AdaptiveFastProposeTimeout(3, 2, 2 * MS, 50 * MS);
+        for (int replica = 0; replica < 3; replica++) {
+            timeout.recordReply(replica, MS);
+        }
+        assertEquals(2 * MS, timeout.remainingNanos(40 * MS));
+
+        for (int replica = 0; replica < 3; replica++) {
+            timeout.recordReply(replica, 500 * MS);
+        }
+        assertEquals(50 * MS, timeout.remainingNanos(0));
+    }
+
+    @Test
+    public void testSilentReplicasAreNotCounted() {
+        AdaptiveFastProposeTimeout timeout = new AdaptiveFastProposeTimeout(5, 4, MS, 100 * MS);
+        for (int replica = 0; replica < 3; replica++) {
+            timeout.recordReply(replica, 2 * MS);
+        }
+        // only three replicas ever replied, fewer than the fast quorum
+        assertEquals(100 * MS, timeout.expectedQuorumNanos());
+    }
+}
@@ -0,0 +1,32 @@
+package hyflow.caesar;
+
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatcherTest {
+
+    @Test
+    public void testPackUnpack() {
+        Request r1 = new Request(new RequestId((short) 1, 4), new int[]{3, 1}, new byte[]{1, 2});
+        Request r2 = new Request(new RequestId((short) 1, 7), new int[]{1, 5}, new byte[0]);
+
+        Request batch = Batcher.pack(Arrays.asList(r1, r2));
+        assertEquals(r1.getId(), batch.getId());
+        assertArrayEquals(new int[]{1, 3, 5}, batch.getObjectIds());
+
+        Request[] members = Batcher.unpack(batch);
+        assertEquals(2, members.length);
+        assertEquals(r1.getId(), members[0].getId());
+        assertArrayEquals(r1.getObjectIds(), members[0].getObjectIds());
+        assertArrayEquals(r1.getPayload(), members[0].getPayload());
+        assertEquals(r2.getId(), members[1].getId());
+        assertArrayEquals(r2.getObjectIds(), members[1].getObjectIds());
+        assertArrayEquals(r2.getPayload(), members[1].getPayload());
+    }
+}
@@ -0,0 +1,119 @@
+package hyflow.caesar;
+
+import hyflow.caesar.messages.FastProposeReply;
+import hyflow.caesar.messages.Message;
+import hyflow.caesar.messages.MessageType;
+import hyflow.caesar.messages.Stable;
+import hyflow.caesar.network.MessageHandler;
+import hyflow.caesar.network.Network;
+import hyflow.common.Configuration;
+import hyflow.common.LongHashSet;
+import hyflow.common.PID;
+import hyflow.common.ProcessDescriptor;
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** A single replica, so every proposal and reply loops back to it. */
+public class CatchUpTest {
+
+    /* a Caesar instance keeps its ports, so each test gets its own */
+    private static int nextPort = 2530;
+
+    private final BlockingQueue<Message> replies = new ArrayBlockingQueue<>(16);
+    private final MessageHandler handler = new MessageHandler() {
+        public void onMessageReceived(Message msg, int sender) {
+            replies.add(msg);
+        }
+
+        public void onMessageSent(Message message, BitSet destinations) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        List<PID> processes = new ArrayList<PID>();
+        processes.add(new PID(0, "localhost", nextPort++, 1));
+        ProcessDescriptor.initialize(new Configuration(processes), 0);
+        Network.addMessageListener(MessageType.FastProposeReply, handler);
+        Network.addMessageListener(MessageType.SlowProposeReply, handler);
+        Network.addMessageListener(MessageType.RetryReply, handler);
+    }
+
+    @After
+    public void tearDown() {
+        Network.removeAllMessageListeners();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotAnswerProposalsUntilCaughtUp() throws Exception {
+        Caesar caesar = new Caesar(1);
+        caesar.startCaesar(requests -> { }, true);
+
+        caesar.propose(new Request(new RequestId((short) 0, 0), new int[]{0}, new byte[0]));
+        assertNull(replies.poll(500, TimeUnit.MILLISECONDS));
+
+        caesar.caughtUp();
+        RequestId answered = new RequestId((short) 0, 1);
+        caesar.propose(new Request(answered, new int[]{0}, new byte[0]));
+        FastProposeReply reply = (FastProposeReply) replies.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals(answered, reply.getRequestId());
+    }
+
+    private static Stable stable(int seq, long position, int pred) {
+        Request request = new Request(new RequestId((short) 0, seq), new int[]{0}, new byte[0], position,
+                Collections.singletonList(new RequestId((short) 0, pred)), RequestStatus.Stable, 0);
+        return new Stable(0, request);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldDeliverDecisionsWhosePredsThePeerCollected() throws Exception {
+        BlockingQueue<Request> delivered = new LinkedBlockingQueue<>();
+        Caesar caesar = new Caesar(1);
+        caesar.startCaesar(delivered::addAll, true);
+
+        // received on the stable channel before the state: its pred is unknown here
+        caesar.applyStable(stable(2, 30, 0));
+        assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+
+        // the peer collected both preds, the state it sends contains them
+        ProcessDescriptor pd = ProcessDescriptor.getInstance();
+        SlotTable peer = new SlotTable(pd.proposerMapSize, pd.numReplicas);
+        for (int seq = 0; seq < 2; seq++) {
+            RequestId collected = new RequestId((short) 0, seq);
+            peer.acquire(collected);
+            peer.release(collected);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new SnapshotMark(new long[]{20}, new LongHashSet(), peer.collectedGenerations())
+                .writeTo(new DataOutputStream(bytes));
+        caesar.installSnapshot(SnapshotMark.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        assertEquals(new RequestId((short) 0, 2), delivered.poll(5, TimeUnit.SECONDS).getId());
+
+        // sent along with the state
+        caesar.applyStable(stable(3, 40, 1));
+        assertEquals(new RequestId((short) 0, 3), delivered.poll(5, TimeUnit.SECONDS).getId());
+        caesar.caughtUp();
+    }
+}
@@ -0,0 +1,125 @@
+package hyflow.caesar;
+
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeliveryEngineTest {
+
+    private SlotTable slots;
+    private DeliveryEngine engine;
+    private List<List<Request>> batches;
+
+    @Before
+    public void setUp() {
+        slots = new SlotTable(64, 2);
+        batches = new ArrayList<>();
+        engine = new DeliveryEngine(slots, batches::add);
+    }
+
+    private Request stable(int seq, long position, int... preds) {
+        List<RequestId> pred = new ArrayList<>();
+        for (int p : preds) {
+            pred.add(new RequestId((short) 0, p));
+        }
+        RequestId rId = new RequestId((short) 0, seq);
+        slots.acquire(rId);
+        Request request = new Request(rId, new int[0], new byte[0], position, pred, RequestStatus.Stable, 0);
+        engine.stable(request);
+        return request;
+    }
+
+    @Test
+    public void testIndependentRequestsGoOutSeparately() {
+        Request a = stable(0, 10);
+        Request b = stable(1, 20);
+
+        assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b)), batches);
+    }
+
+    @Test
+    public void testWaitsForLowerPositionedPred() {
+        Request a = stable(0, 10);
+        Request b = stable(1, 20, 0);
+        assertEquals(1, batches.size());
+
+        engine.delivered(a);
+        assertEquals(Arrays.asList(b), batches.get(1));
+    }
+
+    @Test
+    public void testWaitsForUnstablePredUntilItsPositionIsKnown() {
+        Request b = stable(1, 20, 0);
+        assertTrue(batches.isEmpty());
+
+        // stable with a higher position: b does not wait for it
+        Request a = stable(0, 30);
+        assertEquals(Arrays.asList(Arrays.asList(b), Arrays.asList(a)), batches);
+    }
+
+    @Test
+    public void testMutualDependencyGoesOutAsOneBatch() {
+        Request b = stable(1, 20, 0);
+        Request a = stable(0, 10, 1);
+
+        assertEquals(Arrays.asList(Arrays.asList(a, b)), batches);
+    }
+
+    @Test
+    public void testChainJoinsBatchOnlyWhenAllPredsAreInIt() {
+        Request c = stable(2, 30, 0, 1);
+        Request a = stable(0, 10);
+        assertEquals(Arrays.asList(Arrays.asList(a)), batches);
+
+        Request b = stable(1, 20);
+        assertEquals(Arrays.asList(b), batches.get(1));
+        assertEquals(2, batches.size());
+
+        engine.delivered(a);
+        assertEquals(2, batches.size());
+        engine.delivered(b);
+        assertEquals(Arrays.asList(c), batches.get(2));
+    }
+
+    @Test
+    public void testCollectedPredCountsAsDelivered() {
+        Request a = stable(0, 10);
+        engine.delivered(a);
+        slots.release(a.getId());
+
+        Request b = stable(1, 20, 0);
+        assertEquals(Arrays.asList(b), batches.get(1));
+    }
+
+    @Test
+    public void testPredWhoseSlotIsHeldIsLinkedOnceReleased() {
+        // request 32 maps to the slot of request 0
+        Request a = stable(0, 10);
+        Request b = stable(1, 20, 32);
+        assertEquals(1, batches.size());
+
+        engine.delivered(a);
+        slots.release(a.getId());
+        engine.retryDeferred();
+        assertEquals(1, batches.size());
+
+        // stable with a higher position: b does not wait for it
+        Request c = stable(32, 30);
+        assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b), Arrays.asList(c)), batches);
+    }
+
+    @Test
+    public void testDuplicateStableIsIgnored() {
+        Request a = stable(0, 10);
+        engine.stable(a);
+        assertEquals(1, batches.size());
+    }
+}
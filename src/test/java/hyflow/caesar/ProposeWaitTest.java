@@ -0,0 +1,58 @@
+package hyflow.caesar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProposeWaitTest {
+
+    private ProposeWait newWait() {
+        return new ProposeWait(null, null, null, 0, 0, null, false);
+    }
+
+    @Test
+    public void testFiresWhenLastBlockerClears() {
+        ProposeWait wait = newWait();
+        wait.block();
+        wait.block();
+        assertTrue(wait.arm());
+
+        assertFalse(wait.unblock());
+        assertTrue(wait.unblock());
+        assertTrue(wait.isFired());
+        assertFalse(wait.isRejected());
+    }
+
+    @Test
+    public void testClearedDuringScan() {
+        ProposeWait wait = newWait();
+        wait.block();
+        assertFalse(wait.unblock());
+
+        // nobody fired it, so the scanning thread goes on by itself
+        assertFalse(wait.arm());
+        assertTrue(wait.isFired());
+    }
+
+    @Test
+    public void testRejectFiresOnce() {
+        ProposeWait wait = newWait();
+        wait.block();
+        wait.block();
+        assertTrue(wait.reject());
+        assertTrue(wait.arm());
+
+        assertFalse(wait.unblock());
+        assertFalse(wait.reject());
+        assertTrue(wait.isRejected());
+    }
+
+    @Test
+    public void testCancel() {
+        ProposeWait wait = newWait();
+        wait.block();
+        wait.cancel();
+        assertTrue(wait.arm());
+        assertFalse(wait.unblock());
+    }
+}
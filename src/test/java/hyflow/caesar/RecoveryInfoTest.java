@@ -0,0 +1,89 @@
+package hyflow.caesar;
+
+import hyflow.caesar.messages.RecoveryReply;
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RecoveryInfoTest {
+
+    private static RecoveryReply.Entry entry(RequestStatus status, int view, long position) {
+        return new RecoveryReply.Entry(new Request(new RequestId((short) 0, 1), null, null, position,
+                Collections.emptyList(), status, view));
+    }
+
+    private static RecoveryInfo info() {
+        return new RecoveryInfo(new long[]{RequestId.pack(0, 1), RequestId.pack(0, 2)},
+                new int[]{1, 1}, new int[]{0, 0}, 3, 2);
+    }
+
+    @Test
+    public void testRequestsReachQuorumTogether() {
+        RecoveryInfo info = info();
+        assertEquals(0, info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.Stable, 0, 5), entry(RequestStatus.FastPending, 0, 6)}), 0).length);
+        RecoveryInfo.Quorum[] ready = info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.Stable, 0, 5), entry(RequestStatus.FastPending, 0, 6)}), 1);
+        assertEquals(2, ready.length);
+        assertEquals(new RequestId((short) 0, 1), ready[0].getRequestId());
+        assertTrue(info.isDone());
+        assertEquals(5, ready[0].getReplyWithStatus(RequestStatus.Stable, false).getPosition());
+        assertEquals(2, ready[1].getRecoverySet().size());
+    }
+
+    @Test
+    public void testSkippedEntriesDoNotCount() {
+        RecoveryInfo info = info();
+        RecoveryReply.Entry[] skipping = {entry(RequestStatus.Accepted, 0, 5), RecoveryReply.Entry.SKIPPED};
+        RecoveryReply.Entry[] full = {entry(RequestStatus.Accepted, 0, 5), entry(RequestStatus.Rejected, 0, 6)};
+
+        assertEquals(0, info.addReply(new RecoveryReply(1, skipping), 0).length);
+        assertIndices(info.addReply(new RecoveryReply(1, full), 1), 1);
+        assertFalse(info.isDone());
+        // a sender is only counted once
+        assertEquals(0, info.addReply(new RecoveryReply(1, full), 1).length);
+        assertIndices(info.addReply(new RecoveryReply(1, full), 2), 2);
+        assertTrue(info.isDone());
+    }
+
+    @Test
+    public void testHighestViewWins() {
+        RecoveryInfo info = info();
+        info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.Accepted, 0, 5), entry(RequestStatus.Accepted, 0, 5)}), 0);
+        RecoveryInfo.Quorum quorum = info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.SlowPending, 2, 8), entry(RequestStatus.Accepted, 0, 5)}), 1)[0];
+
+        assertNull(quorum.getReplyWithStatus(RequestStatus.Accepted, false));
+        assertEquals(8, quorum.getReplyWithStatus(RequestStatus.SlowPending, false).getPosition());
+    }
+
+    @Test
+    public void testQuorumIsNotChangedByLaterReplies() {
+        RecoveryInfo info = info();
+        info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.Accepted, 0, 5), RecoveryReply.Entry.SKIPPED}), 0);
+        RecoveryInfo.Quorum quorum = info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.Accepted, 0, 6), RecoveryReply.Entry.SKIPPED}), 1)[0];
+
+        // a reply in a higher view for the rest of the batch
+        info.addReply(new RecoveryReply(1, new RecoveryReply.Entry[]{
+                entry(RequestStatus.SlowPending, 2, 8), entry(RequestStatus.Accepted, 0, 5)}), 2);
+
+        assertEquals(5, quorum.getReplyWithStatus(RequestStatus.Accepted, false).getPosition());
+        assertEquals(2, quorum.getRecoverySet().size());
+    }
+
+    /** Asserts that the quorums are for the requests with the given sequence numbers. */
+    private static void assertIndices(RecoveryInfo.Quorum[] ready, int... seqNumbers) {
+        assertEquals(seqNumbers.length, ready.length);
+        for (int i = 0; i < seqNumbers.length; i++) {
+            assertEquals(new RequestId((short) 0, seqNumbers[i]), ready[i].getRequestId());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package hyflow.caesar;
+
+import hyflow.common.RequestId;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlotTableTest {
+
+    private SlotTable table;
+
+    @Before
+    public void setUp() {
+        // 2 replicas, 4 slots: (0,0) and (0,2) share slot 0
+        table = new SlotTable(4, 2);
+    }
+
+    @Test
+    public void testAcquireAndGet() {
+        RequestId rId = new RequestId((short) 0, 0);
+        assertNull(table.get(rId));
+
+        SlotTable.Slot slot = table.acquire(rId);
+        assertNotNull(slot);
+        assertEquals(rId, slot.getId());
+        assertSame(slot, table.acquire(rId));
+        assertSame(slot, table.get(rId));
+    }
+
+    @Test
+    public void testFullUntilReleased() {
+        RequestId oldId = new RequestId((short) 0, 0);
+        RequestId newId = new RequestId((short) 0, 2);
+        table.acquire(oldId);
+
+        assertSame(SlotTable.FULL, table.acquire(newId));
+        assertNull(table.get(newId));
+        assertEquals(oldId, table.get(oldId).getId());
+
+        table.release(oldId);
+        SlotTable.Slot slot = table.acquire(newId);
+        assertNotSame(SlotTable.FULL, slot);
+        assertEquals(newId, slot.getId());
+    }
+
+    @Test
+    public void testRecycle() {
+        RequestId oldId = new RequestId((short) 0, 0);
+        RequestId newId = new RequestId((short) 0, 2);
+
+        SlotTable.Slot oldSlot = table.acquire(oldId);
+        Object oldInfo = oldSlot.info;
+        table.release(oldId);
+
+        assertTrue(table.isCollected(oldId));
+        assertNull(table.get(oldId));
+        assertNull(table.acquire(oldId));
+
+        SlotTable.Slot newSlot = table.acquire(newId);
+        assertNotNull(newSlot);
+        assertNotSame(oldInfo, newSlot.info);
+        assertTrue(table.isCollected(oldId));
+        assertFalse(table.isCollected(newId));
+    }
+}
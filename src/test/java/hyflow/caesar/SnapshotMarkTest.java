@@ -0,0 +1,145 @@
+package hyflow.caesar;
+
+import hyflow.caesar.messages.Stable;
+import hyflow.caesar.storage.StableLog;
+import hyflow.common.LongHashSet;
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SnapshotMarkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SlotTable slots;
+    private ConflictDetector detector;
+    private DeliveryEngine engine;
+    private List<Request> delivered;
+
+    private void restart() {
+        slots = new SlotTable(1024, 2);
+        detector = new ConflictDetector(1, slots);
+        delivered = new ArrayList<>();
+        engine = new DeliveryEngine(slots, delivered::addAll);
+    }
+
+    private static Request request(int seq, long position, int... preds) {
+        List<RequestId> pred = new ArrayList<>();
+        for (int p : preds) {
+            pred.add(new RequestId((short) 0, p));
+        }
+        return new Request(new RequestId((short) 0, seq), new int[]{0}, new byte[64], position, pred,
+                RequestStatus.Stable, 0);
+    }
+
+    private void applyStable(Request request) {
+        Request known = detector.updateRequest(request);
+        if (known != null) {
+            engine.stable(known);
+        }
+    }
+
+    private static SnapshotMark copy(SnapshotMark mark) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mark.writeTo(new DataOutputStream(bytes));
+        return SnapshotMark.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private void replay(File dir) throws IOException {
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        log.replay(stable -> applyStable(stable.getRequest()));
+        log.close();
+    }
+
+    @Test
+    public void testReplayAfterTruncateDeliversDependentsOfTruncatedPreds() throws Exception {
+        File dir = folder.newFolder();
+        restart();
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        for (int seq = 0; seq < 40; seq++) {
+            Request request = request(seq, 10 + seq);
+            applyStable(request);
+            log.append(new Stable(0, request), () -> { });
+            request.setStatus(RequestStatus.Delivered);
+            engine.delivered(request);
+        }
+        // stable but not executed yet when the replica goes down
+        Request dependent = request(40, 100, 0);
+        applyStable(dependent);
+        log.append(new Stable(0, dependent), () -> { });
+
+        // every replica delivered the first 40, the snapshot contains them
+        detector.prune(0, 49);
+        SnapshotMark mark = copy(new SnapshotMark(new long[]{49}, new LongHashSet(),
+                slots.collectedGenerations()));
+        assertTrue(log.truncate(stable -> detector.isObsolete(stable.getRequest(), mark)) > 0);
+        log.close();
+
+        // the decision for request 0 is gone, nothing would ever release the dependent
+        restart();
+        replay(dir);
+        assertFalse(ids(delivered).contains(dependent.getId()));
+
+        restart();
+        engine.markCollected(mark.collectedGenerations(), detector::forget);
+        replay(dir);
+        assertEquals(Collections.singletonList(dependent.getId()), ids(delivered));
+    }
+
+    @Test
+    public void testLogIsKeptForRequestsCollectedAfterTheSnapshot() throws Exception {
+        restart();
+        Request request = request(0, 10);
+        applyStable(request);
+        request.setStatus(RequestStatus.Delivered);
+        engine.delivered(request);
+
+        SnapshotMark mark = new SnapshotMark(new long[]{10}, new LongHashSet(), slots.collectedGenerations());
+        detector.prune(0, 10);
+        assertFalse(detector.isObsolete(request, mark));
+        assertTrue(detector.isObsolete(request, new SnapshotMark(new long[]{10}, new LongHashSet(),
+                slots.collectedGenerations())));
+    }
+
+    @Test
+    public void testMarkCollectedReleasesWaitingDependents() {
+        restart();
+        // the pred is unknown here, the peer already collected it
+        Request dependent = request(1, 20, 0);
+        applyStable(dependent);
+        assertTrue(delivered.isEmpty());
+
+        SlotTable peer = new SlotTable(1024, 2);
+        peer.acquire(new RequestId((short) 0, 0));
+        peer.release(new RequestId((short) 0, 0));
+        engine.markCollected(peer.collectedGenerations(), detector::forget);
+
+        assertEquals(Collections.singletonList(dependent.getId()), ids(delivered));
+        assertTrue(slots.isCollected(new RequestId((short) 0, 0)));
+        assertFalse(slots.isCollected(dependent.getId()));
+    }
+
+    private static List<RequestId> ids(List<Request> requests) {
+        List<RequestId> ids = new ArrayList<>();
+        for (Request request : requests) {
+            ids.add(request.getId());
+        }
+        return ids;
+    }
+}
@@ -2,7 +2,11 @@ package hyflow.caesar;
 
 import org.junit.Test;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * Created by balajiarun on 3/24/16.
@@ -33,4 +37,39 @@ public class TimestampGeneratorTest {
         generator.setTimestamp(3);
         assertEquals(22, generator.newTimestamp());
     }
+
+    @Test
+    public void testConcurrentTimestampsAreUnique() throws InterruptedException {
+        generator = new TimestampGenerator(2, 5);
+        ConcurrentHashMap<Long, Boolean> seen = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    long timestamp = generator.newTimestamp();
+                    assertEquals(2, timestamp % 5);
+                    assertNull(seen.put(timestamp, true));
+                    generator.setTimestamp(timestamp + 3);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, seen.size());
+    }
+
+    @Test
+    public void testHybridFollowsTheClock() {
+        AtomicLong clock = new AtomicLong(100);
+        generator = new TimestampGenerator(4, 9, clock::get);
+        assertEquals(103, generator.newTimestamp());
+        // the clock did not move: the logical part advances
+        assertEquals(112, generator.newTimestamp());
+        clock.set(1000);
+        assertEquals(1003, generator.newTimestamp());
+        generator.setTimestamp(2000);
+        assertEquals(2011, generator.newTimestamp());
+    }
 }
@@ -3,6 +3,7 @@ package hyflow.caesar.messages;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertEquals;
 
@@ -22,6 +23,11 @@ public abstract class AbstractMessageTestCase<T extends Message> {
         DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
         deserialized = (T) MessageFactory.create(stream);
         compare(message, deserialized);
+
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        deserialized = (T) MessageFactory.create(bb);
+        compare(message, deserialized);
+        assertEquals(0, bb.remaining());
     }
 
     protected abstract void compare(T first, T second);
@@ -9,12 +9,12 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.TreeSet;
 
 import static org.hamcrest.core.Is.is;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertThat;
+import static org.junit.Assert.*;
 
 /**
  * Created by balajiarun on 3/14/16.
@@ -22,27 +22,28 @@ import static org.junit.Assert.assertThat;
 public class RecoveryReplyTest extends AbstractMessageTestCase<RecoveryReply> {
 
     private RecoveryReply reply;
-    private RequestId requestId;
     private Set<RequestId> pred;
-    private Request request;
 
     @Before
     public void setUp() {
-        requestId = new RequestId(0, 100);
+        RequestId requestId = new RequestId((short) 0, 100);
         pred = new TreeSet<>();
-        pred.add(new RequestId(0, 200));
-        pred.add(new RequestId(0, 201));
-        pred.add(new RequestId(0, 202));
-
-        request = new Request(requestId, null, null, 0, pred, RequestStatus.Waiting, 0);
-        reply = new RecoveryReply(0, requestId, request);
+        pred.add(new RequestId((short) 0, 200));
+        pred.add(new RequestId((short) 0, 201));
+        pred.add(new RequestId((short) 0, 202));
+
+        Request request = new Request(requestId, null, null, 7, pred, RequestStatus.FastPending, 3);
+        reply = new RecoveryReply(5, new RecoveryReply.Entry[]{
+                new RecoveryReply.Entry(request),
+                new RecoveryReply.Entry((Request) null),
+                RecoveryReply.Entry.SKIPPED});
     }
 
     @Test
     public void shouldInitializeFields() {
-
-        assertEquals(requestId, reply.getRequestId());
-        assertThat(pred, is(reply.getPred()));
+        assertEquals(5, reply.getBatchId());
+        assertThat(reply.getEntries()[0].getPred(), is(pred));
+        assertTrue(reply.getEntries()[0].isValid());
     }
 
     @Test
@@ -60,19 +61,37 @@ public class RecoveryReplyTest extends AbstractMessageTestCase<RecoveryReply> {
 
         assertEquals(MessageType.RecoveryReply, type);
         compare(reply, deserializedReply);
-        assertThat(deserializedReply.getPred(), is(pred));
+        RecoveryReply.Entry entry = deserializedReply.getEntries()[0];
+        assertEquals(new ArrayList<>(pred), new ArrayList<>(entry.getPred()));
+        assertEquals(7, entry.getPosition());
+        assertEquals(3, entry.getRequestView());
+        assertEquals(RequestStatus.FastPending, entry.getStatus());
         assertEquals(0, dis.available());
     }
 
+    @Test
+    public void testRecoverySerialization() throws IOException, ClassNotFoundException {
+        Recovery recovery = new Recovery(9, new long[]{RequestId.pack(1, 2), RequestId.pack(3, 4)}, new int[]{1, 2});
+        Recovery deserialized = (Recovery) MessageFactory.readByteArray(recovery.toByteArray());
+
+        assertEquals(9, deserialized.getBatchId());
+        assertEquals(2, deserialized.size());
+        assertEquals(RequestId.pack(3, 4), deserialized.getRequestId(1));
+        assertEquals(2, deserialized.getView(1));
+    }
 
     @Test
     public void shouldReturnCorrectMessageType() {
         assertEquals(MessageType.RecoveryReply, reply.getType());
     }
 
-
     @Override
     protected void compare(RecoveryReply first, RecoveryReply second) {
-        assertEquals(first.getRequestId(), second.getRequestId());
+        assertEquals(first.getBatchId(), second.getBatchId());
+        assertEquals(first.getEntries().length, second.getEntries().length);
+        for (int i = 0; i < first.getEntries().length; i++) {
+            assertEquals(first.getEntries()[i].isValid(), second.getEntries()[i].isValid());
+            assertEquals(first.getEntries()[i].isSkipped(), second.getEntries()[i].isSkipped());
+        }
     }
 }
@@ -1,5 +1,6 @@
 package hyflow.caesar.messages;
 
+import hyflow.common.PackedRequestIds;
 import hyflow.common.RequestId;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,13 +26,13 @@ public class RetryReplyTest extends AbstractMessageTestCase<RetryReply> {
 
     @Before
     public void setUp() {
-        requestId = new RequestId(0, 100);
+        requestId = new RequestId((short) 0, 100);
         pred = new TreeSet<>();
-        pred.add(new RequestId(0, 200));
-        pred.add(new RequestId(0, 201));
-        pred.add(new RequestId(0, 202));
+        pred.add(new RequestId((short) 0, 200));
+        pred.add(new RequestId((short) 0, 201));
+        pred.add(new RequestId((short) 0, 202));
 
-        reply = new RetryReply(0, requestId, pred);
+        reply = new RetryReply(0, requestId, PackedRequestIds.of(pred));
     }
 
     @Test
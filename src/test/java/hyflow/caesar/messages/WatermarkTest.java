@@ -0,0 +1,62 @@
+package hyflow.caesar.messages;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WatermarkTest extends AbstractMessageTestCase<Watermark> {
+
+    private int[] oIds = new int[]{0, 5, 7};
+    private long[] positions = new long[]{100, 203, 9};
+    private Watermark watermark;
+
+    @Before
+    public void setUp() {
+        watermark = new Watermark(0, oIds, positions);
+    }
+
+    @Test
+    public void shouldInitializeFields() {
+        assertArrayEquals(oIds, watermark.getObjectIds());
+        assertArrayEquals(positions, watermark.getPositions());
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        verifySerialization(watermark);
+
+        byte[] bytes = watermark.toByteArray();
+        assertEquals(bytes.length, watermark.byteSize());
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        DataInputStream dis = new DataInputStream(bis);
+
+        MessageType type = MessageType.values()[dis.readByte()];
+        Watermark deserialized = new Watermark(dis);
+
+        assertEquals(MessageType.Watermark, type);
+        compare(watermark, deserialized);
+        assertEquals(0, dis.available());
+    }
+
+    @Test
+    public void testEmptySerialization() throws IOException, ClassNotFoundException {
+        verifySerialization(new Watermark(0, new int[0], new long[0]));
+    }
+
+    @Test
+    public void shouldReturnCorrectMessageType() {
+        assertEquals(MessageType.Watermark, watermark.getType());
+    }
+
+    @Override
+    protected void compare(Watermark first, Watermark second) {
+        assertArrayEquals(first.getObjectIds(), second.getObjectIds());
+        assertArrayEquals(first.getPositions(), second.getPositions());
+    }
+}
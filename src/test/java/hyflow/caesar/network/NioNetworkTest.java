@@ -0,0 +1,93 @@
+package hyflow.caesar.network;
+
+import hyflow.caesar.messages.Message;
+import hyflow.caesar.messages.MessageFactory;
+import hyflow.caesar.messages.MessageType;
+import hyflow.caesar.messages.Watermark;
+import hyflow.common.Configuration;
+import hyflow.common.PID;
+import hyflow.common.ProcessDescriptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class NioNetworkTest {
+
+    private final BlockingQueue<Message> received = new ArrayBlockingQueue<>(16);
+    private final MessageHandler handler = new MessageHandler() {
+        public void onMessageReceived(Message msg, int sender) {
+            received.add(msg);
+        }
+
+        public void onMessageSent(Message message, BitSet destinations) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        List<PID> processes = new ArrayList<PID>();
+        processes.add(new PID(0, "localhost", 2030, 1));
+        processes.add(new PID(1, "localhost", 2031, 1));
+        ProcessDescriptor.initialize(new Configuration(processes), 0);
+        Network.addMessageListener(MessageType.Watermark, handler);
+    }
+
+    @After
+    public void tearDown() {
+        Network.removeMessageListener(MessageType.Watermark, handler);
+    }
+
+    /** Replica 1 connects to replica 0; messages flow both ways, length prefixed. */
+    @Test(timeout = 5000)
+    public void shouldExchangeFramedMessages() throws Exception {
+        NioNetwork network = new NioNetwork(0);
+        network.start();
+
+        Socket socket = new Socket("localhost", 2030);
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+
+        byte[] bytes = new Watermark(0, new int[]{3}, new long[]{42}).toByteArray();
+        output.writeInt(1);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.flush();
+
+        Watermark in = (Watermark) received.poll(4, TimeUnit.SECONDS);
+        assertNotNull(in);
+        assertArrayEquals(new int[]{3}, in.getObjectIds());
+        assertArrayEquals(new long[]{42}, in.getPositions());
+
+        Watermark out = new Watermark(0, new int[]{1, 2}, new long[]{5, 6});
+        // wait until the handshake went through
+        while (true) {
+            network.sendMessage(out, 1);
+            if (input.available() > 0) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        int length = input.readInt();
+        assertEquals(out.byteSize(), length);
+        byte[] frame = new byte[length];
+        input.readFully(frame);
+        Watermark echoed = (Watermark) MessageFactory.readByteArray(frame);
+        assertArrayEquals(out.getPositions(), echoed.getPositions());
+
+        socket.close();
+    }
+}
@@ -0,0 +1,96 @@
+package hyflow.caesar.replica;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExecutionSchedulerTest {
+
+    private ExecutorService pool;
+    private ExecutionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        scheduler = new ExecutionScheduler(pool, 16);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testConflictingRequestsRunInOrder() throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            // every request shares object 3 with the others
+            scheduler.submit(new int[]{3, n % 5}, () -> {
+                order.add(n);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void testDisjointRequestsRunInParallel() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            scheduler.submit(new int[]{i}, () -> {
+                started.countDown();
+                try {
+                    // only returns if the other request runs at the same time
+                    if (started.await(5, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaitsForEveryObject() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.submit(new int[]{1}, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            order.add("a");
+        });
+        scheduler.submit(new int[]{2}, () -> order.add("b"));
+        scheduler.submit(new int[]{1, 2}, () -> {
+            order.add("c");
+            done.countDown();
+        });
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("c", order.get(2));
+    }
+}
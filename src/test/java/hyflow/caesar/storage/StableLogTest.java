@@ -0,0 +1,147 @@
+package hyflow.caesar.storage;
+
+import hyflow.caesar.messages.Stable;
+import hyflow.common.Request;
+import hyflow.common.RequestId;
+import hyflow.common.RequestStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StableLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Stable stable(int seq) {
+        Request request = new Request(new RequestId((short) 1, seq), new int[]{seq % 3}, new byte[]{(byte) seq},
+                100 + seq, Arrays.asList(new RequestId((short) 0, seq)), RequestStatus.Stable, 0);
+        return new Stable(2, request);
+    }
+
+    /** The segment files, without the one mapped ahead. */
+    private static File[] segments(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private List<Stable> replay(File dir) throws IOException {
+        List<Stable> records = new ArrayList<>();
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        log.replay(records::add);
+        log.close();
+        return records;
+    }
+
+    @Test
+    public void testGroupCommitAcknowledgesAfterForce() throws Exception {
+        File dir = folder.newFolder();
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.GROUP, 10, Runnable::run);
+        CountDownLatch durable = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            log.append(stable(i), durable::countDown);
+        }
+        assertTrue(durable.await(5, TimeUnit.SECONDS));
+        log.close();
+
+        List<Stable> records = replay(dir);
+        assertEquals(50, records.size());
+        for (int i = 0; i < 50; i++) {
+            Request request = records.get(i).getRequest();
+            assertEquals(new RequestId((short) 1, i), request.getId());
+            assertEquals(100 + i, request.getPosition());
+            assertEquals(2, request.getView());
+            assertTrue(request.getPred().contains(new RequestId((short) 0, i)));
+            assertArrayEquals(new byte[]{(byte) i}, request.getPayload());
+        }
+        // 1 KB segments: the records spread over several files
+        assertTrue(segments(dir).length > 1);
+    }
+
+    @Test
+    public void testAppendContinuesAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        StableLog log = new StableLog(dir, 4096, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        log.append(stable(0), () -> { });
+        log.close();
+
+        log = new StableLog(dir, 4096, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        log.append(stable(1), () -> { });
+        log.close();
+
+        List<Stable> records = replay(dir);
+        assertEquals(2, records.size());
+        assertEquals(new RequestId((short) 1, 1), records.get(1).getRequest().getId());
+    }
+
+    @Test
+    public void testTornRecordEndsTheLog() throws Exception {
+        File dir = folder.newFolder();
+        StableLog log = new StableLog(dir, 4096, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        log.append(stable(0), () -> { });
+        log.append(stable(1), () -> { });
+        log.close();
+
+        // corrupt the last byte of the second record
+        int first = 8 + stable(0).byteSize();
+        int second = 8 + stable(1).byteSize();
+        try (RandomAccessFile file = new RandomAccessFile(segments(dir)[0], "rw")) {
+            file.seek(first + second - 1);
+            file.write(0x7f);
+        }
+
+        List<Stable> records = replay(dir);
+        assertEquals(1, records.size());
+        assertEquals(new RequestId((short) 1, 0), records.get(0).getRequest().getId());
+    }
+
+    @Test
+    public void testTruncateKeepsCurrentSegmentAndLiveRecords() throws Exception {
+        File dir = folder.newFolder();
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.NONE, 10, Runnable::run);
+        for (int i = 0; i < 50; i++) {
+            log.append(stable(i), () -> { });
+        }
+        int segments = segments(dir).length;
+
+        // record 0 is still needed, so its segment stays
+        int deleted = log.truncate(stable -> stable.getRequest().getId().getSeqNumber() != 0);
+        assertEquals(segments - 2, deleted);
+        log.close();
+
+        List<Stable> records = replay(dir);
+        assertEquals(new RequestId((short) 1, 0), records.get(0).getRequest().getId());
+        assertEquals(new RequestId((short) 1, 49), records.get(records.size() - 1).getRequest().getId());
+        assertTrue(records.size() < 50);
+    }
+
+    @Test
+    public void testRollUsesTheSegmentMappedAhead() throws Exception {
+        File dir = folder.newFolder();
+        StableLog log = new StableLog(dir, 1024, StableLog.SyncPolicy.PERIODIC, 1, Runnable::run);
+        for (int i = 0; i < 50; i++) {
+            log.append(stable(i), () -> { });
+        }
+        log.close();
+
+        // the temporary file is gone and the segments hold every record in order
+        assertEquals(segments(dir).length, dir.list().length);
+        List<Stable> records = replay(dir);
+        assertEquals(50, records.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(new RequestId((short) 1, i), records.get(i).getRequest().getId());
+        }
+    }
+}
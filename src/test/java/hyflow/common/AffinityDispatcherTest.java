@@ -0,0 +1,89 @@
+package hyflow.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AffinityDispatcherTest {
+
+    private AffinityDispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testRunsEveryTask() throws InterruptedException {
+        dispatcher = new AffinityDispatcher("Test", 4);
+        CountDownLatch done = new CountDownLatch(100000);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 100000; i++) {
+            dispatcher.execute(() -> {
+                ran.incrementAndGet();
+                done.countDown();
+            }, i % 12, i % 97);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(100000, ran.get());
+    }
+
+    @Test
+    public void testHigherBandsRunFirst() throws InterruptedException {
+        dispatcher = new AffinityDispatcher("Test", 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.execute(() -> {
+            blocked.countDown();
+            await(release);
+        }, 0, 1);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        dispatcher.execute(() -> { order.add(0); done.countDown(); }, 0, 1);
+        dispatcher.execute(() -> { order.add(1); done.countDown(); }, 1, 1);
+        dispatcher.execute(() -> { order.add(10); done.countDown(); }, 10, 1);
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(10, 1, 0), order);
+    }
+
+    @Test
+    public void testIdleWorkersSteal() throws InterruptedException {
+        dispatcher = new AffinityDispatcher("Test", 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        // the same key: without stealing, everything would wait for the blocked task
+        dispatcher.execute(() -> {
+            blocked.countDown();
+            await(release);
+        }, 1, 7);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.execute(done::countDown, 1, 7);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package hyflow.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        LongHashSet set = new LongHashSet(2);
+        for (long i = 1; i <= 1000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        assertFalse(set.add(31));
+        assertEquals(1000, set.size());
+
+        for (long i = 1; i <= 1000; i++) {
+            assertTrue(set.contains(i * 31));
+            assertFalse(set.contains(i * 31 + 1));
+        }
+    }
+
+    @Test
+    public void testZeroKey() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+        assertArrayEquals(new long[]{0}, set.toArray());
+    }
+
+    @Test
+    public void testSortedArrayAndClear() {
+        LongHashSet set = new LongHashSet();
+        set.add(RequestId.pack(2, 1));
+        set.add(RequestId.pack(0, 7));
+        set.add(RequestId.pack(0, 3));
+
+        assertArrayEquals(new long[]{RequestId.pack(0, 3), RequestId.pack(0, 7), RequestId.pack(2, 1)},
+                set.toSortedArray());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(RequestId.pack(0, 3)));
+    }
+}
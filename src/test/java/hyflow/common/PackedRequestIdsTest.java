@@ -0,0 +1,113 @@
+package hyflow.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class PackedRequestIdsTest {
+
+    private static RequestId id(int clientId, int seq) {
+        return new RequestId((short) clientId, seq);
+    }
+
+    @Test
+    public void testPackSortsAndFinds() {
+        Set<RequestId> ids = new HashSet<>(Arrays.asList(id(2, 7), id(0, 5), id(1, 9), id(0, 3)));
+        PackedRequestIds packed = PackedRequestIds.of(ids);
+
+        assertEquals(4, packed.size());
+        assertEquals(id(0, 3), packed.get(0));
+        assertEquals(id(2, 7), packed.get(3));
+        assertTrue(packed.contains(id(1, 9)));
+        assertFalse(packed.contains(id(1, 8)));
+        assertEquals(new TreeSet<>(ids), packed);
+    }
+
+    @Test
+    public void testReadSharesBuffer() {
+        ByteBuffer bb = ByteBuffer.allocate(4 + PackedRequestIds.byteSize(2) + 4);
+        bb.putInt(42);
+        PackedRequestIds.write(Arrays.asList(id(0, 1), id(0, 2)), bb);
+        bb.putInt(43);
+        bb.flip();
+
+        assertEquals(42, bb.getInt());
+        PackedRequestIds packed = PackedRequestIds.read(bb);
+        assertEquals(43, bb.getInt());
+        assertFalse(bb.hasRemaining());
+
+        assertEquals(2, packed.size());
+        assertTrue(packed.contains(id(0, 2)));
+        bb.putShort(4 + 4 + 6, (short) 5);
+        assertEquals(id(5, 2), packed.get(1));
+    }
+
+    @Test
+    public void testUnsortedInput() {
+        ByteBuffer bb = ByteBuffer.allocate(PackedRequestIds.byteSize(3));
+        PackedRequestIds.write(Arrays.asList(id(3, 1), id(0, 1), id(2, 1)), bb);
+        bb.flip();
+
+        PackedRequestIds packed = PackedRequestIds.read(bb);
+        assertTrue(packed.contains(id(0, 1)));
+        assertTrue(packed.contains(id(3, 1)));
+        assertFalse(packed.contains(id(1, 1)));
+    }
+
+    @Test
+    public void testPackedOrderMatchesCompareTo() {
+        RequestId[] ids = {id(0, 3), id(0, Integer.MAX_VALUE), id(1, 0), id(7, 2)};
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], RequestId.fromLong(ids[i].toLong()));
+            if (i > 0) {
+                assertTrue(ids[i - 1].toLong() < ids[i].toLong());
+            }
+        }
+
+        LongHashSet set = new LongHashSet();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            set.add(ids[i].toLong());
+        }
+        PackedRequestIds packed = PackedRequestIds.of(set);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], packed.get(i));
+            assertTrue(packed.contains(ids[i].toLong()));
+        }
+    }
+
+    @Test
+    public void testUnion() {
+        PackedRequestIds a = PackedRequestIds.of(Arrays.asList(id(0, 1), id(0, 4), id(2, 2)));
+        PackedRequestIds b = PackedRequestIds.of(Arrays.asList(id(0, 4), id(1, 1)));
+
+        ByteBuffer bb = ByteBuffer.allocate(PackedRequestIds.byteSize(2));
+        PackedRequestIds.write(Arrays.asList(id(3, 0), id(0, 2)), bb);
+        bb.flip();
+        PackedRequestIds unsorted = PackedRequestIds.read(bb);
+
+        PackedRequestIds union = PackedRequestIds.union(a, null, b, PackedRequestIds.EMPTY, unsorted);
+        assertEquals(6, union.size());
+        long[] expected = {id(0, 1).toLong(), id(0, 2).toLong(), id(0, 4).toLong(),
+                id(1, 1).toLong(), id(2, 2).toLong(), id(3, 0).toLong()};
+        assertArrayEquals(expected, PackedRequestIds.toLongArray(union));
+        assertTrue(union.contains(id(1, 1)));
+        assertFalse(union.contains(id(1, 2)));
+
+        assertSame(a, PackedRequestIds.union(null, a));
+        assertTrue(PackedRequestIds.union(null, null).isEmpty());
+    }
+
+    @Test
+    public void testEmpty() {
+        ByteBuffer bb = ByteBuffer.allocate(PackedRequestIds.byteSize(0));
+        PackedRequestIds.of(new TreeSet<RequestId>()).writeTo(bb);
+        bb.flip();
+        assertTrue(PackedRequestIds.read(bb).isEmpty());
+    }
+}
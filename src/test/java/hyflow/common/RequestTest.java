@@ -0,0 +1,62 @@
+package hyflow.common;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RequestTest {
+
+    @Test
+    public void testConcurrentSettersKeepEachOthersFields() throws InterruptedException {
+        Request request = new Request(new RequestId((short) 1, 1), new int[]{0}, new byte[0]);
+        Thread positions = new Thread(() -> {
+            for (int i = 0; i <= 100000; i++) {
+                request.setPosition(i);
+            }
+        });
+        Thread views = new Thread(() -> {
+            for (int i = 0; i <= 100000; i++) {
+                request.setView(i);
+            }
+        });
+        positions.start();
+        views.start();
+        positions.join();
+        views.join();
+
+        assertEquals(100000, request.getPosition());
+        assertEquals(100000, request.getView());
+    }
+
+    @Test
+    public void testUpdateWithTakesTheWholeState() {
+        Request request = new Request(new RequestId((short) 1, 1), new int[]{0}, new byte[0]);
+        Request other = new Request(new RequestId((short) 1, 1), new int[]{0}, new byte[0], 42,
+                Collections.singletonList(new RequestId((short) 2, 2)), RequestStatus.Stable, 3);
+        InstanceState before = request.getState();
+
+        request.updateWith(other);
+
+        assertSame(other.getState(), request.getState());
+        assertEquals(42, request.getPosition());
+        assertEquals(RequestStatus.Stable, request.getStatus());
+        assertEquals(-1, before.position);
+        assertEquals(RequestStatus.Waiting, before.status);
+    }
+
+    @Test
+    public void testCopiesShareTheCommand() {
+        Request request = new Request(new RequestId((short) 1, 1), new int[]{0}, new byte[0]);
+        request.setHasWhitelist(true);
+        Request copy = new Request(request.getCommand(), 7, null, RequestStatus.Accepted, 1);
+
+        assertSame(request.getCommand(), copy.getCommand());
+        assertEquals(request, copy);
+        assertFalse(copy.hasWhitelist());
+
+        request.setPosition(9);
+        assertTrue(request.hasWhitelist());
+    }
+}
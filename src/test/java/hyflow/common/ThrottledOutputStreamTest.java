@@ -0,0 +1,37 @@
+package hyflow.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ThrottledOutputStreamTest {
+
+    @Test
+    public void testWritesAreSlowedToTheRate() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ThrottledOutputStream output = new ThrottledOutputStream(bytes, 200 * 1024);
+        byte[] chunk = new byte[16 * 1024];
+        long start = System.nanoTime();
+        for (int i = 0; i < 32; i++) {
+            output.write(chunk);
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(32 * chunk.length, bytes.size());
+        // 512 KB at 200 KB/s, less the one second burst
+        assertTrue("took " + elapsed + " ms", elapsed >= 1400);
+    }
+
+    @Test
+    public void testZeroRateIsUnlimited() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ThrottledOutputStream output = new ThrottledOutputStream(bytes, 0);
+        long start = System.nanoTime();
+        output.write(new byte[16 * 1024 * 1024]);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1000);
+        assertEquals(16 * 1024 * 1024, bytes.size());
+    }
+}
@@ -0,0 +1,51 @@
+package hyflow.common.nio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testAllocateRoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.allocate(300);
+        assertEquals(300, buffer.size());
+        assertEquals(512, buffer.buffer().capacity());
+        assertTrue(buffer.buffer().isDirect());
+    }
+
+    @Test
+    public void testRecycledAfterLastRelease() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.allocate(100);
+        ByteBuffer bb = buffer.buffer();
+
+        buffer.retain();
+        buffer.release();
+        assertNotSame(bb, pool.allocate(100).buffer());
+
+        buffer.release();
+        assertSame(bb, pool.allocate(200).buffer());
+    }
+
+    @Test
+    public void testDuplicateReadsWholeContent() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.allocate(8);
+        buffer.buffer().putLong(42);
+
+        assertEquals(42, buffer.duplicate().getLong());
+        assertEquals(42, buffer.duplicate().getLong());
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool();
+        PooledBuffer buffer = pool.allocate(BufferPool.MAX_SIZE + 1);
+        assertFalse(buffer.buffer().isDirect());
+        buffer.release();
+    }
+}
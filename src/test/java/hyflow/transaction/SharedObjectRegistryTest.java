@@ -0,0 +1,72 @@
+package hyflow.transaction;
+
+import hyflow.benchmark.kv.Value;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SharedObjectRegistryTest {
+
+    private SharedObjectRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SharedObjectRegistry(3);
+        for (int id = 0; id < 3; id++) {
+            registry.registerObjects(id, new Value(id, id * 10));
+        }
+    }
+
+    private byte[] write(SharedObjectRegistry.Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.writeTo(new DataOutputStream(bytes));
+        snapshot.close();
+        return bytes.toByteArray();
+    }
+
+    private int value(int id) {
+        return ((Value) registry.getObject(id)).getValue();
+    }
+
+    @Test
+    public void testWritesAfterBeginAreNotInSnapshot() throws IOException {
+        SharedObjectRegistry.Snapshot snapshot = registry.beginSnapshot();
+        ((Value) registry.openForWrite(1)).setValue(111);
+        byte[] state = write(snapshot);
+        ((Value) registry.openForWrite(2)).setValue(222);
+
+        registry.restore(new DataInputStream(new ByteArrayInputStream(state)));
+        assertEquals(0, value(0));
+        assertEquals(10, value(1));
+        assertEquals(20, value(2));
+    }
+
+    @Test
+    public void testWritesAfterCaptureAreKept() throws IOException {
+        ((Value) registry.openForWrite(0)).setValue(5);
+        byte[] state = write(registry.beginSnapshot());
+
+        // a second snapshot must capture again
+        SharedObjectRegistry.Snapshot second = registry.beginSnapshot();
+        ((Value) registry.openForWrite(0)).setValue(6);
+        byte[] secondState = write(second);
+
+        registry.restore(new DataInputStream(new ByteArrayInputStream(state)));
+        assertEquals(5, value(0));
+        registry.restore(new DataInputStream(new ByteArrayInputStream(secondState)));
+        assertEquals(5, value(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOneSnapshotAtATime() {
+        registry.beginSnapshot();
+        registry.beginSnapshot();
+    }
+}